@@ -17,6 +17,7 @@
 package com.radixiot.grpcweb.conformance;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import org.checkerframework.checker.nullness.qual.Nullable;
@@ -175,7 +176,8 @@ public class ConformanceService extends ConformanceServiceGrpc.ConformanceServic
         var timeoutKey = Metadata.Key.of("grpc-timeout", Metadata.ASCII_STRING_MARSHALLER);
         @Nullable String timeoutValue = requestHeadersMeta.get(timeoutKey);
         if (timeoutValue != null) {
-            requestInfoBuilder.setTimeoutMs(headerConverter.parseTimeout(timeoutValue).toMillis());
+            requestInfoBuilder.setTimeoutMs(
+                    TimeUnit.NANOSECONDS.toMillis(headerConverter.parseTimeoutNanos(timeoutValue)));
         }
 
         return requestInfoBuilder.build();
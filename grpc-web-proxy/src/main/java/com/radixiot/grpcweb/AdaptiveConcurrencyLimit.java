@@ -0,0 +1,189 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import io.grpc.Channel;
+import io.grpc.Status;
+
+/**
+ * Admission control for calls to the server. Each backend has its own concurrency limit which adapts to the round trip
+ * time of its calls. A backend is a channel returned by the {@link ChannelManager}, e.g. the pool of channels to one
+ * target of the {@link PooledChannelManager}, or for the {@link AffinityChannelManager} the backend which the call is
+ * routed to. When the limit is reached further calls are rejected immediately with
+ * {@link Status.Code#RESOURCE_EXHAUSTED} and a grpc-retry-pushback-ms trailer, rather than queueing while the server is
+ * slow.
+ * <p>
+ * Only calls where the server sends a single response are limited, a server stream is long-lived and its duration
+ * is not a measure of the server's latency. The limits are held by this object, so an instance should be used by a
+ * single {@link RequestHandler}. Channels are weakly referenced, so the limit of a backend is dropped once its channel
+ * is no longer used, e.g. after it is removed from the {@link AffinityChannelManager}.
+ */
+public final class AdaptiveConcurrencyLimit {
+
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    /**
+     * Limiters keyed by {@link BackendKey}, and looked up by {@link Lookup}.
+     */
+    private final Map<Object, ConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Channel> collected = new ReferenceQueue<>();
+
+    private AdaptiveConcurrencyLimit(Builder builder) {
+        this.initialLimit = builder.initialLimit;
+        this.minLimit = builder.minLimit;
+        this.maxLimit = builder.maxLimit;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param channel channel to the backend, the channel manager is expected to return the same channel for each call
+     *                to a backend
+     * @return limiter for calls to the backend
+     */
+    ConcurrencyLimiter limiter(Channel channel) {
+        @Nullable ConcurrencyLimiter limiter = limiters.get(new Lookup(channel));
+        if (limiter != null) {
+            return limiter;
+        }
+        removeCollected();
+        return limiters.computeIfAbsent(new BackendKey(channel, collected),
+                k -> new ConcurrencyLimiter(initialLimit, minLimit, maxLimit));
+    }
+
+    /**
+     * @param channel channel to the backend
+     * @return current concurrency limit of the backend, or the initial limit if no calls have been made to it
+     */
+    public int limit(Channel channel) {
+        @Nullable ConcurrencyLimiter limiter = limiters.get(new Lookup(channel));
+        return limiter != null ? limiter.limit() : initialLimit;
+    }
+
+    int backendCount() {
+        removeCollected();
+        return limiters.size();
+    }
+
+    private void removeCollected() {
+        for (var key = collected.poll(); key != null; key = collected.poll()) {
+            // a cleared key is only equal to itself
+            limiters.remove(key);
+        }
+    }
+
+    /**
+     * Weak reference to a backend's channel, compared by identity.
+     */
+    private static final class BackendKey extends WeakReference<Channel> {
+        private final int hash;
+
+        private BackendKey(Channel channel, ReferenceQueue<Channel> queue) {
+            super(channel, queue);
+            this.hash = System.identityHashCode(channel);
+        }
+
+        @Override
+        public boolean equals(@Nullable Object o) {
+            if (this == o) return true;
+            @Nullable Channel channel = get();
+            return channel != null && (o instanceof BackendKey key && key.get() == channel ||
+                    o instanceof Lookup lookup && lookup.channel == channel);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Strongly references a channel while its limiter is looked up, so that a {@link BackendKey} does not need to be
+     * created for every call.
+     */
+    private static final class Lookup {
+        private final Channel channel;
+
+        private Lookup(Channel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public boolean equals(@Nullable Object o) {
+            return o instanceof BackendKey key ? key.get() == channel :
+                    o instanceof Lookup lookup && lookup.channel == channel;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(channel);
+        }
+    }
+
+    public static final class Builder {
+        private int initialLimit = 20;
+        private int minLimit = 4;
+        private int maxLimit = 1000;
+
+        private Builder() {
+        }
+
+        /**
+         * @param initialLimit limit before any calls have completed, defaults to 20
+         * @return this builder
+         */
+        public Builder setInitialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+            return this;
+        }
+
+        /**
+         * @param minLimit the limit is never reduced below this value, defaults to 4
+         * @return this builder
+         */
+        public Builder setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+            return this;
+        }
+
+        /**
+         * @param maxLimit the limit never grows above this value, defaults to 1000
+         * @return this builder
+         */
+        public Builder setMaxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        public AdaptiveConcurrencyLimit build() {
+            if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+                throw new IllegalArgumentException("Limits must satisfy 1 <= min <= initial <= max");
+            }
+            return new AdaptiveConcurrencyLimit(this);
+        }
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import io.grpc.Attributes;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+/**
+ * Routes each call to a backend chosen by an affinity key, so that calls for the same tenant or entity reach the same
+ * backend and its caches. Backends are placed on a consistent-hash ring using virtual nodes, adding or removing a
+ * backend only remaps the keys of roughly one backend's share of the ring.
+ * <p>
+ * The key is read from a request header, which must be forwarded by the {@link HeaderForwardingPolicy}, or otherwise
+ * from the first request message. When a message key extractor is configured and the header is absent the backend is
+ * only chosen once the first message is sent. Calls without a key are distributed round-robin.
+ */
+public class AffinityChannelManager implements ChannelManager {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private final Metadata.@Nullable Key<String> metadataKey;
+    private final @Nullable Function<Object, @Nullable String> messageKeyExtractor;
+    private final int virtualNodes;
+    private final Executor executor;
+    private final Channel channel = new AffinityChannel();
+    private final AtomicInteger next = new AtomicInteger();
+    private final Map<String, Channel> backends = new LinkedHashMap<>();
+    private volatile Ring ring = new Ring(new long[0], new Channel[0]);
+
+    private AffinityChannelManager(Builder builder) {
+        this.metadataKey = builder.metadataKey;
+        this.messageKeyExtractor = builder.messageKeyExtractor;
+        this.virtualNodes = builder.virtualNodes;
+        this.executor = builder.executor != null ? builder.executor : ForkJoinPool.commonPool();
+        builder.backends.forEach(backends::put);
+        rebuild();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public Channel getChannel(String serviceName, String methodName) {
+        return channel;
+    }
+
+    /**
+     * Adds or replaces a backend, calls which have already started are not affected.
+     *
+     * @param id identifies the backend on the ring, e.g. its address
+     * @param backend channel to the backend
+     */
+    public synchronized void addBackend(String id, Channel backend) {
+        backends.put(id, backend);
+        rebuild();
+    }
+
+    /**
+     * @param id identifies the backend on the ring
+     */
+    public synchronized void removeBackend(String id) {
+        if (backends.remove(id) != null) {
+            rebuild();
+        }
+    }
+
+    /**
+     * @param key affinity key, or null to choose a backend round-robin
+     * @return the backend for the key
+     */
+    Channel select(@Nullable String key) {
+        Ring ring = this.ring;
+        if (ring.channels.length == 0) {
+            throw Status.UNAVAILABLE.withDescription("No backends available").asRuntimeException();
+        }
+        if (key == null) {
+            return ring.channels[Math.floorMod(next.getAndIncrement(), ring.channels.length)];
+        }
+        int index = Arrays.binarySearch(ring.hashes, hash(key));
+        if (index < 0) {
+            // the first virtual node clockwise from the key's hash, wrapping around the ring
+            index = -index - 1;
+            if (index == ring.hashes.length) {
+                index = 0;
+            }
+        }
+        return ring.channels[index];
+    }
+
+    private synchronized void rebuild() {
+        Map<Long, Channel> nodes = new TreeMap<>();
+        for (Map.Entry<String, Channel> backend : backends.entrySet()) {
+            for (int i = 0; i < virtualNodes; i++) {
+                // on the rare collision the first backend keeps the node
+                nodes.putIfAbsent(hash(backend.getKey() + "#" + i), backend.getValue());
+            }
+        }
+        long[] hashes = new long[nodes.size()];
+        Channel[] channels = new Channel[nodes.size()];
+        int i = 0;
+        for (Map.Entry<Long, Channel> node : nodes.entrySet()) {
+            hashes[i] = node.getKey();
+            channels[i++] = node.getValue();
+        }
+        this.ring = new Ring(hashes, channels);
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters, followed by the MurmurHash3 finalizer to spread the bits.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Virtual node hashes in ascending order, and the backend which owns each node.
+     */
+    private record Ring(long[] hashes, Channel[] channels) {
+    }
+
+    private class AffinityChannel extends Channel implements RoutingChannel {
+        @Override
+        public Channel route(Metadata headers, @Nullable Object firstMessage) {
+            @Nullable String key = metadataKey != null ? headers.get(metadataKey) : null;
+            Function<Object, @Nullable String> extractor = messageKeyExtractor;
+            if (key == null && extractor != null && firstMessage != null) {
+                key = extractor.apply(firstMessage);
+            }
+            return select(key);
+        }
+
+        @Override
+        public <T, R> ClientCall<T, R> newCall(MethodDescriptor<T, R> method, CallOptions callOptions) {
+            return new AffinityCall<>(method, callOptions);
+        }
+
+        @Override
+        public String authority() {
+            Ring ring = AffinityChannelManager.this.ring;
+            return ring.channels.length == 0 ? "" : ring.channels[0].authority();
+        }
+    }
+
+    /**
+     * Creates the call on the selected backend once the affinity key is known, requests made before then are
+     * replayed.
+     */
+    private class AffinityCall<T, R> extends ClientCall<T, R> {
+        private final MethodDescriptor<T, R> method;
+        private final CallOptions callOptions;
+        private @Nullable ClientCall<T, R> delegate;
+        private @Nullable Listener<R> listener;
+        private @Nullable Metadata headers;
+        private int pendingRequests = 0;
+        private @Nullable Boolean messageCompression;
+        private boolean cancelled = false;
+        /**
+         * Guards the call's state, calls to the backend are made while holding it.
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private AffinityCall(MethodDescriptor<T, R> method, CallOptions callOptions) {
+            this.method = method;
+            this.callOptions = callOptions;
+        }
+
+        @Override
+        public void start(Listener<R> listener, Metadata headers) {
+            lock.lock();
+            try {
+                @Nullable String key = metadataKey != null ? headers.get(metadataKey) : null;
+                if (key == null && messageKeyExtractor != null) {
+                    this.listener = listener;
+                    this.headers = headers;
+                    return;
+                }
+                startDelegate(select(key), listener, headers);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private ClientCall<T, R> startDelegate(Channel backend, Listener<R> listener, Metadata headers) {
+            ClientCall<T, R> call = backend.newCall(method, callOptions);
+            this.delegate = call;
+            call.start(listener, headers);
+            if (messageCompression != null) {
+                call.setMessageCompression(messageCompression);
+            }
+            if (pendingRequests > 0) {
+                call.request(pendingRequests);
+            }
+            return call;
+        }
+
+        private @Nullable ClientCall<T, R> delegate(@Nullable T message) {
+            @Nullable ClientCall<T, R> call = this.delegate;
+            @Nullable Listener<R> listener = this.listener;
+            @Nullable Metadata headers = this.headers;
+            if (call == null && !cancelled && listener != null && headers != null) {
+                Function<Object, @Nullable String> extractor = messageKeyExtractor;
+                @Nullable String key = message != null && extractor != null ? extractor.apply(message) : null;
+                call = startDelegate(select(key), listener, headers);
+            }
+            return call;
+        }
+
+        @Override
+        public void request(int numMessages) {
+            lock.lock();
+            try {
+                @Nullable ClientCall<T, R> call = this.delegate;
+                if (call != null) {
+                    call.request(numMessages);
+                } else {
+                    this.pendingRequests += numMessages;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Cancels outside the lock, cancelling may close the call and run its listener inline. A call which has not
+         * reached a backend is closed on the call's executor, never on the thread which cancelled it.
+         */
+        @Override
+        public void cancel(@Nullable String message, @Nullable Throwable cause) {
+            @Nullable ClientCall<T, R> call;
+            @Nullable Listener<R> listener = null;
+            lock.lock();
+            try {
+                call = this.delegate;
+                if (call == null && !cancelled) {
+                    listener = this.listener;
+                }
+                this.cancelled = true;
+            } finally {
+                lock.unlock();
+            }
+            if (call != null) {
+                call.cancel(message, cause);
+            } else if (listener != null) {
+                Listener<R> closedListener = listener;
+                Status status = Status.CANCELLED.withDescription(message).withCause(cause);
+                @Nullable Executor callExecutor = callOptions.getExecutor();
+                (callExecutor != null ? callExecutor : executor)
+                        .execute(() -> closedListener.onClose(status, new Metadata()));
+            }
+        }
+
+        @Override
+        public void halfClose() {
+            lock.lock();
+            try {
+                @Nullable ClientCall<T, R> call = delegate(null);
+                if (call != null) {
+                    call.halfClose();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void sendMessage(T message) {
+            lock.lock();
+            try {
+                @Nullable ClientCall<T, R> call = delegate(message);
+                if (call != null) {
+                    call.sendMessage(message);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean isReady() {
+            lock.lock();
+            try {
+                @Nullable ClientCall<T, R> call = this.delegate;
+                // the first message selects the backend, so it is always accepted
+                return call == null || call.isReady();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void setMessageCompression(boolean enabled) {
+            lock.lock();
+            try {
+                @Nullable ClientCall<T, R> call = this.delegate;
+                if (call != null) {
+                    call.setMessageCompression(enabled);
+                } else {
+                    this.messageCompression = enabled;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public Attributes getAttributes() {
+            lock.lock();
+            try {
+                @Nullable ClientCall<T, R> call = this.delegate;
+                return call != null ? call.getAttributes() : Attributes.EMPTY;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public static final class Builder {
+        private final Map<String, Channel> backends = new LinkedHashMap<>();
+        private Metadata.@Nullable Key<String> metadataKey;
+        private @Nullable Function<Object, @Nullable String> messageKeyExtractor;
+        private int virtualNodes = DEFAULT_VIRTUAL_NODES;
+        private @Nullable Executor executor;
+
+        private Builder() {
+        }
+
+        /**
+         * @param id identifies the backend on the ring, e.g. its address
+         * @param backend channel to the backend
+         * @return this builder
+         */
+        public Builder addBackend(String id, Channel backend) {
+            this.backends.put(id, backend);
+            return this;
+        }
+
+        /**
+         * @param headerName request header containing the affinity key, e.g. {@code x-tenant-id}
+         * @return this builder
+         */
+        public Builder setKeyHeader(String headerName) {
+            this.metadataKey = Metadata.Key.of(headerName, Metadata.ASCII_STRING_MARSHALLER);
+            return this;
+        }
+
+        /**
+         * Reads the affinity key from the first request message when the header is absent. The message is the
+         * method's request type, or a byte array for pass-through methods.
+         *
+         * @param messageKeyExtractor returns the affinity key for a message, or null if it has none
+         * @return this builder
+         */
+        public Builder setMessageKeyExtractor(Function<Object, @Nullable String> messageKeyExtractor) {
+            this.messageKeyExtractor = messageKeyExtractor;
+            return this;
+        }
+
+        /**
+         * @param virtualNodes number of points on the ring for each backend, more nodes distribute keys more evenly.
+         *                     Defaults to 160.
+         * @return this builder
+         */
+        public Builder setVirtualNodes(int virtualNodes) {
+            if (virtualNodes < 1) {
+                throw new IllegalArgumentException("Invalid number of virtual nodes: " + virtualNodes);
+            }
+            this.virtualNodes = virtualNodes;
+            return this;
+        }
+
+        /**
+         * @param executor runs the listener of a call which is cancelled before its backend was chosen, when the call
+         *                 options do not specify an executor. Defaults to {@link ForkJoinPool#commonPool()}.
+         * @return this builder
+         */
+        public Builder setExecutor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public AffinityChannelManager build() {
+            return new AffinityChannelManager(this);
+        }
+    }
+}
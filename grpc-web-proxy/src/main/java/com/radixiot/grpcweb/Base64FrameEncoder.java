@@ -0,0 +1,104 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes grpc-web-text response frames. Each frame is encoded as its own padded base64 segment, which clients decode
+ * independently, so no state is carried between frames. The frame is encoded in a single table-driven pass directly
+ * into the buffer of a {@link PooledOutputStream}.
+ */
+final class Base64FrameEncoder {
+    private static final byte[] ENCODE_TABLE = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte PADDING = '=';
+
+    private Base64FrameEncoder() {
+    }
+
+    /**
+     * @param length number of bytes to encode
+     * @return number of characters in the padded encoding
+     */
+    static int encodedLength(int length) {
+        return (length + 2) / 3 * 4;
+    }
+
+    /**
+     * Appends the padded base64 encoding of the frame's remaining bytes to the output stream, without modifying the
+     * frame's position.
+     */
+    static void encode(ByteBuffer frame, PooledOutputStream output) {
+        int length = frame.remaining();
+        ByteBuffer target = output.ensureRemaining(encodedLength(length));
+        if (frame.hasArray() && target.hasArray()) {
+            int written = encode(frame.array(), frame.arrayOffset() + frame.position(), length,
+                    target.array(), target.arrayOffset() + target.position());
+            target.position(target.position() + written);
+        } else {
+            encodeBuffer(frame, target);
+        }
+    }
+
+    private static int encode(byte[] in, int offset, int length, byte[] out, int outOffset) {
+        int position = offset;
+        int o = outOffset;
+        int end = offset + length / 3 * 3;
+        while (position < end) {
+            int bits = (in[position++] & 0xff) << 16 | (in[position++] & 0xff) << 8 | in[position++] & 0xff;
+            out[o++] = ENCODE_TABLE[bits >>> 18];
+            out[o++] = ENCODE_TABLE[bits >>> 12 & 0x3f];
+            out[o++] = ENCODE_TABLE[bits >>> 6 & 0x3f];
+            out[o++] = ENCODE_TABLE[bits & 0x3f];
+        }
+
+        int remaining = offset + length - position;
+        if (remaining > 0) {
+            int bits = (in[position] & 0xff) << 16 | (remaining == 2 ? (in[position + 1] & 0xff) << 8 : 0);
+            out[o++] = ENCODE_TABLE[bits >>> 18];
+            out[o++] = ENCODE_TABLE[bits >>> 12 & 0x3f];
+            out[o++] = remaining == 2 ? ENCODE_TABLE[bits >>> 6 & 0x3f] : PADDING;
+            out[o++] = PADDING;
+        }
+        return o - outOffset;
+    }
+
+    /**
+     * Slower path for direct buffers.
+     */
+    private static void encodeBuffer(ByteBuffer frame, ByteBuffer target) {
+        ByteBuffer in = frame.duplicate();
+        while (in.remaining() >= 3) {
+            int bits = (in.get() & 0xff) << 16 | (in.get() & 0xff) << 8 | in.get() & 0xff;
+            target.put(ENCODE_TABLE[bits >>> 18]);
+            target.put(ENCODE_TABLE[bits >>> 12 & 0x3f]);
+            target.put(ENCODE_TABLE[bits >>> 6 & 0x3f]);
+            target.put(ENCODE_TABLE[bits & 0x3f]);
+        }
+
+        int remaining = in.remaining();
+        if (remaining > 0) {
+            int bits = (in.get() & 0xff) << 16 | (remaining == 2 ? (in.get() & 0xff) << 8 : 0);
+            target.put(ENCODE_TABLE[bits >>> 18]);
+            target.put(ENCODE_TABLE[bits >>> 12 & 0x3f]);
+            target.put(remaining == 2 ? ENCODE_TABLE[bits >>> 6 & 0x3f] : PADDING);
+            target.put(PADDING);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import io.grpc.Status;
+
+/**
+ * Decodes the base64 encoded body of a grpc-web-text request and passes the decoded bytes to another decoder.
+ * <p>
+ * Clients may send the body as several individually padded base64 segments (e.g. one per frame), so padding ends the
+ * current segment rather than the body. Each chunk is decoded in a single table-driven pass into a buffer leased from
+ * a {@link BufferPool}, and an incomplete group of characters is carried over to the next chunk.
+ */
+class Base64RequestDecoder implements RequestDecoder {
+    private static final int INVALID = -1;
+    private static final int PADDING = -2;
+    private static final int[] DECODE_TABLE = new int[256];
+
+    static {
+        Arrays.fill(DECODE_TABLE, INVALID);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE_TABLE[alphabet.charAt(i)] = i;
+        }
+        DECODE_TABLE['='] = PADDING;
+    }
+
+    private final RequestDecoder delegate;
+    private final BufferPool bufferPool;
+    private @Nullable ByteBuffer output;
+    /**
+     * False if the output buffer was allocated by the decoder, it must then not be released to the pool.
+     */
+    private boolean outputPooled = false;
+
+    /**
+     * Bits of the incomplete group of characters.
+     */
+    private int bits = 0;
+    /**
+     * Number of characters in the incomplete group.
+     */
+    private int count = 0;
+    /**
+     * Number of padding characters still expected to end the current segment.
+     */
+    private int paddingExpected = 0;
+
+    Base64RequestDecoder(RequestDecoder delegate, BufferPool bufferPool) {
+        this.delegate = delegate;
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public void decode(byte[] bytes, int offset, int length) throws IOException {
+        ByteBuffer buffer = outputBuffer(length / 4 * 3 + 3);
+        byte[] out = buffer.array();
+        int outOffset = buffer.arrayOffset();
+        int o = outOffset;
+
+        int position = offset;
+        int end = offset + length;
+        while (position < end) {
+            if (count == 0 && paddingExpected == 0) {
+                // bulk decode complete groups of 4 characters
+                int bulkEnd = position + (end - position & ~3);
+                while (position < bulkEnd) {
+                    int a = DECODE_TABLE[bytes[position] & 0xFF];
+                    int b = DECODE_TABLE[bytes[position + 1] & 0xFF];
+                    int c = DECODE_TABLE[bytes[position + 2] & 0xFF];
+                    int d = DECODE_TABLE[bytes[position + 3] & 0xFF];
+                    if ((a | b | c | d) < 0) {
+                        // padding or an invalid character, handled one character at a time below
+                        break;
+                    }
+                    int group = a << 18 | b << 12 | c << 6 | d;
+                    out[o++] = (byte) (group >> 16);
+                    out[o++] = (byte) (group >> 8);
+                    out[o++] = (byte) group;
+                    position += 4;
+                }
+                if (position == end) break;
+            }
+
+            int value = DECODE_TABLE[bytes[position++] & 0xFF];
+            if (value >= 0) {
+                if (paddingExpected > 0) {
+                    throw invalid();
+                }
+                bits = bits << 6 | value;
+                if (++count == 4) {
+                    out[o++] = (byte) (bits >> 16);
+                    out[o++] = (byte) (bits >> 8);
+                    out[o++] = (byte) bits;
+                    bits = 0;
+                    count = 0;
+                }
+            } else if (value == PADDING) {
+                if (paddingExpected > 0) {
+                    paddingExpected--;
+                } else {
+                    o = completeGroup(out, o);
+                    // "xx==" needs a second padding character, "xxx=" is already complete
+                    paddingExpected = 3 - count;
+                    bits = 0;
+                    count = 0;
+                }
+            } else {
+                throw invalid();
+            }
+        }
+
+        if (o > outOffset) {
+            delegate.decode(out, outOffset, o - outOffset);
+        }
+    }
+
+    @Override
+    public void endOfStream() throws IOException {
+        if (count > 0) {
+            // the final segment was not padded
+            ByteBuffer buffer = outputBuffer(3);
+            int outOffset = buffer.arrayOffset();
+            int o = completeGroup(buffer.array(), outOffset);
+            bits = 0;
+            count = 0;
+            delegate.decode(buffer.array(), outOffset, o - outOffset);
+        }
+        releaseOutput();
+        delegate.endOfStream();
+    }
+
+    @Override
+    public void release() {
+        releaseOutput();
+        delegate.release();
+    }
+
+    @Override
+    public boolean isReady() {
+        return delegate.isReady();
+    }
+
+    @Override
+    public void setOnReadyHandler(Runnable handler) {
+        delegate.setOnReadyHandler(handler);
+    }
+
+    /**
+     * Writes the bytes of an incomplete group of 2 or 3 characters.
+     */
+    private int completeGroup(byte[] out, int o) {
+        switch (count) {
+            case 2 -> out[o++] = (byte) (bits >> 4);
+            case 3 -> {
+                out[o++] = (byte) (bits >> 10);
+                out[o++] = (byte) (bits >> 2);
+            }
+            default -> throw invalid();
+        }
+        return o;
+    }
+
+    private ByteBuffer outputBuffer(int capacity) {
+        @Nullable ByteBuffer buffer = this.output;
+        if (buffer == null || buffer.capacity() < capacity) {
+            releaseOutput();
+            buffer = bufferPool.acquire(capacity);
+            boolean pooled = true;
+            if (!buffer.hasArray()) {
+                // decoded bytes are passed on as an array, fall back to a heap buffer if the pool supplies direct buffers
+                bufferPool.release(buffer);
+                buffer = ByteBuffer.allocate(capacity);
+                pooled = false;
+            }
+            this.output = buffer;
+            this.outputPooled = pooled;
+        }
+        return buffer;
+    }
+
+    private void releaseOutput() {
+        @Nullable ByteBuffer buffer = this.output;
+        this.output = null;
+        if (buffer != null && outputPooled) {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private static RuntimeException invalid() {
+        return Status.INTERNAL.withDescription("Invalid base64 encoding of grpc-web-text request")
+                .asRuntimeException();
+    }
+}
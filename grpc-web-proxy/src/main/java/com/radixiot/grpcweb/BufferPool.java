@@ -0,0 +1,41 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Supplies buffers used to decode request frames and encode response frames. Implementations must be thread safe.
+ */
+public interface BufferPool {
+
+    /**
+     * Lease a buffer from the pool.
+     *
+     * @param minCapacity minimum capacity of the buffer
+     * @return a cleared buffer with a capacity of at least {@code minCapacity}
+     */
+    ByteBuffer acquire(int minCapacity);
+
+    /**
+     * Return a buffer to the pool. The buffer must not be used after it has been released.
+     *
+     * @param buffer a buffer previously acquired from this pool
+     */
+    void release(ByteBuffer buffer);
+
+}
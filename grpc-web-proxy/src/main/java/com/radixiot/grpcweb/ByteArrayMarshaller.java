@@ -0,0 +1,70 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor.Marshaller;
+
+/**
+ * Marshals messages as opaque byte arrays, so that they can be forwarded without parsing them. The streams it creates
+ * are {@link KnownLength} and {@link Drainable}, so gRPC writes the array directly to the transport.
+ */
+class ByteArrayMarshaller implements Marshaller<byte[]> {
+    static final ByteArrayMarshaller INSTANCE = new ByteArrayMarshaller();
+
+    private ByteArrayMarshaller() {
+    }
+
+    @Override
+    public InputStream stream(byte[] value) {
+        return new MessageStream(value);
+    }
+
+    @Override
+    public byte[] parse(InputStream stream) {
+        try {
+            if (stream instanceof KnownLength) {
+                // read exactly the number of bytes available, without growing intermediate buffers
+                return stream.readNBytes(stream.available());
+            }
+            return stream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static class MessageStream extends ByteArrayInputStream implements KnownLength, Drainable {
+        private MessageStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public int drainTo(OutputStream target) throws IOException {
+            int count = this.count - this.pos;
+            target.write(this.buf, this.pos, count);
+            this.pos = this.count;
+            return count;
+        }
+    }
+}
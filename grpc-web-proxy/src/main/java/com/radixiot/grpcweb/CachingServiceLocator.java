@@ -0,0 +1,208 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import io.grpc.MethodDescriptor;
+import io.grpc.ServiceDescriptor;
+
+/**
+ * Decorates a {@link ServiceLocator} so that each service and method is only located once, e.g. the
+ * {@link ClassServiceLocator} loads a class and reflectively invokes a method for every lookup. Names which could not
+ * be located are remembered in a bounded negative cache, so that requests for unknown methods do not repeat the
+ * lookup. Methods are resolved against the cached descriptor of their service, so an unknown method of a known service
+ * never reaches the delegate. The negative cache evicts its oldest names once it is full, and may be cleared by
+ * {@link #invalidate()} when new services become available.
+ */
+public class CachingServiceLocator implements ServiceLocator {
+
+    public static final int DEFAULT_MAX_NEGATIVE_ENTRIES = 1024;
+
+    private final ServiceLocator delegate;
+    private final Map<String, ServiceDescriptor> services = new ConcurrentHashMap<>();
+    private final Map<String, MethodDescriptor<?, ?>> methods = new ConcurrentHashMap<>();
+    private final NegativeCache unknownServices;
+    private final NegativeCache unknownMethods;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+
+    public CachingServiceLocator(ServiceLocator delegate) {
+        this(delegate, DEFAULT_MAX_NEGATIVE_ENTRIES);
+    }
+
+    /**
+     * @param delegate locates services and methods which are not cached
+     * @param maxNegativeEntries maximum number of unknown service and method names which are remembered
+     */
+    public CachingServiceLocator(ServiceLocator delegate, int maxNegativeEntries) {
+        this.delegate = delegate;
+        this.unknownServices = new NegativeCache(maxNegativeEntries);
+        this.unknownMethods = new NegativeCache(maxNegativeEntries);
+    }
+
+    @Override
+    public ServiceDescriptor locate(String serviceName) {
+        @Nullable ServiceDescriptor service = services.get(serviceName);
+        if (service != null) {
+            hits.increment();
+            return service;
+        }
+        if (unknownServices.contains(serviceName)) {
+            negativeHits.increment();
+            throw new NoSuchElementException(serviceName);
+        }
+
+        misses.increment();
+        return service(serviceName);
+    }
+
+    /**
+     * @return the cached service, or the service located by the delegate
+     */
+    private ServiceDescriptor service(String serviceName) {
+        @Nullable ServiceDescriptor service = services.get(serviceName);
+        if (service != null) {
+            return service;
+        }
+        if (unknownServices.contains(serviceName)) {
+            throw new NoSuchElementException(serviceName);
+        }
+        try {
+            service = delegate.locate(serviceName);
+        } catch (NoSuchElementException e) {
+            unknownServices.add(serviceName);
+            throw e;
+        }
+        services.put(serviceName, service);
+        return service;
+    }
+
+    @Override
+    public MethodDescriptor<?, ?> locateMethod(String fullMethodName) {
+        @Nullable MethodDescriptor<?, ?> method = methods.get(fullMethodName);
+        if (method != null) {
+            hits.increment();
+            return method;
+        }
+        if (unknownMethods.contains(fullMethodName)) {
+            negativeHits.increment();
+            throw new NoSuchElementException(fullMethodName);
+        }
+
+        misses.increment();
+        try {
+            int slash = fullMethodName.indexOf('/');
+            if (slash < 0) {
+                throw new NoSuchElementException(fullMethodName);
+            }
+            method = findMethod(service(fullMethodName.substring(0, slash)), fullMethodName);
+        } catch (NoSuchElementException e) {
+            unknownMethods.add(fullMethodName);
+            throw e;
+        }
+        methods.put(fullMethodName, method);
+        return method;
+    }
+
+    private static MethodDescriptor<?, ?> findMethod(ServiceDescriptor service, String fullMethodName) {
+        for (MethodDescriptor<?, ?> method : service.getMethods()) {
+            if (fullMethodName.equals(method.getFullMethodName())) {
+                return method;
+            }
+        }
+        throw new NoSuchElementException(fullMethodName);
+    }
+
+    /**
+     * Clears the cached services and methods, including the names which could not be located.
+     */
+    public void invalidate() {
+        services.clear();
+        methods.clear();
+        unknownServices.clear();
+        unknownMethods.clear();
+    }
+
+    /**
+     * @return a snapshot of the cache statistics
+     */
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), negativeHits.sum());
+    }
+
+    /**
+     * @param hits lookups answered from the cache
+     * @param misses lookups which were not answered from the cache
+     * @param negativeHits lookups of unknown names answered from the negative cache
+     */
+    public record Stats(long hits, long misses, long negativeHits) {
+        /**
+         * @return fraction of lookups which were answered from the cache, positive or negative
+         */
+        public double hitRate() {
+            long total = hits + misses + negativeHits;
+            return total == 0 ? 0 : (double) (hits + negativeHits) / total;
+        }
+    }
+
+    /**
+     * Names which could not be located. Bounds the memory used by clients requesting arbitrary names, once full the
+     * oldest name is evicted for each new one.
+     */
+    private static final class NegativeCache {
+        private final int maxEntries;
+        private final Set<String> names = ConcurrentHashMap.newKeySet();
+        private final Queue<String> order = new ConcurrentLinkedQueue<>();
+
+        private NegativeCache(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        private boolean contains(String name) {
+            return names.contains(name);
+        }
+
+        private void add(String name) {
+            if (!names.add(name)) {
+                return;
+            }
+            order.add(name);
+            while (names.size() > maxEntries) {
+                @Nullable String eldest = order.poll();
+                if (eldest == null) {
+                    break;
+                }
+                names.remove(eldest);
+            }
+        }
+
+        private void clear() {
+            names.clear();
+            order.clear();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+/**
+ * Settings for calls to a method, resolved from the per-method overrides of the {@link RequestHandler} the first
+ * time the method is called and reused for every later call.
+ *
+ * @param flushPolicy decides when response frames are flushed
+ * @param compressionLevel deflater level for response frames, or {@link java.util.zip.Deflater#NO_COMPRESSION}
+ * @param headerForwardingPolicy decides which request headers are forwarded to the backend
+ * @param deadlinePolicy decides the deadline of the call to the server
+ * @param clientSendsOneMessage true if the client sends a single request message
+ */
+record CallPlan(FlushPolicy flushPolicy,
+                int compressionLevel,
+                HeaderForwardingPolicy headerForwardingPolicy,
+                DeadlinePolicy deadlinePolicy,
+                boolean clientSendsOneMessage) {
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import io.grpc.Metadata;
+
+/**
+ * Identifies the client which sent a request, the {@link ClientQuota} limits each client separately.
+ */
+@FunctionalInterface
+public interface ClientIdentity {
+
+    /**
+     * @param request HTTP request
+     * @param headers headers forwarded to the server, converted by the {@link HeaderConverter}
+     * @return identity of the client, or null if the request is not limited
+     */
+    @Nullable String identify(HttpServletRequest request, Metadata headers);
+
+    /**
+     * @return identifies clients by their IP address
+     */
+    static ClientIdentity remoteAddress() {
+        return (request, headers) -> request.getRemoteAddr();
+    }
+
+    /**
+     * @param name name of a HTTP request header, e.g. a session or API key header
+     * @return identifies clients by the value of the header
+     */
+    static ClientIdentity header(String name) {
+        return (request, headers) -> request.getHeader(name);
+    }
+
+    /**
+     * @param key key of the forwarded metadata, e.g. an authenticated subject added by the {@link HeaderConverter}
+     * @return identifies clients by the last value of the metadata key
+     */
+    static ClientIdentity metadata(Metadata.Key<String> key) {
+        return (request, headers) -> headers.get(key);
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+
+/**
+ * Limits the rate of calls and the number of concurrent server streams of each client, so that a single client can
+ * not monopolize the proxy. Requests over the limit fail with {@link Status.Code#RESOURCE_EXHAUSTED} before the call
+ * to the server is started.
+ * <p>
+ * The rate is limited by a token bucket which refills at the configured rate and holds up to the burst size. The
+ * bucket is stored as the time at which it will next be full (the generic cell rate algorithm), so that it can be
+ * updated with a single compare-and-set.
+ * <p>
+ * Clients are held in a fixed number of stripes, each a {@link ConcurrentHashMap} with its own eviction deadline.
+ * Clients which have been idle for the idle timeout, with no open streams, are evicted from one stripe at a time by
+ * a request which falls in that stripe, so that no single request scans every client.
+ */
+public final class ClientQuota {
+
+    /**
+     * Number of stripes, a power of two.
+     */
+    static final int STRIPES = 64;
+
+    private final ClientIdentity clientIdentity;
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final int maxServerStreams;
+    private final long idleTimeoutNanos;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private ClientQuota(Builder builder) {
+        this.clientIdentity = builder.clientIdentity;
+        this.intervalNanos = builder.rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / builder.rate) : 0;
+        int burst = builder.burst != null ? builder.burst : Math.max(1, (int) Math.ceil(builder.rate));
+        this.burstNanos = intervalNanos * burst;
+        this.maxServerStreams = builder.maxServerStreams;
+        this.idleTimeoutNanos = builder.idleTimeout.toNanos();
+        long nextEviction = System.nanoTime() + idleTimeoutNanos;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(nextEviction);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Takes a token from the client's bucket, and a stream from its quota if the call is a server stream.
+     *
+     * @param request HTTP request
+     * @param headers headers forwarded to the server
+     * @param serverStream true if the server may send multiple responses
+     * @return releases the stream when the call completes, or null if there is nothing to release
+     * @throws io.grpc.StatusRuntimeException if the client has exceeded its quota
+     */
+    @Nullable Runnable acquire(HttpServletRequest request, Metadata headers, boolean serverStream) {
+        @Nullable String identity = clientIdentity.identify(request, headers);
+        if (identity == null) {
+            return null;
+        }
+        return acquire(identity, serverStream, System.nanoTime());
+    }
+
+    @Nullable Runnable acquire(String identity, boolean serverStream, long now) {
+        Stripe stripe = stripes[stripeIndex(identity)];
+        evictIdle(stripe, now);
+        Client client = client(stripe, identity, now);
+        client.lastUsed = now;
+
+        if (intervalNanos > 0) {
+            long retryAfterNanos = client.takeToken(now, intervalNanos, burstNanos);
+            if (retryAfterNanos > 0) {
+                Metadata trailers = new Metadata();
+                trailers.put(ConcurrencyLimiter.RETRY_PUSHBACK,
+                        Long.toString(Math.max(1, TimeUnit.NANOSECONDS.toMillis(retryAfterNanos))));
+                throw Status.RESOURCE_EXHAUSTED.withDescription("Rate limit exceeded")
+                        .asRuntimeException(trailers);
+            }
+        }
+
+        if (!serverStream || maxServerStreams == Integer.MAX_VALUE) {
+            return null;
+        }
+        while (!client.acquireStream(maxServerStreams)) {
+            // evicted since it was looked up, the replacement starts with a full bucket and no streams
+            client = client(stripe, identity, now);
+        }
+        return client::releaseStream;
+    }
+
+    private static Client client(Stripe stripe, String identity, long now) {
+        Client client = stripe.clients.computeIfAbsent(identity, k -> new Client(now));
+        if (client.isEvicted()) {
+            // replaces the evicted client if it has not been removed yet
+            client = stripe.clients.compute(identity, (k, c) -> c == null || c.isEvicted() ? new Client(now) : c);
+        }
+        return client;
+    }
+
+    int clientCount() {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            count += stripe.clients.size();
+        }
+        return count;
+    }
+
+    static int stripeIndex(String identity) {
+        int hash = identity.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    private void evictIdle(Stripe stripe, long now) {
+        long next = stripe.nextEviction.get();
+        if (now - next < 0 || !stripe.nextEviction.compareAndSet(next, now + idleTimeoutNanos)) {
+            return;
+        }
+        for (Map.Entry<String, Client> entry : stripe.clients.entrySet()) {
+            Client client = entry.getValue();
+            // a client is only removed once it is marked evicted, which fails if it has open streams
+            if (now - client.lastUsed > idleTimeoutNanos && client.markEvicted()) {
+                stripe.clients.remove(entry.getKey(), client);
+            }
+        }
+    }
+
+    private static final class Stripe {
+        private final Map<String, Client> clients = new ConcurrentHashMap<>();
+        private final AtomicLong nextEviction;
+
+        private Stripe(long nextEviction) {
+            this.nextEviction = new AtomicLong(nextEviction);
+        }
+    }
+
+    private static final class Client {
+        /**
+         * Stream count of a client which has been evicted, no more streams can be acquired from it.
+         */
+        private static final int EVICTED = -1;
+
+        /**
+         * Time at which the bucket is full, each call moves it forward by one interval.
+         */
+        private final AtomicLong fullAt;
+        private final AtomicInteger streams = new AtomicInteger();
+        private volatile long lastUsed;
+
+        private Client(long now) {
+            this.fullAt = new AtomicLong(now);
+            this.lastUsed = now;
+        }
+
+        /**
+         * @return 0 if a token was taken, otherwise the time until a token is available
+         */
+        private long takeToken(long now, long intervalNanos, long burstNanos) {
+            while (true) {
+                long current = fullAt.get();
+                long next = Math.max(current, now) + intervalNanos;
+                long excess = next - now - burstNanos;
+                if (excess > 0) {
+                    return excess;
+                }
+                if (fullAt.compareAndSet(current, next)) {
+                    return 0;
+                }
+            }
+        }
+
+        /**
+         * @return false if the client has been evicted
+         * @throws io.grpc.StatusRuntimeException if the client has too many streams open
+         */
+        private boolean acquireStream(int maxServerStreams) {
+            while (true) {
+                int current = streams.get();
+                if (current == EVICTED) {
+                    return false;
+                }
+                if (current >= maxServerStreams) {
+                    throw Status.RESOURCE_EXHAUSTED.withDescription("Too many concurrent streams")
+                            .asRuntimeException();
+                }
+                if (streams.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * @return true if the client had no open streams and is now evicted
+         */
+        private boolean markEvicted() {
+            return streams.compareAndSet(0, EVICTED);
+        }
+
+        private boolean isEvicted() {
+            return streams.get() == EVICTED;
+        }
+
+        private void releaseStream() {
+            streams.decrementAndGet();
+            lastUsed = System.nanoTime();
+        }
+    }
+
+    public static final class Builder {
+        private ClientIdentity clientIdentity = ClientIdentity.remoteAddress();
+        private double rate = 0;
+        private @Nullable Integer burst = null;
+        private int maxServerStreams = Integer.MAX_VALUE;
+        private Duration idleTimeout = Duration.ofMinutes(5);
+
+        private Builder() {
+        }
+
+        /**
+         * @param clientIdentity identifies the client which sent a request, defaults to
+         *                       {@link ClientIdentity#remoteAddress()}
+         * @return this builder
+         */
+        public Builder setClientIdentity(ClientIdentity clientIdentity) {
+            this.clientIdentity = clientIdentity;
+            return this;
+        }
+
+        /**
+         * @param rate calls per second allowed for each client, or 0 for no rate limit (the default)
+         * @return this builder
+         */
+        public Builder setRate(double rate) {
+            if (rate < 0) {
+                throw new IllegalArgumentException("Rate must not be negative: " + rate);
+            }
+            this.rate = rate;
+            return this;
+        }
+
+        /**
+         * @param burst number of calls a client may make at once after being idle, defaults to one second of calls
+         * @return this builder
+         */
+        public Builder setBurst(int burst) {
+            if (burst < 1) {
+                throw new IllegalArgumentException("Burst must be positive: " + burst);
+            }
+            this.burst = burst;
+            return this;
+        }
+
+        /**
+         * @param maxServerStreams number of server streams each client may have open at once, unlimited by default
+         * @return this builder
+         */
+        public Builder setMaxServerStreams(int maxServerStreams) {
+            if (maxServerStreams < 1) {
+                throw new IllegalArgumentException("Max server streams must be positive: " + maxServerStreams);
+            }
+            this.maxServerStreams = maxServerStreams;
+            return this;
+        }
+
+        /**
+         * @param idleTimeout clients are forgotten once they have made no calls for this time, and have no open
+         *                    streams. Defaults to 5 minutes.
+         * @return this builder
+         */
+        public Builder setIdleTimeout(Duration idleTimeout) {
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        public ClientQuota build() {
+            return new ClientQuota(this);
+        }
+    }
+}
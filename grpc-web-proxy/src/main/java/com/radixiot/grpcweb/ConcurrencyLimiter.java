@@ -0,0 +1,151 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+/**
+ * Limits the number of calls in flight to a single target. The limit is adjusted from the round trip time of
+ * completed calls: it grows while the latency stays close to the long term average, and shrinks when latency rises
+ * (the server is queueing calls) or calls fail because the server is overloaded.
+ */
+final class ConcurrencyLimiter {
+
+    static final Metadata.Key<String> RETRY_PUSHBACK = Metadata.Key.of("grpc-retry-pushback-ms",
+            Metadata.ASCII_STRING_MARSHALLER);
+
+    /**
+     * Number of samples averaged by the long term round trip time.
+     */
+    private static final int LONG_WINDOW = 600;
+    /**
+     * Latency may rise by this factor above the long term average before the limit is reduced.
+     */
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+    private double estimatedLimit;
+    private double longRttNanos = 0;
+
+    ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.estimatedLimit = initialLimit;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * @return true if the call may start, {@link #release(long, Status.Code)} must be called when it completes
+     */
+    boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param rttNanos time the server took to respond once it had the whole request, or -1 if not known
+     * @param code status code the call closed with
+     */
+    void release(long rttNanos, Status.Code code) {
+        int current = inFlight.getAndDecrement();
+        switch (code) {
+            // the server is overloaded, or calls are queueing for longer than their deadline
+            case DEADLINE_EXCEEDED, UNAVAILABLE, RESOURCE_EXHAUSTED -> backOff();
+            // the client went away, the round trip time says nothing about the server
+            case CANCELLED -> {
+            }
+            default -> {
+                if (rttNanos >= 0) {
+                    sample(rttNanos, current);
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases a call which failed to start, the call says nothing about the server so the limit is not adjusted.
+     */
+    void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * @return an error for a call which was not started because the limit was reached, which asks the client to
+     * retry after about one round trip time
+     */
+    StatusRuntimeException rejected() {
+        Metadata trailers = new Metadata();
+        trailers.put(RETRY_PUSHBACK, Long.toString(retryAfterMillis()));
+        return Status.RESOURCE_EXHAUSTED.withDescription("Concurrency limit exceeded")
+                .asRuntimeException(trailers);
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    private synchronized long retryAfterMillis() {
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis((long) longRttNanos));
+    }
+
+    private synchronized void backOff() {
+        update(estimatedLimit * BACKOFF_RATIO);
+    }
+
+    private synchronized void sample(long rttNanos, int inFlight) {
+        double rtt = Math.max(1, rttNanos);
+        longRttNanos = longRttNanos == 0 ? rtt : longRttNanos + (rtt - longRttNanos) / LONG_WINDOW;
+        if (longRttNanos > rtt * 2) {
+            // latency has dropped for a sustained period, decay the average faster so the limit can grow again
+            longRttNanos *= 0.95;
+        }
+        if (inFlight < estimatedLimit / 2) {
+            // the limit was not what bounded concurrency, the sample says nothing about a higher limit
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRttNanos / rtt));
+        double queueSize = Math.sqrt(estimatedLimit);
+        double newLimit = estimatedLimit * gradient + queueSize;
+        update(estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING);
+    }
+
+    private void update(double newLimit) {
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        limit = (int) estimatedLimit;
+    }
+}
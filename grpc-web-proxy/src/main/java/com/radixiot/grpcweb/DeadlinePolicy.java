@@ -0,0 +1,121 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.time.Duration;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Decides the deadline of the call to the server from the grpc-timeout header sent by the client. A default timeout
+ * applies when the client does not send one, so that a request can not hold a call open forever, and the maximum
+ * timeout caps the timeout requested by the client.
+ * <p>
+ * The deadline is measured from the time the request arrived, see
+ * {@link RequestHandlerBuilder#setArrivalTime(java.util.function.ToLongFunction)}. Requests whose deadline has already
+ * passed when they are handled fail with {@link io.grpc.Status.Code#DEADLINE_EXCEEDED} without calling the server.
+ */
+public final class DeadlinePolicy {
+
+    /**
+     * Returned by {@link #timeoutNanos(long)} when the call has no deadline.
+     */
+    static final long NO_TIMEOUT = -1;
+
+    private static final DeadlinePolicy NONE = builder().build();
+
+    private final long defaultTimeoutNanos;
+    private final long maxTimeoutNanos;
+
+    private DeadlinePolicy(Builder builder) {
+        this.defaultTimeoutNanos = toNanos(builder.defaultTimeout);
+        this.maxTimeoutNanos = toNanos(builder.maxTimeout);
+    }
+
+    /**
+     * @return a policy which only applies the timeout requested by the client
+     */
+    public static DeadlinePolicy none() {
+        return NONE;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param requestedNanos timeout requested by the client in nanoseconds, or {@link #NO_TIMEOUT}
+     * @return timeout of the call in nanoseconds, or {@link #NO_TIMEOUT}
+     */
+    long timeoutNanos(long requestedNanos) {
+        long timeout = requestedNanos == NO_TIMEOUT ? defaultTimeoutNanos : requestedNanos;
+        if (maxTimeoutNanos != NO_TIMEOUT && (timeout == NO_TIMEOUT || timeout > maxTimeoutNanos)) {
+            timeout = maxTimeoutNanos;
+        }
+        return timeout;
+    }
+
+    private static long toNanos(@Nullable Duration duration) {
+        if (duration == null) {
+            return NO_TIMEOUT;
+        }
+        try {
+            return duration.toNanos();
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    public static final class Builder {
+        private @Nullable Duration defaultTimeout = null;
+        private @Nullable Duration maxTimeout = null;
+
+        private Builder() {
+        }
+
+        /**
+         * @param defaultTimeout timeout used when the client does not send the grpc-timeout header, or null for no
+         *                       deadline
+         * @return this builder
+         */
+        public Builder setDefaultTimeout(@Nullable Duration defaultTimeout) {
+            this.defaultTimeout = checkTimeout(defaultTimeout);
+            return this;
+        }
+
+        /**
+         * @param maxTimeout maximum timeout, longer timeouts requested by the client are reduced to this value. Null
+         *                   for no maximum.
+         * @return this builder
+         */
+        public Builder setMaxTimeout(@Nullable Duration maxTimeout) {
+            this.maxTimeout = checkTimeout(maxTimeout);
+            return this;
+        }
+
+        private static @Nullable Duration checkTimeout(@Nullable Duration timeout) {
+            if (timeout != null && (timeout.isNegative() || timeout.isZero())) {
+                throw new IllegalArgumentException("Timeout must be positive: " + timeout);
+            }
+            return timeout;
+        }
+
+        public DeadlinePolicy build() {
+            return new DeadlinePolicy(this);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Pools heap or direct buffers in power of two size classes. Requests larger than the largest size class are
+ * allocated on demand and are not retained when released. The number of buffers retained is limited for each size
+ * class, and the total capacity of the buffers retained is limited for the whole pool.
+ */
+public class DefaultBufferPool implements BufferPool {
+
+    public static final int DEFAULT_MIN_SIZE = 1024;
+    public static final int DEFAULT_MAX_SIZE = 1024 * 1024;
+    public static final int DEFAULT_MAX_POOLED = 64;
+    public static final long DEFAULT_MAX_POOLED_BYTES = 16 * 1024 * 1024;
+
+    private final boolean direct;
+    private final int minShift;
+    private final int maxSize;
+    private final long maxPooledBytes;
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final SizeClass[] sizeClasses;
+
+    public DefaultBufferPool() {
+        this(false);
+    }
+
+    /**
+     * @param direct true to pool direct buffers, false for heap buffers
+     */
+    public DefaultBufferPool(boolean direct) {
+        this(direct, DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE, DEFAULT_MAX_POOLED);
+    }
+
+    /**
+     * @param direct true to pool direct buffers, false for heap buffers
+     * @param minSize size of the smallest size class, must be a power of two
+     * @param maxSize size of the largest size class, must be a power of two
+     * @param maxPooled maximum number of buffers retained for each size class
+     */
+    public DefaultBufferPool(boolean direct, int minSize, int maxSize, int maxPooled) {
+        this(direct, minSize, maxSize, maxPooled, DEFAULT_MAX_POOLED_BYTES);
+    }
+
+    /**
+     * @param direct true to pool direct buffers, false for heap buffers
+     * @param minSize size of the smallest size class, must be a power of two
+     * @param maxSize size of the largest size class, must be a power of two
+     * @param maxPooled maximum number of buffers retained for each size class
+     * @param maxPooledBytes maximum total capacity of the buffers retained
+     */
+    public DefaultBufferPool(boolean direct, int minSize, int maxSize, int maxPooled, long maxPooledBytes) {
+        if (Integer.bitCount(minSize) != 1 || Integer.bitCount(maxSize) != 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Sizes must be powers of two, and minSize must not exceed maxSize");
+        }
+        if (maxPooledBytes < 0) {
+            throw new IllegalArgumentException("Invalid maximum pooled bytes: " + maxPooledBytes);
+        }
+        this.direct = direct;
+        this.minShift = Integer.numberOfTrailingZeros(minSize);
+        this.maxSize = maxSize;
+        this.maxPooledBytes = maxPooledBytes;
+        this.sizeClasses = new SizeClass[Integer.numberOfTrailingZeros(maxSize) - minShift + 1];
+        for (int i = 0; i < sizeClasses.length; i++) {
+            sizeClasses[i] = new SizeClass(maxPooled);
+        }
+    }
+
+    /**
+     * Creates a heap buffer pool whose largest size class holds a request frame of the maximum size, so that size
+     * classes which frames never use are not created.
+     *
+     * @param maxFrameSize maximum size of a request message
+     * @return a buffer pool with the default limits
+     */
+    static DefaultBufferPool forMaxFrameSize(int maxFrameSize) {
+        long frameLength = FrameDecoder.HEADER_LENGTH + (long) maxFrameSize;
+        int maxSize = frameLength >= DEFAULT_MAX_SIZE ? DEFAULT_MAX_SIZE :
+                Math.max(DEFAULT_MIN_SIZE, Integer.highestOneBit((int) frameLength - 1) << 1);
+        return new DefaultBufferPool(false, DEFAULT_MIN_SIZE, maxSize, DEFAULT_MAX_POOLED, DEFAULT_MAX_POOLED_BYTES);
+    }
+
+    int maxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public ByteBuffer acquire(int minCapacity) {
+        if (minCapacity > maxSize) {
+            return allocate(minCapacity);
+        }
+
+        int index = sizeClassIndex(minCapacity);
+        @Nullable ByteBuffer buffer = sizeClasses[index].poll();
+        if (buffer == null) {
+            return allocate(1 << (index + minShift));
+        }
+        pooledBytes.addAndGet(-buffer.capacity());
+        return buffer.clear();
+    }
+
+    @Override
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (buffer.isDirect() != direct || capacity > maxSize || Integer.bitCount(capacity) != 1) {
+            return;
+        }
+        int index = sizeClassIndex(capacity);
+        if (1 << (index + minShift) != capacity) {
+            return;
+        }
+        if (pooledBytes.addAndGet(capacity) > maxPooledBytes || !sizeClasses[index].offer(buffer)) {
+            pooledBytes.addAndGet(-capacity);
+        }
+    }
+
+    private int sizeClassIndex(int capacity) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(capacity, 1) - 1);
+        return Math.max(shift - minShift, 0);
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private static class SizeClass {
+        private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final int maxPooled;
+
+        private SizeClass(int maxPooled) {
+            this.maxPooled = maxPooled;
+        }
+
+        private @Nullable ByteBuffer poll() {
+            @Nullable ByteBuffer buffer = buffers.poll();
+            if (buffer != null) {
+                size.decrementAndGet();
+            }
+            return buffer;
+        }
+
+        /**
+         * @return true if the buffer was retained
+         */
+        private boolean offer(ByteBuffer buffer) {
+            if (size.incrementAndGet() <= maxPooled) {
+                buffers.offer(buffer);
+                return true;
+            }
+            size.decrementAndGet();
+            return false;
+        }
+    }
+}
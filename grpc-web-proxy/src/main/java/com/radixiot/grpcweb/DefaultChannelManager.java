@@ -16,6 +16,8 @@
 
 package com.radixiot.grpcweb;
 
+import java.util.concurrent.Executor;
+
 import io.grpc.Channel;
 import io.grpc.inprocess.InProcessChannelBuilder;
 
@@ -36,6 +38,14 @@ public class DefaultChannelManager implements ChannelManager {
         this(InProcessChannelBuilder.forName(channelName).build());
     }
 
+    /**
+     * @param channelName name of the in-process server
+     * @param executor executor for the call listeners of the channel, e.g. a virtual thread executor
+     */
+    public DefaultChannelManager(String channelName, Executor executor) {
+        this(InProcessChannelBuilder.forName(channelName).executor(executor).build());
+    }
+
     public DefaultChannelManager(Channel channel) {
         this.channel = channel;
     }
@@ -15,46 +15,148 @@
  */
 package com.radixiot.grpcweb;
 
+import java.util.ArrayList;
 import java.util.Base64;
-import java.util.Locale;
-import java.util.Objects;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 import io.grpc.Metadata;
 
+/**
+ * Converts headers using plain loops and cached {@link Metadata.Key} instances, header conversion happens for every
+ * call so it avoids creating streams and intermediate {@link Header} records.
+ * <p>
+ * The {@link RequestHandler} converts request headers using {@link #toMetadata(HttpServletRequest,
+ * HeaderForwardingPolicy)} and response headers using {@link #forEachHeader(Metadata, BiConsumer)}. A subclass which
+ * changes how headers are converted should override those methods. The other conversions are deprecated for
+ * overriding, so that a subclass which still overrides them is warned when it is compiled.
+ */
 public class DefaultHeaderConverter implements HeaderConverter {
 
+    private final MetadataKeyCache keyCache = new MetadataKeyCache();
+
+    /**
+     * @deprecated overriding this method does not change the headers of proxied calls, override
+     * {@link #toMetadata(HttpServletRequest, HeaderForwardingPolicy)} instead. This override will be removed.
+     */
+    @Deprecated(forRemoval = true)
+    @Override
+    public Metadata toMetadata(HttpServletRequest req) {
+        return convert(req, HeaderForwardingPolicy.forwardAll());
+    }
+
+    @Override
+    public Metadata toMetadata(HttpServletRequest req, HeaderForwardingPolicy policy) {
+        return convert(req, policy);
+    }
+
+    private Metadata convert(HttpServletRequest req, HeaderForwardingPolicy policy) {
+        Metadata metadata = new Metadata();
+        @Nullable Enumeration<String> names = req.getHeaderNames();
+        if (names == null) {
+            return metadata;
+        }
+        Set<String> stripHttpHeaders = stripHttpHeaders();
+        int remaining = policy.maxMetadataSize();
+        while (names.hasMoreElements()) {
+            String name = names.nextElement();
+            @Nullable Enumeration<String> values = req.getHeaders(name);
+            if (values == null) {
+                continue;
+            }
+            if (MetadataKeyCache.isBinary(name)) {
+                Metadata.Key<byte[]> key = keyCache.binaryKey(name);
+                // the key name is lower case
+                if (stripHttpHeaders.contains(key.name()) || !policy.forwards(key.name())) continue;
+                while (values.hasMoreElements()) {
+                    String value = values.nextElement();
+                    int size = HeaderForwardingPolicy.entrySize(name, value);
+                    if (size > remaining) {
+                        policy.oversized();
+                        continue;
+                    }
+                    remaining -= size;
+                    metadata.put(key, Base64.getDecoder().decode(value));
+                }
+            } else {
+                Metadata.Key<String> key = keyCache.asciiKey(name);
+                if (stripHttpHeaders.contains(key.name()) || !policy.forwards(key.name())) continue;
+                while (values.hasMoreElements()) {
+                    String value = values.nextElement();
+                    int size = HeaderForwardingPolicy.entrySize(name, value);
+                    if (size > remaining) {
+                        policy.oversized();
+                        continue;
+                    }
+                    remaining -= size;
+                    metadata.put(key, value);
+                }
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * @deprecated overriding this method does not change the headers of proxied calls, override
+     * {@link #toMetadata(HttpServletRequest, HeaderForwardingPolicy)} instead. This method will be made final.
+     */
+    @Deprecated(forRemoval = true)
     @Override
     public Metadata toMetadata(Stream<Header> headers) {
         Metadata httpHeaders = new Metadata();
         headers.forEach(h -> {
             String headerName = h.name();
             String headerValue = h.value();
-            if (headerName.toLowerCase(Locale.ROOT).endsWith(Metadata.BINARY_HEADER_SUFFIX)) {
-                httpHeaders.put(Metadata.Key.of(headerName, Metadata.BINARY_BYTE_MARSHALLER), Base64.getDecoder().decode(headerValue));
+            if (MetadataKeyCache.isBinary(headerName)) {
+                httpHeaders.put(keyCache.binaryKey(headerName), Base64.getDecoder().decode(headerValue));
             } else {
-                httpHeaders.put(Metadata.Key.of(headerName, Metadata.ASCII_STRING_MARSHALLER), headerValue);
+                httpHeaders.put(keyCache.asciiKey(headerName), headerValue);
             }
         });
         return httpHeaders;
     }
 
+    /**
+     * @deprecated overriding this method does not change the headers of proxied calls, override
+     * {@link #forEachHeader(Metadata, BiConsumer)} instead. This method will be made final.
+     */
+    @Deprecated(forRemoval = true)
     @Override
     public Stream<Header> toHeaders(Metadata metadata) {
-        var encoder = Base64.getEncoder().withoutPadding();
-        return metadata.keys().stream().flatMap(key -> {
-            if (key.endsWith(Metadata.BINARY_HEADER_SUFFIX)) {
-                var metaDataKey = Metadata.Key.of(key, Metadata.BINARY_BYTE_MARSHALLER);
-                var iterable = Objects.requireNonNull(metadata.getAll(metaDataKey));
-                return StreamSupport.stream(iterable.spliterator(), false).map(encoder::encodeToString)
-                        .map(value -> new Header(key, value));
+        List<Header> headers = new ArrayList<>();
+        convert(metadata, (name, value) -> headers.add(new Header(name, value)));
+        return headers.stream();
+    }
+
+    @Override
+    public void forEachHeader(Metadata metadata, BiConsumer<String, String> action) {
+        convert(metadata, action);
+    }
+
+    private void convert(Metadata metadata, BiConsumer<String, String> action) {
+        for (String name : metadata.keys()) {
+            if (name.endsWith(Metadata.BINARY_HEADER_SUFFIX)) {
+                @Nullable Iterable<byte[]> values = metadata.getAll(keyCache.binaryKey(name));
+                if (values == null) continue;
+                var encoder = Base64.getEncoder().withoutPadding();
+                for (byte[] value : values) {
+                    action.accept(name, encoder.encodeToString(value));
+                }
             } else {
-                var metaDataKey = Metadata.Key.of(key, Metadata.ASCII_STRING_MARSHALLER);
-                var iterable = Objects.requireNonNull(metadata.getAll(metaDataKey));
-                return StreamSupport.stream(iterable.spliterator(), false).map(value -> new Header(key, value));
+                @Nullable Iterable<String> values = metadata.getAll(keyCache.asciiKey(name));
+                if (values == null) continue;
+                for (String value : values) {
+                    action.accept(name, value);
+                }
             }
-        });
+        }
     }
 
 }
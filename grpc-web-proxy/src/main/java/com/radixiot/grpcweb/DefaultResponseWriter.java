@@ -16,45 +16,178 @@
 package com.radixiot.grpcweb;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.URLEncoder;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.Base64;
-import java.util.EnumSet;
-import java.util.Locale;
+import java.util.ArrayDeque;
+import java.util.Queue;
 import java.util.Set;
-import java.util.stream.Stream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
 import jakarta.servlet.http.HttpServletResponse;
 
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.grpc.Drainable;
 import io.grpc.Metadata;
 import io.grpc.Status;
 
-class DefaultResponseWriter implements ResponseWriter {
-    private static final String CRLF = "\r\n";
+/**
+ * Writes gRPC-Web frames to the servlet response. By default writes block the calling thread, once
+ * {@link #startNonBlocking()} is called the writer acts as the response's {@link WriteListener}. Frames are then only
+ * written while the output stream is ready, and are otherwise queued until {@link #onWritePossible()}.
+ */
+class DefaultResponseWriter implements ResponseWriter, WriteListener {
+    private static final Set<FrameFlag> TRAILERS = Set.of(FrameFlag.TRAILERS);
     private static final String TRAILERS_HAVE_BEEN_WRITTEN = "Trailers have been written";
     private static final String HEADERS_HAVE_BEEN_WRITTEN = "Headers have been written";
 
     private final Logger log = LoggerFactory.getLogger(getClass());
+    /**
+     * Guards the writer's state, blocking writes are made while holding it.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
 
     private final GrpcWebContentType contentType;
     private final HttpServletResponse response;
     private final HeaderConverter headerConverter;
+    private final BufferPool bufferPool;
+    private final PooledOutputStream trailerOutput;
+    private final PooledOutputStream frameOutput;
+    private final PooledOutputStream textOutput;
+    private final byte[] frameHeader = new byte[5];
+    private final CompletableFuture<@Nullable Void> closed = new CompletableFuture<>();
     private boolean headersWritten = false;
     private boolean trailersWritten = false;
+    private FlushPolicy.Flusher flusher = FlushPolicies.IMMEDIATE.newFlusher();
+    private int pendingBytes = 0;
+    private boolean pending = false;
+    private @Nullable ScheduledFuture<?> scheduledFlush;
+    private long scheduledDeadline;
+    private Executor blockingFlushExecutor = FlushPolicies.blockingFlushExecutor();
+
+    private boolean nonBlocking = false;
+    private @Nullable ServletOutputStream nonBlockingOutput;
+    // sized for the few buffers queued by a typical response, blocking writes never queue
+    private final Queue<ByteBuffer> pendingWrites = new ArrayDeque<>(2);
+    /**
+     * The last buffer passed to the container, it may still be in use until the output stream is next ready.
+     */
+    private @Nullable ByteBuffer inFlight;
+    /**
+     * A shared buffer in the write queue, which must not be returned to the pool.
+     */
+    private @Nullable ByteBuffer unpooled;
+    private boolean flushRequired = false;
+    private boolean closeRequired = false;
+    private volatile boolean outputClosed = false;
+    private @Nullable Runnable readyAction;
 
-    DefaultResponseWriter(GrpcWebContentType contentType, HttpServletResponse response, HeaderConverter headerConverter) {
+    DefaultResponseWriter(GrpcWebContentType contentType, HttpServletResponse response, HeaderConverter headerConverter,
+            BufferPool bufferPool) {
         this.contentType = contentType;
         this.response = response;
         this.headerConverter = headerConverter;
+        this.bufferPool = bufferPool;
+        this.trailerOutput = new PooledOutputStream(bufferPool);
+        this.frameOutput = new PooledOutputStream(bufferPool);
+        this.textOutput = new PooledOutputStream(bufferPool);
+    }
+
+    /**
+     * Switches to non-blocking writes, the request must be in asynchronous mode and nothing must have been written.
+     */
+    void startNonBlocking() throws IOException {
+        lock.lock();
+        try {
+            ServletOutputStream outputStream = response.getOutputStream();
+            this.nonBlocking = true;
+            this.nonBlockingOutput = outputStream;
+            outputStream.setWriteListener(this);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs the action once another frame can be written without queueing it. In blocking mode, or if the output
+     * stream is ready, the action is run immediately. Only the most recent action is retained.
+     *
+     * @param action typically requests the next message from the call
+     */
+    void whenReady(Runnable action) {
+        lock.lock();
+        try {
+            if (nonBlocking && !(pendingWrites.isEmpty() && isReady())) {
+                this.readyAction = action;
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        action.run();
+    }
+
+    boolean trailersWritten() {
+        lock.lock();
+        try {
+            return trailersWritten;
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
-    public synchronized void writeHeaders(Metadata headers) throws IOException {
+    public CompletionStage<@Nullable Void> closed() {
+        return closed;
+    }
+
+    /**
+     * @param flushPolicy decides when the headers and frames are flushed to the client
+     */
+    void setFlushPolicy(FlushPolicy flushPolicy) {
+        lock.lock();
+        try {
+            this.flusher = flushPolicy.newFlusher();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param executor runs delayed flushes while writes are blocking, typically the executor of the call
+     */
+    void setBlockingFlushExecutor(Executor executor) {
+        lock.lock();
+        try {
+            this.blockingFlushExecutor = executor;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void writeHeaders(Metadata headers) throws IOException {
+        lock.lock();
+        try {
+            writeHeadersLocked(headers);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeHeadersLocked(Metadata headers) throws IOException {
         if (trailersWritten) throw new IllegalStateException(TRAILERS_HAVE_BEEN_WRITTEN);
         if (headersWritten) throw new IllegalStateException(HEADERS_HAVE_BEEN_WRITTEN);
 
@@ -62,56 +195,368 @@ class DefaultResponseWriter implements ResponseWriter {
         response.setContentType(contentType.contentType());
         response.setHeader("transfer-encoding", "chunked");
 
-        Stream<Header> httpHeaders = headerConverter.toHeaders(headers);
-        httpHeaders.forEach(header -> response.addHeader(header.name(), header.value()));
+        headerConverter.forEachHeader(headers, response::addHeader);
 
-        response.flushBuffer();
         headersWritten = true;
+        written(0);
     }
 
     @Override
-    public synchronized void writeTrailers(Status status, Metadata trailer) throws IOException {
+    public void writeTrailers(Status status, Metadata trailer) throws IOException {
+        lock.lock();
+        try {
+            writeTrailersLocked(status, trailer);
+        } finally {
+            lock.unlock();
+        }
+        completeIfClosed();
+    }
+
+    private void writeTrailersLocked(Status status, Metadata trailer) throws IOException {
         if (trailersWritten) throw new IllegalStateException(TRAILERS_HAVE_BEEN_WRITTEN);
-        if (!headersWritten) writeHeaders();
+        if (!headersWritten) writeHeadersLocked(new Metadata());
 
-        StringBuilder sb = new StringBuilder();
-        Stream<Header> trailers = headerConverter.toHeaders(trailer);
-        trailers.forEach(header -> appendTrailer(sb, header.name(), header.value()));
-        appendTrailer(sb, "grpc-status", String.valueOf(status.getCode().value()));
-        if (status.getDescription() != null && !status.getDescription().isEmpty()) {
-            appendTrailer(sb, "grpc-message", percentEncode(status.getDescription()));
+        cancelScheduledFlush();
+        byte @Nullable [] statusFrame = TrailerEncoder.statusFrame(status, trailer, contentType.base64Encoded());
+        if (statusFrame != null) {
+            log.debug("writing trailer: grpc-status: {}", status.getCode().value());
+        }
+        if (nonBlocking) {
+            this.trailersWritten = true;
+            if (statusFrame != null) {
+                ByteBuffer shared = ByteBuffer.wrap(statusFrame);
+                this.unpooled = shared;
+                pendingWrites.add(shared);
+            } else {
+                pendingWrites.add(frame(TRAILERS, trailerPayload(status, trailer)).detach());
+            }
+            this.closeRequired = true;
+            drain();
+            return;
         }
 
-        log.debug("writing trailer: {}", sb);
-        byte[] trailerBytes = sb.toString().getBytes(StandardCharsets.US_ASCII);
-        writeFrame(EnumSet.of(FrameFlag.TRAILERS), trailerBytes);
-
+        // the output stream is closed below, which flushes the trailers regardless of the flush policy
+        if (statusFrame != null) {
+            response.getOutputStream().write(statusFrame);
+        } else {
+            writeBlocking(TRAILERS, trailerPayload(status, trailer));
+        }
         response.getOutputStream().close();
         this.trailersWritten = true;
+        this.outputClosed = true;
+    }
+
+    /**
+     * Completes {@link #closed()} once the output stream has been closed. This is done outside the lock, completion
+     * may cancel the call and with a direct executor the call's listener then runs inline on this thread.
+     */
+    private void completeIfClosed() {
+        if (outputClosed) {
+            closed.complete(null);
+        }
+    }
+
+    private ByteBuffer trailerPayload(Status status, Metadata trailer) {
+        PooledOutputStream trailerBytes = trailerOutput.reset(0);
+        headerConverter.forEachHeader(trailer, (name, value) -> TrailerEncoder.append(trailerBytes, name, value));
+        TrailerEncoder.appendStatus(trailerBytes, status);
+
+        ByteBuffer trailerBuffer = trailerBytes.toBuffer();
+        if (log.isDebugEnabled()) {
+            log.debug("writing trailer: {}", StandardCharsets.US_ASCII.decode(trailerBuffer.duplicate()));
+        }
+        return trailerBuffer;
+    }
+
+    @Override
+    public void writeFrame(Set<FrameFlag> flags, ByteBuffer frameBytes) throws IOException {
+        lock.lock();
+        try {
+            writeFrameLocked(flags, frameBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeFrameLocked(Set<FrameFlag> flags, ByteBuffer frameBytes) throws IOException {
+        if (trailersWritten) throw new IllegalStateException(TRAILERS_HAVE_BEEN_WRITTEN);
+        int length = frameBytes.remaining();
+        if (nonBlocking) {
+            pendingWrites.add(frame(flags, frameBytes).detach());
+            drain();
+        } else {
+            writeBlocking(flags, frameBytes);
+        }
+        written(FrameDecoder.HEADER_LENGTH + length);
+    }
+
+    @Override
+    public void writeFrame(Set<FrameFlag> flags, InputStream message, int length) throws IOException {
+        lock.lock();
+        try {
+            writeFrameLocked(flags, message, length);
+        } finally {
+            lock.unlock();
+        }
     }
 
-    private String percentEncode(String value) {
-        return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+    private void writeFrameLocked(Set<FrameFlag> flags, InputStream message, int length) throws IOException {
+        if (trailersWritten) throw new IllegalStateException(TRAILERS_HAVE_BEEN_WRITTEN);
+        if (nonBlocking || contentType.base64Encoded()) {
+            // the frame may need to be queued or encoded, it can not be streamed into the response
+            PooledOutputStream output = frameOutput.reset(FrameDecoder.HEADER_LENGTH + length);
+            writeFrameHeader(output, flags, length);
+            output.writeFrom(message, length);
+            PooledOutputStream encoded = encode(output);
+            if (nonBlocking) {
+                pendingWrites.add(encoded.detach());
+                drain();
+            } else {
+                PooledOutputStream.writeTo(encoded.toBuffer(), response.getOutputStream());
+            }
+            written(FrameDecoder.HEADER_LENGTH + length);
+            return;
+        }
+
+        OutputStream outputStream = response.getOutputStream();
+        writeFrameHeader(outputStream, flags, length);
+        long written = message instanceof Drainable drainable ?
+                drainable.drainTo(outputStream) :
+                message.transferTo(outputStream);
+        if (written != length) {
+            // the frame header has already been written, the response can not be recovered
+            throw new IOException("Message length " + written + " does not match expected length " + length);
+        }
+        written(FrameDecoder.HEADER_LENGTH + length);
+    }
+
+    /**
+     * Flushes the response now, or schedules a flush, as decided by the flush policy.
+     *
+     * @param length number of bytes written
+     */
+    private void written(int length) throws IOException {
+        this.pendingBytes += length;
+        this.pending = true;
+        long now = System.nanoTime();
+        long delay = flusher.onWrite(pendingBytes, now);
+        if (delay <= 0) {
+            flush();
+        } else if (delay != FlushPolicy.NO_DEADLINE) {
+            scheduleFlush(now + delay, delay);
+        }
+    }
+
+    private void flush() throws IOException {
+        cancelScheduledFlush();
+        if (nonBlocking && !(pendingWrites.isEmpty() && isReady())) {
+            // flushed by drain() once the output stream is ready
+            this.flushRequired = true;
+            return;
+        }
+        // also commits the headers if this is the first flush
+        response.flushBuffer();
+        this.pendingBytes = 0;
+        this.pending = false;
+        flusher.onFlush(System.nanoTime());
+    }
+
+    private void scheduleFlush(long deadline, long delay) {
+        @Nullable ScheduledFuture<?> scheduled = this.scheduledFlush;
+        if (scheduled != null) {
+            if (scheduledDeadline - deadline <= 0) {
+                // an earlier flush is already scheduled
+                return;
+            }
+            scheduled.cancel(false);
+        }
+        this.scheduledDeadline = deadline;
+        // the scheduler is shared by all responses, it must never block on a slow client
+        Runnable task = nonBlocking ? this::flushPending : this::dispatchFlush;
+        this.scheduledFlush = FlushPolicies.scheduler().schedule(task, delay, TimeUnit.NANOSECONDS);
+    }
+
+    private void cancelScheduledFlush() {
+        @Nullable ScheduledFuture<?> scheduled = this.scheduledFlush;
+        this.scheduledFlush = null;
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+    }
+
+    private void dispatchFlush() {
+        try {
+            blockingFlushExecutor.execute(this::flushPending);
+        } catch (RejectedExecutionException e) {
+            // the executor is shutting down, the frames are flushed by the next write or the trailers
+            log.debug("Delayed flush rejected", e);
+        }
+    }
+
+    private void flushPending() {
+        lock.lock();
+        try {
+            this.scheduledFlush = null;
+            if (!pending || trailersWritten) return;
+            flush();
+        } catch (IOException e) {
+            log.debug("Error flushing response", e);
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
-    public synchronized void writeFrame(Set<FrameFlag> flags, byte[] frameBytes) throws IOException {
+    public void onWritePossible() throws IOException {
+        @Nullable Runnable action = null;
+        lock.lock();
+        try {
+            drain();
+            if (readyAction != null && pendingWrites.isEmpty() && !closeRequired && isReady()) {
+                action = readyAction;
+                this.readyAction = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+        completeIfClosed();
+        if (action != null) {
+            action.run();
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        lock.lock();
+        try {
+            this.trailersWritten = true;
+            this.closeRequired = false;
+            this.readyAction = null;
+            // queued buffers were never passed to the container and can be reused. The last buffer written may still
+            // be referenced by the container, leave it to be garbage collected.
+            for (ByteBuffer buffer : pendingWrites) {
+                if (buffer != unpooled) {
+                    bufferPool.release(buffer);
+                }
+            }
+            pendingWrites.clear();
+            this.unpooled = null;
+            this.inFlight = null;
+        } finally {
+            lock.unlock();
+        }
+        closed.completeExceptionally(t);
+    }
+
+    /**
+     * Writes queued frames while the output stream is ready, followed by any required flush and close.
+     */
+    private void drain() throws IOException {
+        ServletOutputStream outputStream = response.getOutputStream();
+        while (!pendingWrites.isEmpty()) {
+            if (!isReady()) return;
+            ByteBuffer buffer = pendingWrites.remove();
+            if (buffer.hasArray()) {
+                outputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            } else {
+                // each write must be checked for readiness, so a direct buffer is written as a single copy
+                byte[] copy = new byte[buffer.remaining()];
+                buffer.duplicate().get(copy);
+                outputStream.write(copy);
+            }
+            this.inFlight = buffer == unpooled ? null : buffer;
+        }
+        if (flushRequired) {
+            if (!isReady()) return;
+            this.flushRequired = false;
+            flush();
+        }
+        if (closeRequired) {
+            if (!isReady()) return;
+            this.closeRequired = false;
+            outputStream.close();
+            // the container may still be writing the last buffer
+            this.inFlight = null;
+            this.outputClosed = true;
+        }
+    }
+
+    /**
+     * Checks if the output stream is ready, if not the container will call {@link #onWritePossible()}. Once ready the
+     * previous write has completed and its buffer can be returned to the pool.
+     */
+    private boolean isReady() {
+        @Nullable ServletOutputStream outputStream = this.nonBlockingOutput;
+        boolean ready = outputStream != null && outputStream.isReady();
+        if (ready) {
+            @Nullable ByteBuffer buffer = this.inFlight;
+            this.inFlight = null;
+            if (buffer != null) {
+                bufferPool.release(buffer);
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * Writes a frame to the response, blocking until it has been written. Binary frames are written directly, text
+     * frames are first assembled and encoded so that the frame is written as a single base64 segment.
+     */
+    private void writeBlocking(Set<FrameFlag> flags, ByteBuffer payload) throws IOException {
         OutputStream outputStream = response.getOutputStream();
         if (contentType.base64Encoded()) {
-            outputStream = Base64.getEncoder().wrap(outputStream);
+            PooledOutputStream.writeTo(frame(flags, payload).toBuffer(), outputStream);
+        } else {
+            writeFrameHeader(outputStream, flags, payload.remaining());
+            PooledOutputStream.writeTo(payload, outputStream);
+        }
+    }
+
+    /**
+     * Assembles a frame in a pooled buffer, the returned stream's buffer may be handed over to the write queue.
+     */
+    private PooledOutputStream frame(Set<FrameFlag> flags, ByteBuffer payload) throws IOException {
+        int length = payload.remaining();
+        PooledOutputStream output = frameOutput.reset(FrameDecoder.HEADER_LENGTH + length);
+        writeFrameHeader(output, flags, length);
+        PooledOutputStream.writeTo(payload, output);
+        return encode(output);
+    }
+
+    /**
+     * Encodes a grpc-web-text frame as a single padded base64 segment.
+     *
+     * @return the stream containing the encoded frame
+     */
+    private PooledOutputStream encode(PooledOutputStream output) {
+        if (!contentType.base64Encoded()) {
+            return output;
         }
-        outputStream.write(FrameFlag.encode(flags));
-        ByteBuffer lengthBytes = ByteBuffer.allocate(4).putInt(frameBytes.length);
-        outputStream.write(lengthBytes.array());
-        outputStream.write(frameBytes);
-        outputStream.flush();
+        ByteBuffer frame = output.toBuffer();
+        PooledOutputStream text = textOutput.reset(Base64FrameEncoder.encodedLength(frame.remaining()));
+        Base64FrameEncoder.encode(frame, text);
+        return text;
+    }
+
+    private void writeFrameHeader(OutputStream outputStream, Set<FrameFlag> flags, int length) throws IOException {
+        frameHeader[0] = (byte) FrameFlag.encode(flags);
+        frameHeader[1] = (byte) (length >>> 24);
+        frameHeader[2] = (byte) (length >>> 16);
+        frameHeader[3] = (byte) (length >>> 8);
+        frameHeader[4] = (byte) length;
+        outputStream.write(frameHeader);
     }
 
-    private void appendTrailer(StringBuilder sb, String key, String value) {
-        sb.append(key.toLowerCase(Locale.ROOT))
-                .append(": ")
-                .append(value)
-                .append(CRLF);
+    @Override
+    public void release() {
+        lock.lock();
+        try {
+            trailerOutput.release();
+            frameOutput.release();
+            textOutput.release();
+        } finally {
+            lock.unlock();
+        }
     }
 
 }
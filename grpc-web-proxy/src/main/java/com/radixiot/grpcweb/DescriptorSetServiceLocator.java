@@ -0,0 +1,235 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.MethodType;
+import io.grpc.ServiceDescriptor;
+
+/**
+ * Locates services using serialized protobuf {@code FileDescriptorSet}s, e.g. as generated by
+ * {@code protoc --descriptor_set_out}, so that the generated gRPC classes do not need to be on the classpath. The
+ * descriptor sets are read once and indexed in immutable maps.
+ * <p>
+ * Methods marshal their requests and responses as opaque byte arrays, messages are forwarded without being parsed as
+ * for {@link PassThroughServiceLocator}.
+ */
+public class DescriptorSetServiceLocator implements ServiceLocator {
+
+    // FileDescriptorSet
+    private static final int SET_FILE = 1;
+    // FileDescriptorProto
+    private static final int FILE_PACKAGE = 2;
+    private static final int FILE_SERVICE = 6;
+    // ServiceDescriptorProto
+    private static final int SERVICE_NAME = 1;
+    private static final int SERVICE_METHOD = 2;
+    // MethodDescriptorProto
+    private static final int METHOD_NAME = 1;
+    private static final int METHOD_CLIENT_STREAMING = 5;
+    private static final int METHOD_SERVER_STREAMING = 6;
+
+    private final Map<String, ServiceDescriptor> services;
+    private final Map<String, MethodDescriptor<?, ?>> methods;
+
+    private DescriptorSetServiceLocator(Map<String, ServiceDescriptor> services) {
+        Map<String, MethodDescriptor<?, ?>> methods = new HashMap<>();
+        for (ServiceDescriptor service : services.values()) {
+            for (MethodDescriptor<?, ?> method : service.getMethods()) {
+                methods.put(method.getFullMethodName(), method);
+            }
+        }
+        this.services = Map.copyOf(services);
+        this.methods = Map.copyOf(methods);
+    }
+
+    /**
+     * @param paths files containing serialized {@code FileDescriptorSet}s
+     * @return a locator for the services defined in the files
+     * @throws IOException if a file can not be read or parsed
+     */
+    public static DescriptorSetServiceLocator load(Path... paths) throws IOException {
+        Map<String, ServiceDescriptor> services = new HashMap<>();
+        for (Path path : paths) {
+            try (InputStream inputStream = Files.newInputStream(path)) {
+                parseSet(CodedInputStream.newInstance(inputStream), services);
+            }
+        }
+        return new DescriptorSetServiceLocator(services);
+    }
+
+    /**
+     * @param inputStreams streams containing serialized {@code FileDescriptorSet}s, they are not closed
+     * @return a locator for the services defined in the streams
+     * @throws IOException if a stream can not be read or parsed
+     */
+    public static DescriptorSetServiceLocator load(InputStream... inputStreams) throws IOException {
+        Map<String, ServiceDescriptor> services = new HashMap<>();
+        for (InputStream inputStream : inputStreams) {
+            parseSet(CodedInputStream.newInstance(inputStream), services);
+        }
+        return new DescriptorSetServiceLocator(services);
+    }
+
+    @Override
+    public ServiceDescriptor locate(String serviceName) {
+        @Nullable ServiceDescriptor service = services.get(serviceName);
+        if (service == null) {
+            throw new NoSuchElementException(serviceName);
+        }
+        return service;
+    }
+
+    @Override
+    public MethodDescriptor<?, ?> locateMethod(String fullMethodName) {
+        @Nullable MethodDescriptor<?, ?> method = methods.get(fullMethodName);
+        if (method == null) {
+            throw new NoSuchElementException(fullMethodName);
+        }
+        return method;
+    }
+
+    private static void parseSet(CodedInputStream input, Map<String, ServiceDescriptor> services) throws IOException {
+        // descriptor sets may be large, e.g. when they include all imports
+        input.setSizeLimit(Integer.MAX_VALUE);
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            if (tag == lengthDelimited(SET_FILE)) {
+                int limit = input.pushLimit(input.readRawVarint32());
+                parseFile(input, services);
+                input.popLimit(limit);
+            } else {
+                input.skipField(tag);
+            }
+        }
+    }
+
+    private static void parseFile(CodedInputStream input, Map<String, ServiceDescriptor> services) throws IOException {
+        String packageName = "";
+        List<ServiceBuilder> fileServices = new ArrayList<>();
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            if (tag == lengthDelimited(FILE_PACKAGE)) {
+                packageName = input.readStringRequireUtf8();
+            } else if (tag == lengthDelimited(FILE_SERVICE)) {
+                int limit = input.pushLimit(input.readRawVarint32());
+                fileServices.add(parseService(input));
+                input.popLimit(limit);
+            } else {
+                input.skipField(tag);
+            }
+        }
+
+        // the package may follow the services in the serialized file
+        for (ServiceBuilder service : fileServices) {
+            String serviceName = packageName.isEmpty() ? service.name : packageName + "." + service.name;
+            if (!services.containsKey(serviceName)) {
+                // descriptor sets which include imports may define the same file more than once
+                services.put(serviceName, service.build(serviceName));
+            }
+        }
+    }
+
+    private static ServiceBuilder parseService(CodedInputStream input) throws IOException {
+        ServiceBuilder service = new ServiceBuilder();
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            if (tag == lengthDelimited(SERVICE_NAME)) {
+                service.name = input.readStringRequireUtf8();
+            } else if (tag == lengthDelimited(SERVICE_METHOD)) {
+                int limit = input.pushLimit(input.readRawVarint32());
+                service.methods.add(parseMethod(input));
+                input.popLimit(limit);
+            } else {
+                input.skipField(tag);
+            }
+        }
+        return service;
+    }
+
+    private static MethodBuilder parseMethod(CodedInputStream input) throws IOException {
+        MethodBuilder method = new MethodBuilder();
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            if (tag == lengthDelimited(METHOD_NAME)) {
+                method.name = input.readStringRequireUtf8();
+            } else if (tag == varint(METHOD_CLIENT_STREAMING)) {
+                method.clientStreaming = input.readBool();
+            } else if (tag == varint(METHOD_SERVER_STREAMING)) {
+                method.serverStreaming = input.readBool();
+            } else {
+                input.skipField(tag);
+            }
+        }
+        return method;
+    }
+
+    private static int lengthDelimited(int fieldNumber) {
+        return fieldNumber << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    }
+
+    private static int varint(int fieldNumber) {
+        return fieldNumber << 3 | WireFormat.WIRETYPE_VARINT;
+    }
+
+    private static class ServiceBuilder {
+        private String name = "";
+        private final List<MethodBuilder> methods = new ArrayList<>();
+
+        private ServiceDescriptor build(String serviceName) {
+            var builder = ServiceDescriptor.newBuilder(serviceName);
+            for (MethodBuilder method : methods) {
+                builder.addMethod(method.build(serviceName));
+            }
+            return builder.build();
+        }
+    }
+
+    private static class MethodBuilder {
+        private String name = "";
+        private boolean clientStreaming = false;
+        private boolean serverStreaming = false;
+
+        private MethodDescriptor<byte[], byte[]> build(String serviceName) {
+            MethodType type;
+            if (clientStreaming) {
+                type = serverStreaming ? MethodType.BIDI_STREAMING : MethodType.CLIENT_STREAMING;
+            } else {
+                type = serverStreaming ? MethodType.SERVER_STREAMING : MethodType.UNARY;
+            }
+            return MethodDescriptor.newBuilder(ByteArrayMarshaller.INSTANCE, ByteArrayMarshaller.INSTANCE)
+                    .setType(type)
+                    .setFullMethodName(MethodDescriptor.generateFullMethodName(serviceName, name))
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.radixiot.grpcweb.FlushPolicy.Flusher;
+
+/**
+ * Implementations of the built-in {@link FlushPolicy} types.
+ */
+final class FlushPolicies {
+
+    static final FlushPolicy IMMEDIATE = () -> (pendingBytes, nanoTime) -> 0;
+
+    private FlushPolicies() {
+    }
+
+    /**
+     * @return scheduler used to flush responses once their delay expires
+     */
+    static ScheduledExecutorService scheduler() {
+        return SchedulerHolder.SCHEDULER;
+    }
+
+    /**
+     * @return executor for the delayed flushes of responses written with blocking I/O. A flush to a slow client blocks,
+     * so each runs on its own thread rather than stalling the scheduler.
+     */
+    static Executor blockingFlushExecutor() {
+        return BlockingFlushExecutorHolder.EXECUTOR;
+    }
+
+    private static class BlockingFlushExecutorHolder {
+        private static final Executor EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "grpc-web-blocking-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static class SchedulerHolder {
+        private static final ScheduledExecutorService SCHEDULER = Executors.newScheduledThreadPool(
+                Math.max(2, Runtime.getRuntime().availableProcessors() / 2), runnable -> {
+                    Thread thread = new Thread(runnable, "grpc-web-flush");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    record MaxBytes(int maxBytes) implements FlushPolicy, Flusher {
+        @Override
+        public Flusher newFlusher() {
+            return this;
+        }
+
+        @Override
+        public long onWrite(int pendingBytes, long nanoTime) {
+            return pendingBytes >= maxBytes ? 0 : FlushPolicy.NO_DEADLINE;
+        }
+    }
+
+    record MaxDelay(Duration maxDelay, int maxBytes) implements FlushPolicy {
+        @Override
+        public Flusher newFlusher() {
+            return new DelayFlusher(maxDelay.toNanos(), maxBytes);
+        }
+    }
+
+    record Adaptive(Duration maxDelay, int maxBytes) implements FlushPolicy {
+        @Override
+        public Flusher newFlusher() {
+            return new AdaptiveFlusher(maxDelay.toNanos(), maxBytes);
+        }
+    }
+
+    private static class DelayFlusher implements Flusher {
+        final long maxDelay;
+        final int maxBytes;
+        private boolean pending = false;
+        private long firstPending;
+
+        private DelayFlusher(long maxDelay, int maxBytes) {
+            this.maxDelay = maxDelay;
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public long onWrite(int pendingBytes, long nanoTime) {
+            if (!pending) {
+                this.pending = true;
+                this.firstPending = nanoTime;
+            }
+            if (pendingBytes >= maxBytes) {
+                return 0;
+            }
+            return Math.max(0, maxDelay - (nanoTime - firstPending));
+        }
+
+        @Override
+        public void onFlush(long nanoTime) {
+            this.pending = false;
+        }
+    }
+
+    /**
+     * Tracks a moving average of the interval between writes, frames are only coalesced while the average interval is
+     * shorter than the maximum delay, as otherwise there is nothing to gain by waiting.
+     */
+    private static class AdaptiveFlusher extends DelayFlusher {
+        private long lastWrite;
+        private long averageInterval = -1;
+
+        private AdaptiveFlusher(long maxDelay, int maxBytes) {
+            super(maxDelay, maxBytes);
+        }
+
+        @Override
+        public long onWrite(int pendingBytes, long nanoTime) {
+            if (averageInterval < 0) {
+                this.averageInterval = maxDelay;
+            } else {
+                long interval = nanoTime - lastWrite;
+                this.averageInterval += (interval - averageInterval) / 4;
+            }
+            this.lastWrite = nanoTime;
+
+            long delay = super.onWrite(pendingBytes, nanoTime);
+            return averageInterval >= maxDelay ? 0 : delay;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.time.Duration;
+
+/**
+ * Decides when frames written to a response are flushed to the client. Flushing after every frame minimizes latency,
+ * while coalescing small frames reduces the number of writes and chunk headers for busy server streams.
+ */
+@FunctionalInterface
+public interface FlushPolicy {
+
+    /**
+     * Returned by {@link Flusher#onWrite(int, long)} when buffered frames do not need to be flushed until the next
+     * frame or the trailers are written.
+     */
+    long NO_DEADLINE = Long.MAX_VALUE;
+
+    /**
+     * Creates the flush state for a single response. It is only accessed while holding the response writer's lock.
+     *
+     * @return a new flusher
+     */
+    Flusher newFlusher();
+
+    /**
+     * @return a policy which flushes the headers and every frame as soon as they are written
+     */
+    static FlushPolicy immediate() {
+        return FlushPolicies.IMMEDIATE;
+    }
+
+    /**
+     * Flushes once the buffered frames reach a size. Frames may be held indefinitely when a stream goes quiet, so this
+     * is only suitable for streams which complete promptly.
+     *
+     * @param maxBytes number of buffered bytes which triggers a flush
+     * @return a policy which flushes based on size
+     */
+    static FlushPolicy maxBytes(int maxBytes) {
+        return new FlushPolicies.MaxBytes(maxBytes);
+    }
+
+    /**
+     * Flushes once the buffered frames reach a size, or when the oldest buffered frame has waited for the maximum
+     * delay.
+     *
+     * @param maxDelay maximum time a frame is buffered before it is flushed
+     * @param maxBytes number of buffered bytes which triggers a flush
+     * @return a policy which bounds the latency added to each frame
+     */
+    static FlushPolicy maxDelay(Duration maxDelay, int maxBytes) {
+        return new FlushPolicies.MaxDelay(maxDelay, maxBytes);
+    }
+
+    /**
+     * Flushes immediately while frames are written infrequently, and coalesces frames as for
+     * {@link #maxDelay(Duration, int)} once they are written faster than the maximum delay.
+     *
+     * @param maxDelay maximum time a frame is buffered before it is flushed
+     * @param maxBytes number of buffered bytes which triggers a flush
+     * @return a policy which adapts to the rate of frames
+     */
+    static FlushPolicy adaptive(Duration maxDelay, int maxBytes) {
+        return new FlushPolicies.Adaptive(maxDelay, maxBytes);
+    }
+
+    /**
+     * Flush state for a single response.
+     */
+    interface Flusher {
+
+        /**
+         * Called after the headers or a frame have been written to the response buffer.
+         *
+         * @param pendingBytes number of bytes written since the last flush
+         * @param nanoTime the current value of {@link System#nanoTime()}
+         * @return 0 to flush now, the delay in nanoseconds after which the buffered frames must be flushed, or
+         * {@link #NO_DEADLINE}
+         */
+        long onWrite(int pendingBytes, long nanoTime);
+
+        /**
+         * Called after the response has been flushed.
+         *
+         * @param nanoTime the current value of {@link System#nanoTime()}
+         */
+        default void onFlush(long nanoTime) {
+            // stateless
+        }
+    }
+}
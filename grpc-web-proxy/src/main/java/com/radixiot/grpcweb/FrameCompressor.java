@@ -0,0 +1,140 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Compresses response frames with gzip or deflate (zlib) into a buffer leased from a {@link BufferPool}, which is
+ * reused for subsequent frames. Frames below the size threshold, or which do not get any smaller, are left
+ * uncompressed as the compressed flag is set per frame.
+ */
+class FrameCompressor {
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int GZIP_TRAILER_LENGTH = 8;
+    /**
+     * Frames this small never get meaningfully smaller.
+     */
+    private static final int MIN_LENGTH = 32;
+
+    private final MessageEncoding encoding;
+    private final int level;
+    private final int threshold;
+    private final ZipPool<Deflater> deflaterPool;
+    private final BufferPool bufferPool;
+    private final CRC32 crc = new CRC32();
+    private @Nullable ByteBuffer output;
+
+    /**
+     * @param encoding gzip or deflate
+     * @param level compression level, 1-9 or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param threshold minimum size of a frame to compress
+     */
+    FrameCompressor(MessageEncoding encoding, int level, int threshold, ZipPool<Deflater> deflaterPool,
+            BufferPool bufferPool) {
+        if (encoding == MessageEncoding.IDENTITY) {
+            throw new IllegalArgumentException("Identity encoding does not require compression");
+        }
+        this.encoding = encoding;
+        this.level = level;
+        this.threshold = threshold;
+        this.deflaterPool = deflaterPool;
+        this.bufferPool = bufferPool;
+    }
+
+    MessageEncoding encoding() {
+        return encoding;
+    }
+
+    /**
+     * @param length size of an uncompressed frame
+     * @return true if a frame of this size would be compressed
+     */
+    boolean compresses(int length) {
+        return length >= Math.max(threshold, MIN_LENGTH);
+    }
+
+    /**
+     * @param input uncompressed frame, its position is not modified
+     * @return buffer containing the compressed frame, only valid until the next call or {@link #release()}; or null
+     * if the frame should be sent uncompressed
+     */
+    @Nullable ByteBuffer compress(ByteBuffer input) {
+        int length = input.remaining();
+        if (!compresses(length)) {
+            return null;
+        }
+
+        boolean gzip = encoding == MessageEncoding.GZIP;
+        ByteBuffer buffer = outputBuffer(length);
+        // only accept output which is smaller than the input
+        buffer.clear().limit(length - 1);
+        if (gzip) {
+            buffer.put(GZIP_HEADER);
+            buffer.limit(buffer.limit() - GZIP_TRAILER_LENGTH);
+        }
+
+        Deflater deflater = deflaterPool.acquire(gzip);
+        deflater.setLevel(level);
+        try {
+            deflater.setInput(input.duplicate());
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (!buffer.hasRemaining()) {
+                    return null;
+                }
+                deflater.deflate(buffer);
+            }
+        } finally {
+            deflaterPool.release(deflater, gzip);
+        }
+
+        if (gzip) {
+            crc.reset();
+            crc.update(input.duplicate());
+            buffer.limit(buffer.limit() + GZIP_TRAILER_LENGTH);
+            buffer.order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt((int) crc.getValue())
+                    .putInt(length)
+                    .order(ByteOrder.BIG_ENDIAN);
+        }
+        return buffer.flip();
+    }
+
+    void release() {
+        @Nullable ByteBuffer buffer = this.output;
+        this.output = null;
+        if (buffer != null) {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private ByteBuffer outputBuffer(int capacity) {
+        @Nullable ByteBuffer buffer = this.output;
+        if (buffer == null || buffer.capacity() < capacity) {
+            release();
+            buffer = bufferPool.acquire(capacity);
+            this.output = buffer;
+        }
+        return buffer;
+    }
+}
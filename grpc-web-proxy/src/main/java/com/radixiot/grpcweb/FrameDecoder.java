@@ -15,10 +15,9 @@
  */
 package com.radixiot.grpcweb;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.Objects;
 
 import org.checkerframework.checker.nullness.qual.Nullable;
 
@@ -26,50 +25,168 @@ import io.grpc.MethodDescriptor.Marshaller;
 import io.grpc.Status;
 
 /**
- * Reads frames from the input bytes and returns a single message.
+ * Assembles frames from chunks of the request body and passes each decoded message to a listener as soon as its
+ * frame is complete. When a frame is entirely contained within a chunk it is parsed in place, otherwise it is
+ * assembled in a buffer leased from a {@link BufferPool}, which is reused for subsequent frames. Compressed frames
+ * are decompressed before parsing when the request specified a grpc-encoding.
  */
-class FrameDecoder<T> {
+class FrameDecoder<T> implements RequestDecoder {
+    static final int HEADER_LENGTH = 5;
+    private static final byte[] EMPTY = new byte[0];
+
     private final Marshaller<T> marshaller;
-    private final InputStream inputStream;
+    private final Listener<T> listener;
     private final int maxFrameSize;
+    private final BufferPool bufferPool;
+    private final @Nullable FrameDecompressor decompressor;
+    private final FrameInputStream frameInput = new FrameInputStream();
+
+    private int headerPosition = 0;
+    private int flags;
+    private boolean compressed;
+    private long frameSize;
+    private @Nullable ByteBuffer frame;
+    private int framePosition = 0;
 
-    FrameDecoder(InputStream inputStream, Marshaller<T> marshaller, int maxFrameSize) {
-        this.inputStream = inputStream;
+    FrameDecoder(Marshaller<T> marshaller, int maxFrameSize, BufferPool bufferPool, Listener<T> listener) {
+        this(marshaller, maxFrameSize, bufferPool, null, listener);
+    }
+
+    /**
+     * @param decompressor decompresses frames with the compressed flag set, or null if the request is not encoded
+     */
+    FrameDecoder(Marshaller<T> marshaller, int maxFrameSize, BufferPool bufferPool,
+            @Nullable FrameDecompressor decompressor, Listener<T> listener) {
         this.marshaller = marshaller;
         this.maxFrameSize = maxFrameSize;
+        this.bufferPool = bufferPool;
+        this.decompressor = decompressor;
+        this.listener = listener;
     }
 
-    @Nullable T readDataFrame() throws IOException {
-        int flagsByte = inputStream.read();
-        if (flagsByte == -1) return null;
+    @Override
+    public void decode(byte[] bytes, int offset, int length) throws IOException {
+        int position = offset;
+        int end = offset + length;
+        while (position < end) {
+            if (headerPosition < HEADER_LENGTH) {
+                int b = bytes[position++] & 0xFF;
+                if (headerPosition++ == 0) {
+                    flags = b;
+                } else {
+                    frameSize = frameSize << 8 | b;
+                }
+                if (headerPosition == HEADER_LENGTH) {
+                    startFrame();
+                }
+            } else if (framePosition == 0 && end - position >= frameSize) {
+                // the whole frame is available, parse it directly from the chunk
+                int size = (int) frameSize;
+                completeFrame(bytes, position, size);
+                position += size;
+            } else {
+                ByteBuffer buffer = frameBuffer();
+                int count = (int) Math.min(frameSize - framePosition, end - position);
+                buffer.put(bytes, position, count);
+                framePosition += count;
+                position += count;
+                if (framePosition == frameSize) {
+                    completeFrame(buffer.flip());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void endOfStream() throws IOException {
+        if (headerPosition > 0) {
+            throw new IllegalStateException("Incomplete frame at end of request");
+        }
+        release();
+        listener.onEndOfStream();
+    }
+
+    @Override
+    public void release() {
+        @Nullable ByteBuffer buffer = this.frame;
+        this.frame = null;
+        if (buffer != null) {
+            bufferPool.release(buffer);
+        }
+        if (decompressor != null) {
+            decompressor.release();
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        return listener.isReady();
+    }
+
+    @Override
+    public void setOnReadyHandler(Runnable handler) {
+        listener.setOnReadyHandler(handler);
+    }
 
-        var flags = FrameFlag.decode(flagsByte);
-        if (flags.contains(FrameFlag.TRAILERS)) {
+    private ByteBuffer frameBuffer() {
+        @Nullable ByteBuffer buffer = this.frame;
+        if (buffer == null || buffer.capacity() < frameSize) {
+            release();
+            buffer = bufferPool.acquire((int) frameSize);
+            this.frame = buffer;
+        }
+        return buffer;
+    }
+
+    private void startFrame() throws IOException {
+        var frameFlags = FrameFlag.decode(flags);
+        if (frameFlags.contains(FrameFlag.TRAILERS)) {
             throw Status.UNIMPLEMENTED
                     .withDescription("No message received")
                     .asRuntimeException();
         }
-        if (flags.contains(FrameFlag.COMPRESSED)) {
+        this.compressed = frameFlags.contains(FrameFlag.COMPRESSED);
+        if (compressed && decompressor == null) {
             throw Status.INTERNAL
-                    .withDescription("Compressed frames are not supported")
+                    .withDescription("Compressed frame received without grpc-encoding")
                     .asRuntimeException();
         }
 
-        ByteBuffer lengthBytes = ByteBuffer.allocate(4);
-        if (inputStream.read(lengthBytes.array()) < 4) {
-            throw new IllegalStateException("Couldn't read length bytes");
+        if (getFrameSize(frameSize) == 0) {
+            completeFrame(EMPTY, 0, 0);
+        }
+    }
+
+    private void completeFrame(byte[] bytes, int offset, int length) throws IOException {
+        if (compressed) {
+            completeFrame(frameInput.reset(decompress(ByteBuffer.wrap(bytes, offset, length))));
+        } else {
+            completeFrame(frameInput.reset(bytes, offset, length));
         }
+    }
+
+    private void completeFrame(ByteBuffer buffer) throws IOException {
+        completeFrame(frameInput.reset(compressed ? decompress(buffer) : buffer));
+        buffer.clear();
+    }
+
+    private ByteBuffer decompress(ByteBuffer buffer) {
+        return Objects.requireNonNull(decompressor).decompress(buffer);
+    }
 
-        int frameSize = getFrameSize(lengthBytes);
-        byte[] messageBytes = inputStream.readNBytes(frameSize);
-        if (messageBytes.length != frameSize) {
-            throw new IllegalStateException("Couldn't read message bytes");
+    private void completeFrame(FrameInputStream inputStream) throws IOException {
+        T message;
+        try (inputStream) {
+            message = marshaller.parse(inputStream);
         }
-        return marshaller.parse(new ByteArrayInputStream(messageBytes));
+        this.headerPosition = 0;
+        this.frameSize = 0;
+        this.compressed = false;
+        this.framePosition = 0;
+        listener.onMessage(message);
     }
 
-    int getFrameSize(ByteBuffer sizeBytes) {
-        long size = Integer.toUnsignedLong(sizeBytes.getInt());
+    int getFrameSize(long size) {
         if (size > maxFrameSize) {
             throw Status.RESOURCE_EXHAUSTED.withDescription("Frame size of exceeds limit")
                     .asRuntimeException();
@@ -85,8 +202,26 @@ class FrameDecoder<T> {
         return sizeInt;
     }
 
-    boolean hasFrame() throws IOException {
-        int firstByte = inputStream.read();
-        return firstByte != -1;
+    /**
+     * Receives messages decoded by a {@link FrameDecoder}.
+     */
+    interface Listener<T> {
+        void onMessage(T message) throws IOException;
+
+        void onEndOfStream() throws IOException;
+
+        /**
+         * @return true if the listener can accept more messages without buffering them
+         */
+        default boolean isReady() {
+            return true;
+        }
+
+        /**
+         * @param handler invoked when the listener becomes ready again after {@link #isReady()} returned false
+         */
+        default void setOnReadyHandler(Runnable handler) {
+            // always ready
+        }
     }
 }
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+/**
+ * Decompresses gzip or deflate (zlib) encoded frames into a buffer leased from a {@link BufferPool}, which is reused
+ * for subsequent frames. Decompression stops as soon as the output exceeds the maximum frame size, so a small
+ * compressed frame can not be used to exhaust memory.
+ */
+class FrameDecompressor {
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int GZIP_TRAILER_LENGTH = 8;
+    private static final int FHCRC = 0x02;
+    private static final int FEXTRA = 0x04;
+    private static final int FNAME = 0x08;
+    private static final int FCOMMENT = 0x10;
+    private static final int MIN_OUTPUT_SIZE = 1024;
+
+    private final MessageEncoding encoding;
+    private final ZipPool<Inflater> inflaterPool;
+    private final BufferPool bufferPool;
+    private final int maxSize;
+    private final byte[] overflow = new byte[1];
+    private final CRC32 crc = new CRC32();
+    private @Nullable ByteBuffer output;
+
+    /**
+     * @param encoding gzip or deflate
+     * @param maxSize maximum size of a decompressed frame
+     */
+    FrameDecompressor(MessageEncoding encoding, ZipPool<Inflater> inflaterPool, BufferPool bufferPool, int maxSize) {
+        if (encoding == MessageEncoding.IDENTITY) {
+            throw new IllegalArgumentException("Identity encoding does not require decompression");
+        }
+        this.encoding = encoding;
+        this.inflaterPool = inflaterPool;
+        this.bufferPool = bufferPool;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param input compressed frame, its position is advanced past the consumed bytes
+     * @return buffer containing the decompressed frame, only valid until the next call or {@link #release()}
+     */
+    ByteBuffer decompress(ByteBuffer input) {
+        boolean gzip = encoding == MessageEncoding.GZIP;
+        if (gzip) {
+            skipGzipHeader(input);
+        }
+
+        Inflater inflater = inflaterPool.acquire(gzip);
+        try {
+            inflater.setInput(input);
+            ByteBuffer buffer = outputBuffer(Math.min(maxSize, Math.max(MIN_OUTPUT_SIZE, input.remaining() * 4)));
+            buffer.clear().limit(Math.min(buffer.capacity(), maxSize));
+            while (!inflater.finished()) {
+                if (!buffer.hasRemaining()) {
+                    buffer = grow(buffer, inflater);
+                    if (buffer == null) break;
+                }
+                if (inflater.inflate(buffer) == 0 && !inflater.finished()
+                        && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw corrupt();
+                }
+            }
+            buffer.flip();
+
+            if (gzip) {
+                checkGzipTrailer(input, buffer);
+            }
+            return buffer;
+        } catch (DataFormatException e) {
+            throw Status.INTERNAL.withDescription("Invalid compressed frame")
+                    .withCause(e)
+                    .asRuntimeException();
+        } finally {
+            inflaterPool.release(inflater, gzip);
+        }
+    }
+
+    void release() {
+        @Nullable ByteBuffer buffer = this.output;
+        this.output = null;
+        if (buffer != null) {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Grows the output buffer, up to the maximum frame size.
+     *
+     * @return the new buffer, or null if the output is exactly the maximum frame size
+     */
+    private @Nullable ByteBuffer grow(ByteBuffer buffer, Inflater inflater) throws DataFormatException {
+        if (buffer.position() >= maxSize) {
+            // check if there is any more output, the inflater may not be finished until it reads the final block
+            if (inflater.inflate(overflow) > 0) {
+                throw Status.RESOURCE_EXHAUSTED.withDescription("Decompressed frame size exceeds limit")
+                        .asRuntimeException();
+            }
+            if (!inflater.finished()) {
+                throw corrupt();
+            }
+            return null;
+        }
+
+        ByteBuffer replacement = bufferPool.acquire((int) Math.min(maxSize, buffer.capacity() * 2L));
+        replacement.clear().limit(Math.min(replacement.capacity(), maxSize));
+        replacement.put(buffer.flip());
+        release();
+        this.output = replacement;
+        return replacement;
+    }
+
+    private ByteBuffer outputBuffer(int capacity) {
+        @Nullable ByteBuffer buffer = this.output;
+        if (buffer == null || buffer.capacity() < capacity) {
+            release();
+            buffer = bufferPool.acquire(capacity);
+            this.output = buffer;
+        }
+        return buffer;
+    }
+
+    /**
+     * Skips the gzip member header, see RFC 1952.
+     */
+    private static void skipGzipHeader(ByteBuffer input) {
+        ByteBuffer header = input.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if ((header.getShort() & 0xFFFF) != GZIP_MAGIC || header.get() != 8) {
+                throw corrupt();
+            }
+            int flags = header.get();
+            // skip mtime, extra flags and OS
+            header.position(header.position() + 6);
+            if ((flags & FEXTRA) != 0) {
+                int length = header.getShort() & 0xFFFF;
+                header.position(header.position() + length);
+            }
+            if ((flags & FNAME) != 0) {
+                skipZeroTerminated(header);
+            }
+            if ((flags & FCOMMENT) != 0) {
+                skipZeroTerminated(header);
+            }
+            if ((flags & FHCRC) != 0) {
+                header.position(header.position() + 2);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // header is truncated
+            throw corrupt();
+        }
+        input.position(header.position());
+    }
+
+    private static void skipZeroTerminated(ByteBuffer header) {
+        while (header.get() != 0) {
+            // skip
+        }
+    }
+
+    private void checkGzipTrailer(ByteBuffer input, ByteBuffer output) {
+        if (input.remaining() < GZIP_TRAILER_LENGTH) {
+            throw corrupt();
+        }
+        ByteBuffer trailer = input.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        crc.reset();
+        crc.update(output.duplicate());
+        if (trailer.getInt() != (int) crc.getValue() || trailer.getInt() != output.remaining()) {
+            throw corrupt();
+        }
+        input.position(input.position() + GZIP_TRAILER_LENGTH);
+    }
+
+    private static StatusRuntimeException corrupt() {
+        return Status.INTERNAL.withDescription("Invalid compressed frame")
+                .asRuntimeException();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import io.grpc.KnownLength;
+
+/**
+ * A bounded view over a region of a byte array or a direct buffer. As it implements {@link KnownLength}, marshallers
+ * (e.g. protobuf) are able to parse the message without first copying it into another buffer. The view is reused for
+ * every frame and is only valid until the marshaller returns.
+ */
+class FrameInputStream extends InputStream implements KnownLength {
+    private static final byte[] EMPTY = new byte[0];
+
+    private byte[] bytes = EMPTY;
+    private int position;
+    private int end;
+    private @Nullable ByteBuffer buffer;
+
+    FrameInputStream reset(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.position = offset;
+        this.end = offset + length;
+        this.buffer = null;
+        return this;
+    }
+
+    FrameInputStream reset(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return reset(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        reset(EMPTY, 0, 0);
+        this.buffer = buffer;
+        return this;
+    }
+
+    @Override
+    public int read() {
+        @Nullable ByteBuffer source = this.buffer;
+        if (source != null) {
+            return source.hasRemaining() ? source.get() & 0xFF : -1;
+        }
+        return position < end ? bytes[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) return 0;
+        int remaining = available();
+        if (remaining <= 0) return -1;
+        int count = Math.min(len, remaining);
+
+        @Nullable ByteBuffer source = this.buffer;
+        if (source != null) {
+            source.get(b, off, count);
+        } else {
+            System.arraycopy(bytes, position, b, off, count);
+            position += count;
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        int count = (int) Math.max(0, Math.min(n, available()));
+        @Nullable ByteBuffer source = this.buffer;
+        if (source != null) {
+            source.position(source.position() + count);
+        } else {
+            position += count;
+        }
+        return count;
+    }
+
+    @Override
+    public int available() {
+        @Nullable ByteBuffer source = this.buffer;
+        return source != null ? source.remaining() : end - position;
+    }
+
+    @Override
+    public void close() {
+        reset(EMPTY, 0, 0);
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+/**
+ * Parses the value of the grpc-timeout header, {@code TimeoutValue TimeoutUnit} where the value is at most 8 digits
+ * and the unit is one of {@code H M S m u n}. Parsing does not allocate, as it runs for every request.
+ */
+final class GrpcTimeout {
+
+    /**
+     * Returned by {@link #parseNanos(CharSequence)} when the value is not a valid timeout.
+     */
+    static final long INVALID = -1;
+
+    private static final int MAX_DIGITS = 8;
+
+    private GrpcTimeout() {
+    }
+
+    /**
+     * @param value grpc-timeout header value
+     * @return timeout in nanoseconds, saturated at {@link Long#MAX_VALUE}, or {@link #INVALID}
+     */
+    static long parseNanos(CharSequence value) {
+        int length = value.length();
+        if (length < 2 || length > MAX_DIGITS + 1) {
+            return INVALID;
+        }
+        long amount = 0;
+        for (int i = 0; i < length - 1; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return INVALID;
+            }
+            amount = amount * 10 + (c - '0');
+        }
+        return switch (value.charAt(length - 1)) {
+            case 'H' -> multiply(amount, 3_600_000_000_000L);
+            case 'M' -> multiply(amount, 60_000_000_000L);
+            case 'S' -> multiply(amount, 1_000_000_000L);
+            case 'm' -> multiply(amount, 1_000_000L);
+            case 'u' -> multiply(amount, 1_000L);
+            case 'n' -> amount;
+            default -> INVALID;
+        };
+    }
+
+    private static long multiply(long amount, long nanosPerUnit) {
+        return amount > Long.MAX_VALUE / nanosPerUnit ? Long.MAX_VALUE : amount * nanosPerUnit;
+    }
+}
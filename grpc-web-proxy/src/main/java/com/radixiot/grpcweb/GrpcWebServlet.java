@@ -50,20 +50,22 @@ public class GrpcWebServlet extends HttpServlet {
 
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response) {
+        // start async before handling the request so that the request body can be read without blocking
+        @Nullable AsyncContext context = request.isAsyncSupported() ? request.startAsync() : null;
         @Nullable CompletableFuture<@Nullable Void> future = null;
         try {
-            future = requestHandler.handle(request, response);
-            if (request.isAsyncSupported()) {
-                AsyncContext context = request.startAsync();
+            if (context != null) {
                 context.setTimeout(0);
-                context.addListener(new FutureCancellingListener(future));
+                future = requestHandler.handle(request, response);
                 future.whenComplete((result, error) -> {
                     if (error != null) {
                         logError(error);
                     }
                     context.complete();
                 });
+                context.addListener(new FutureCancellingListener(future));
             } else {
+                future = requestHandler.handle(request, response);
                 future.get();
             }
         } catch (ExecutionException e) {
@@ -77,6 +79,9 @@ public class GrpcWebServlet extends HttpServlet {
                 Thread.currentThread().interrupt();
             }
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            if (context != null && future == null) {
+                context.complete();
+            }
         }
     }
 
@@ -21,7 +21,7 @@ import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Locale;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
@@ -34,9 +34,11 @@ import io.grpc.Metadata;
 public interface HeaderConverter {
 
     /**
-     * Regex pattern used to extract the timeout from the grpc-timeout header. The gRPC specification says it must be
-     * max 8 digits.
+     * Regex pattern matching valid grpc-timeout header values. The gRPC specification says it must be max 8 digits.
+     *
+     * @deprecated the header is no longer parsed using a regex, see {@link #parseTimeoutNanos(String)}
      */
+    @Deprecated
     Pattern TIMEOUT_PATTERN = Pattern.compile("(\\d{1,8})([HMSmun])");
 
     /**
@@ -77,28 +79,63 @@ public interface HeaderConverter {
         return toMetadata(stream);
     }
 
+    /**
+     * Converts the request headers which are forwarded by the policy.
+     *
+     * @param req HTTP request
+     * @param policy decides which headers are forwarded and limits their total size
+     * @return metadata for the call to the server
+     * @throws io.grpc.StatusRuntimeException if the headers exceed the policy's size limit and oversized requests are
+     *                                        rejected
+     */
+    default Metadata toMetadata(HttpServletRequest req, HeaderForwardingPolicy policy) {
+        return policy.apply(toMetadata(req));
+    }
+
     Metadata toMetadata(Stream<Header> headers);
 
     Stream<Header> toHeaders(Metadata metadata);
 
+    /**
+     * Passes each header which should be sent to the client to the action. Override to avoid creating a stream of
+     * {@link Header} records for every response.
+     *
+     * @param metadata response headers or trailers
+     * @param action accepts the header name and value
+     */
+    default void forEachHeader(Metadata metadata, BiConsumer<String, String> action) {
+        toHeaders(metadata).forEach(header -> action.accept(header.name(), header.value()));
+    }
+
+    /**
+     * Parses the grpc-timeout header.
+     *
+     * @param timeout grpc-timeout header value
+     * @return the timeout, at most {@link Long#MAX_VALUE} nanoseconds
+     * @throws IllegalArgumentException if the value is not a valid timeout
+     * @deprecated the {@link RequestHandler} calls {@link #parseTimeoutNanos(String)}, which this method wraps.
+     * Overriding this method does not change the deadline of proxied calls, override or call
+     * {@link #parseTimeoutNanos(String)} instead.
+     */
+    @Deprecated
     default Duration parseTimeout(String timeout) {
-        var matcher = TIMEOUT_PATTERN.matcher(timeout);
-        if (!matcher.matches()) {
-            throw new IllegalArgumentException();
-        }
+        return Duration.ofNanos(parseTimeoutNanos(timeout));
+    }
 
-        int timeoutValue = Integer.parseInt(matcher.group(1));
-        TimeUnit timeoutUnit = switch (matcher.group(2)) {
-            case "H" -> TimeUnit.HOURS;
-            case "M" -> TimeUnit.MINUTES;
-            case "S" -> TimeUnit.SECONDS;
-            case "m" -> TimeUnit.MINUTES;
-            case "u" -> TimeUnit.MICROSECONDS;
-            case "n" -> TimeUnit.NANOSECONDS;
-            default -> throw new IllegalArgumentException();
-        };
-
-        return Duration.of(timeoutValue, timeoutUnit.toChronoUnit());
+    /**
+     * Parses the grpc-timeout header without allocating, the {@link RequestHandler} calls this method for every
+     * request which sends the header.
+     *
+     * @param timeout grpc-timeout header value
+     * @return the timeout in nanoseconds, saturated at {@link Long#MAX_VALUE}
+     * @throws IllegalArgumentException if the value is not a valid timeout
+     */
+    default long parseTimeoutNanos(String timeout) {
+        long nanos = GrpcTimeout.parseNanos(timeout);
+        if (nanos == GrpcTimeout.INVALID) {
+            throw new IllegalArgumentException("Invalid timeout: " + timeout);
+        }
+        return nanos;
     }
 
 }
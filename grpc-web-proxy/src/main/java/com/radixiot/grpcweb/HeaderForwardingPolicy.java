@@ -0,0 +1,258 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+/**
+ * Decides which HTTP request headers are forwarded to the server as call metadata, in addition to the
+ * {@link HeaderConverter#stripHttpHeaders()} which are never forwarded. Browsers send many headers (cookies,
+ * user-agent, sec-*, CDN headers) which the server does not need, and which cost HPACK table space and parsing time
+ * on every call.
+ * <p>
+ * Header name patterns are matched case-insensitively and are either an exact name, or a prefix followed by
+ * {@code *}, e.g. {@code x-b3-*}. When any allowed patterns are configured only matching headers are forwarded, denied
+ * patterns take precedence over allowed patterns.
+ */
+public final class HeaderForwardingPolicy {
+
+    /**
+     * Size added to each header when computing the metadata size, the same overhead as a HPACK table entry.
+     */
+    static final int ENTRY_OVERHEAD = 32;
+
+    private static final HeaderForwardingPolicy FORWARD_ALL = builder().build();
+
+    /**
+     * Action taken when the forwarded headers exceed the maximum metadata size.
+     */
+    public enum OversizedAction {
+        /**
+         * Fails the call with {@link Status.Code#RESOURCE_EXHAUSTED} before it is started.
+         */
+        REJECT,
+        /**
+         * Drops headers which do not fit within the maximum size.
+         */
+        TRIM
+    }
+
+    private final Matcher allowed;
+    private final Matcher denied;
+    private final int maxMetadataSize;
+    private final OversizedAction oversizedAction;
+
+    private HeaderForwardingPolicy(Builder builder) {
+        this.allowed = new Matcher(builder.allowed);
+        this.denied = new Matcher(builder.denied);
+        this.maxMetadataSize = builder.maxMetadataSize;
+        this.oversizedAction = builder.oversizedAction;
+    }
+
+    /**
+     * @return a policy which forwards all headers, regardless of their size
+     */
+    public static HeaderForwardingPolicy forwardAll() {
+        return FORWARD_ALL;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param name lower case header name
+     * @return true if the header should be forwarded
+     */
+    boolean forwards(String name) {
+        return (allowed.isEmpty() || allowed.matches(name)) && !denied.matches(name);
+    }
+
+    /**
+     * @return maximum total size of the forwarded headers, see {@link #entrySize(String, String)}
+     */
+    int maxMetadataSize() {
+        return maxMetadataSize;
+    }
+
+    /**
+     * Called when a header does not fit within the maximum metadata size.
+     *
+     * @throws StatusRuntimeException if oversized requests are rejected
+     */
+    void oversized() {
+        if (oversizedAction == OversizedAction.REJECT) {
+            throw Status.RESOURCE_EXHAUSTED.withDescription("Request metadata size exceeds limit")
+                    .asRuntimeException();
+        }
+    }
+
+    static int entrySize(String name, String value) {
+        return name.length() + value.length() + ENTRY_OVERHEAD;
+    }
+
+    /**
+     * Applies the policy to headers which have already been converted.
+     *
+     * @return the headers which are forwarded
+     */
+    Metadata apply(Metadata metadata) {
+        if (this == FORWARD_ALL) {
+            return metadata;
+        }
+        Metadata forwarded = new Metadata();
+        int remaining = maxMetadataSize;
+        for (String name : metadata.keys()) {
+            if (!forwards(name)) continue;
+            if (name.endsWith(Metadata.BINARY_HEADER_SUFFIX)) {
+                Metadata.Key<byte[]> key = Metadata.Key.of(name, Metadata.BINARY_BYTE_MARSHALLER);
+                @Nullable Iterable<byte[]> values = metadata.getAll(key);
+                if (values == null) continue;
+                for (byte[] value : values) {
+                    // binary values are sent base64 encoded
+                    int size = name.length() + (value.length + 2) / 3 * 4 + ENTRY_OVERHEAD;
+                    if (size > remaining) {
+                        oversized();
+                        continue;
+                    }
+                    remaining -= size;
+                    forwarded.put(key, value);
+                }
+            } else {
+                Metadata.Key<String> key = Metadata.Key.of(name, Metadata.ASCII_STRING_MARSHALLER);
+                @Nullable Iterable<String> values = metadata.getAll(key);
+                if (values == null) continue;
+                for (String value : values) {
+                    int size = entrySize(name, value);
+                    if (size > remaining) {
+                        oversized();
+                        continue;
+                    }
+                    remaining -= size;
+                    forwarded.put(key, value);
+                }
+            }
+        }
+        return forwarded;
+    }
+
+    /**
+     * Header name patterns, compiled into a set of exact names and an array of prefixes.
+     */
+    private static final class Matcher {
+        private final Set<String> names;
+        private final String[] prefixes;
+
+        private Matcher(List<String> patterns) {
+            Set<String> names = new HashSet<>();
+            List<String> prefixes = new ArrayList<>();
+            for (String pattern : patterns) {
+                String lowerCase = pattern.toLowerCase(Locale.ROOT);
+                if (lowerCase.endsWith("*")) {
+                    prefixes.add(lowerCase.substring(0, lowerCase.length() - 1));
+                } else {
+                    names.add(lowerCase);
+                }
+            }
+            this.names = Set.copyOf(names);
+            this.prefixes = prefixes.toArray(String[]::new);
+        }
+
+        private boolean isEmpty() {
+            return names.isEmpty() && prefixes.length == 0;
+        }
+
+        private boolean matches(String name) {
+            if (names.contains(name)) {
+                return true;
+            }
+            for (String prefix : prefixes) {
+                if (name.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    public static final class Builder {
+        private final List<String> allowed = new ArrayList<>();
+        private final List<String> denied = new ArrayList<>();
+        private int maxMetadataSize = Integer.MAX_VALUE;
+        private OversizedAction oversizedAction = OversizedAction.REJECT;
+
+        private Builder() {
+        }
+
+        /**
+         * @param patterns header names, or prefixes followed by {@code *}, which are forwarded
+         * @return this builder
+         */
+        public Builder addAllowed(String... patterns) {
+            this.allowed.addAll(List.of(patterns));
+            return this;
+        }
+
+        /**
+         * @param patterns header names, or prefixes followed by {@code *}, which are never forwarded
+         * @return this builder
+         */
+        public Builder addDenied(String... patterns) {
+            this.denied.addAll(List.of(patterns));
+            return this;
+        }
+
+        /**
+         * Limits the total size of the forwarded headers. Each header counts as the length of its name and value
+         * plus 32 bytes. Unlimited by default.
+         *
+         * @param maxMetadataSize maximum size in bytes
+         * @return this builder
+         */
+        public Builder setMaxMetadataSize(int maxMetadataSize) {
+            if (maxMetadataSize < 0) {
+                throw new IllegalArgumentException("Invalid maximum metadata size: " + maxMetadataSize);
+            }
+            this.maxMetadataSize = maxMetadataSize;
+            return this;
+        }
+
+        /**
+         * @param oversizedAction action taken when the headers exceed the maximum size, defaults to
+         *                        {@link OversizedAction#REJECT}
+         * @return this builder
+         */
+        public Builder setOversizedAction(OversizedAction oversizedAction) {
+            this.oversizedAction = oversizedAction;
+            return this;
+        }
+
+        public HeaderForwardingPolicy build() {
+            return new HeaderForwardingPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.grpc.ForwardingServerCall.SimpleForwardingServerCall;
+import io.grpc.ForwardingServerCallListener.SimpleForwardingServerCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallExecutorSupplier;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+
+/**
+ * Runs calls to an in-process server on the thread which forwards them, for services which are co-located with the
+ * proxy. Both the channel and the server use a direct executor, so a unary call is read, handled and written without
+ * handing off to another thread.
+ * <p>
+ * A service which blocks would then block the thread reading the HTTP request. Methods of services registered as
+ * blocking, and methods which are detected to block for longer than the blocking threshold, are instead handed off to
+ * the offload executor. Detection measures the time spent in the service's call handler and listener, excluding the
+ * time spent sending responses, which are written to the HTTP response inline and so depend on the client. Once a
+ * method has been detected as blocking later calls to it are offloaded, until the reprobe interval has passed and a
+ * call is run on the calling thread again to check whether the method still blocks.
+ * <p>
+ * Usage:
+ * <pre>{@code
+ * InProcessFastPath fastPath = InProcessFastPath.builder(offloadExecutor).build();
+ * Server server = fastPath.configure(InProcessServerBuilder.forName(DefaultChannelManager.DEFAULT_CHANNEL_NAME))
+ *         .addService(service)
+ *         .build()
+ *         .start();
+ * RequestHandler handler = RequestHandler.builder()
+ *         .setChannelManager(fastPath.channelManager(DefaultChannelManager.DEFAULT_CHANNEL_NAME))
+ *         .build();
+ * }</pre>
+ */
+public final class InProcessFastPath {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final Executor offloadExecutor;
+    private final Set<String> blockingServices;
+    private final Set<String> blockingMethods;
+    private final long blockingThresholdNanos;
+    private final long reprobeIntervalNanos;
+    /**
+     * Methods detected as blocking, and the time they were detected.
+     */
+    private final Map<String, Long> detectedMethods = new ConcurrentHashMap<>();
+
+    private InProcessFastPath(Builder builder) {
+        this.offloadExecutor = builder.offloadExecutor;
+        this.blockingServices = Set.copyOf(builder.blockingServices);
+        this.blockingMethods = Set.copyOf(builder.blockingMethods);
+        this.blockingThresholdNanos = builder.blockingThreshold != null ? builder.blockingThreshold.toNanos() : 0;
+        this.reprobeIntervalNanos = builder.reprobeInterval != null ? builder.reprobeInterval.toNanos() : 0;
+    }
+
+    /**
+     * @param offloadExecutor runs calls to blocking methods
+     * @return a new builder
+     */
+    public static Builder builder(Executor offloadExecutor) {
+        return new Builder(offloadExecutor);
+    }
+
+    /**
+     * Configures the server to run calls on the thread which started them, apart from blocking methods.
+     *
+     * @param serverBuilder builder for the in-process server
+     * @return the server builder
+     */
+    public InProcessServerBuilder configure(InProcessServerBuilder serverBuilder) {
+        serverBuilder.directExecutor()
+                .callExecutor(new OffloadingExecutorSupplier());
+        if (blockingThresholdNanos > 0) {
+            serverBuilder.intercept(new BlockingDetector());
+        }
+        return serverBuilder;
+    }
+
+    /**
+     * @param name name of the in-process server
+     * @return channel to the server which runs call listeners on the thread which completes the call
+     */
+    public ManagedChannel newChannel(String name) {
+        return InProcessChannelBuilder.forName(name)
+                .directExecutor()
+                .build();
+    }
+
+    /**
+     * @param name name of the in-process server
+     * @return channel manager for the server, using a channel from {@link #newChannel(String)}
+     */
+    public ChannelManager channelManager(String name) {
+        return new DefaultChannelManager(newChannel(name));
+    }
+
+    /**
+     * @return full names of the methods whose calls are handed off to the offload executor, those added to the
+     * builder and those detected as blocking
+     */
+    public Set<String> offloadedMethods() {
+        Set<String> methods = new HashSet<>(blockingMethods);
+        methods.addAll(detectedMethods.keySet());
+        return Set.copyOf(methods);
+    }
+
+    /**
+     * Runs calls to a method which was detected as blocking on the calling thread again, e.g. once the service has
+     * been fixed. Methods added to the builder are always offloaded.
+     *
+     * @param fullMethodName full method name, e.g. {@code package.Service/Method}
+     * @return true if the method had been detected as blocking
+     */
+    public boolean resetBlockingMethod(String fullMethodName) {
+        return detectedMethods.remove(fullMethodName) != null;
+    }
+
+    private boolean offloaded(String fullMethodName, @Nullable String serviceName) {
+        if (blockingMethods.contains(fullMethodName) || serviceName != null && blockingServices.contains(serviceName)) {
+            return true;
+        }
+        @Nullable Long detectedAt = detectedMethods.get(fullMethodName);
+        if (detectedAt == null) {
+            return false;
+        }
+        if (reprobeIntervalNanos > 0 && System.nanoTime() - detectedAt > reprobeIntervalNanos) {
+            // the next calls are run on the calling thread, and detect the method again if it still blocks
+            detectedMethods.remove(fullMethodName, detectedAt);
+            return false;
+        }
+        return true;
+    }
+
+    private class OffloadingExecutorSupplier implements ServerCallExecutorSupplier {
+        @Override
+        public <ReqT, RespT> @Nullable Executor getExecutor(ServerCall<ReqT, RespT> call, Metadata metadata) {
+            var method = call.getMethodDescriptor();
+            // null runs the call on the server's direct executor
+            return offloaded(method.getFullMethodName(), method.getServiceName()) ? offloadExecutor : null;
+        }
+    }
+
+    private class BlockingDetector implements ServerInterceptor {
+        @Override
+        public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                ServerCallHandler<ReqT, RespT> next) {
+            var method = call.getMethodDescriptor();
+            String fullMethodName = method.getFullMethodName();
+            if (offloaded(fullMethodName, method.getServiceName())) {
+                return next.startCall(call, headers);
+            }
+            var timedCall = new TimedCall<>(call, fullMethodName);
+            long start = timedCall.start();
+            ServerCall.Listener<ReqT> listener = next.startCall(timedCall, headers);
+            timedCall.check(start);
+            return new TimingListener<>(listener, timedCall);
+        }
+    }
+
+    /**
+     * Measures the time the service spends sending, with direct executors the response is written to the HTTP
+     * response before the send returns. That time depends on the client, so it is not counted towards the service.
+     */
+    private class TimedCall<ReqT, RespT> extends SimpleForwardingServerCall<ReqT, RespT> {
+        private final String fullMethodName;
+        private long sendingNanos;
+
+        private TimedCall(ServerCall<ReqT, RespT> delegate, String fullMethodName) {
+            super(delegate);
+            this.fullMethodName = fullMethodName;
+        }
+
+        private long start() {
+            this.sendingNanos = 0;
+            return System.nanoTime();
+        }
+
+        private void check(long start) {
+            long now = System.nanoTime();
+            long elapsed = now - start - sendingNanos;
+            if (elapsed > blockingThresholdNanos && detectedMethods.putIfAbsent(fullMethodName, now) == null) {
+                log.info("Method {} blocked for {}ms, later calls will be offloaded", fullMethodName,
+                        Duration.ofNanos(elapsed).toMillis());
+            }
+        }
+
+        @Override
+        public void sendHeaders(Metadata headers) {
+            long start = System.nanoTime();
+            try {
+                super.sendHeaders(headers);
+            } finally {
+                sendingNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public void sendMessage(RespT message) {
+            long start = System.nanoTime();
+            try {
+                super.sendMessage(message);
+            } finally {
+                sendingNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+            long start = System.nanoTime();
+            try {
+                super.close(status, trailers);
+            } finally {
+                sendingNanos += System.nanoTime() - start;
+            }
+        }
+    }
+
+    private static class TimingListener<ReqT> extends SimpleForwardingServerCallListener<ReqT> {
+        private final TimedCall<ReqT, ?> call;
+
+        private TimingListener(ServerCall.Listener<ReqT> delegate, TimedCall<ReqT, ?> call) {
+            super(delegate);
+            this.call = call;
+        }
+
+        @Override
+        public void onMessage(ReqT message) {
+            long start = call.start();
+            super.onMessage(message);
+            call.check(start);
+        }
+
+        @Override
+        public void onHalfClose() {
+            long start = call.start();
+            super.onHalfClose();
+            call.check(start);
+        }
+
+        @Override
+        public void onReady() {
+            long start = call.start();
+            super.onReady();
+            call.check(start);
+        }
+    }
+
+    public static final class Builder {
+        private final Executor offloadExecutor;
+        private final Set<String> blockingServices = new HashSet<>();
+        private final Set<String> blockingMethods = new HashSet<>();
+        private @Nullable Duration blockingThreshold = Duration.ofMillis(10);
+        private @Nullable Duration reprobeInterval = Duration.ofMinutes(1);
+
+        private Builder(Executor offloadExecutor) {
+            this.offloadExecutor = offloadExecutor;
+        }
+
+        /**
+         * @param serviceName full name of a service whose calls always run on the offload executor
+         * @return this builder
+         */
+        public Builder addBlockingService(String serviceName) {
+            this.blockingServices.add(serviceName);
+            return this;
+        }
+
+        /**
+         * @param fullMethodName full method name, e.g. {@code package.Service/Method}, of a method whose calls always
+         *                       run on the offload executor
+         * @return this builder
+         */
+        public Builder addBlockingMethod(String fullMethodName) {
+            this.blockingMethods.add(fullMethodName);
+            return this;
+        }
+
+        /**
+         * @param blockingThreshold methods which run for longer than this on the calling thread are offloaded, or
+         *                          null to disable detection. Defaults to 10ms.
+         * @return this builder
+         */
+        public Builder setBlockingThreshold(@Nullable Duration blockingThreshold) {
+            this.blockingThreshold = blockingThreshold;
+            return this;
+        }
+
+        /**
+         * @param reprobeInterval methods detected as blocking are run on the calling thread again after this time, to
+         *                        check whether they still block, or null to offload them until
+         *                        {@link InProcessFastPath#resetBlockingMethod(String)} is called. Defaults to 1 minute.
+         * @return this builder
+         */
+        public Builder setReprobeInterval(@Nullable Duration reprobeInterval) {
+            this.reprobeInterval = reprobeInterval;
+            return this;
+        }
+
+        public InProcessFastPath build() {
+            return new InProcessFastPath(this);
+        }
+    }
+}
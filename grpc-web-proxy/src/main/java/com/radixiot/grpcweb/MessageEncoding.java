@@ -0,0 +1,100 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.radixiot.grpcweb;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import io.grpc.Metadata;
+
+/**
+ * Message encodings (compression) supported for gRPC-Web frames, identified by the grpc-encoding and
+ * grpc-accept-encoding headers.
+ */
+enum MessageEncoding {
+    IDENTITY("identity"),
+    GZIP("gzip"),
+    DEFLATE("deflate");
+
+    static final Metadata.Key<String> GRPC_ENCODING =
+            Metadata.Key.of("grpc-encoding", Metadata.ASCII_STRING_MARSHALLER);
+    static final Metadata.Key<String> GRPC_ACCEPT_ENCODING =
+            Metadata.Key.of("grpc-accept-encoding", Metadata.ASCII_STRING_MARSHALLER);
+
+    /**
+     * Value for the grpc-accept-encoding header, listing all supported encodings.
+     */
+    static final String ACCEPT_ENCODING = "identity,gzip,deflate";
+
+    private final String headerValue;
+
+    MessageEncoding(String headerValue) {
+        this.headerValue = headerValue;
+    }
+
+    String headerValue() {
+        return headerValue;
+    }
+
+    /**
+     * @param headerValue value of the grpc-encoding header, or null if not present
+     * @return the encoding, or null if it is not supported
+     */
+    static @Nullable MessageEncoding forHeader(@Nullable String headerValue) {
+        if (headerValue == null) {
+            return IDENTITY;
+        }
+        for (MessageEncoding encoding : values()) {
+            if (encoding.headerValue.equalsIgnoreCase(headerValue.trim())) {
+                return encoding;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Selects the encoding for response frames, gzip is preferred over deflate when the client accepts both.
+     *
+     * @param acceptEncoding value of the grpc-accept-encoding header, a comma separated list, or null if not present
+     * @return the selected encoding, or identity if the client does not accept any supported compression
+     */
+    static MessageEncoding negotiate(@Nullable String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return IDENTITY;
+        }
+        MessageEncoding selected = IDENTITY;
+        int start = 0;
+        while (start < acceptEncoding.length()) {
+            int end = acceptEncoding.indexOf(',', start);
+            if (end < 0) {
+                end = acceptEncoding.length();
+            }
+            if (matches(acceptEncoding, start, end, GZIP)) {
+                return GZIP;
+            } else if (matches(acceptEncoding, start, end, DEFLATE)) {
+                selected = DEFLATE;
+            }
+            start = end + 1;
+        }
+        return selected;
+    }
+
+    private static boolean matches(String value, int start, int end, MessageEncoding encoding) {
+        while (start < end && value.charAt(start) == ' ') start++;
+        while (end > start && value.charAt(end - 1) == ' ') end--;
+        String name = encoding.headerValue;
+        return end - start == name.length() && value.regionMatches(true, start, name, 0, name.length());
+    }
+}
@@ -15,36 +15,71 @@
  */
 package com.radixiot.grpcweb;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.EnumSet;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Set;
+import java.util.concurrent.CompletionStage;
 
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import io.grpc.KnownLength;
 import io.grpc.Metadata;
 import io.grpc.MethodDescriptor.Marshaller;
 import io.grpc.Status;
 
 class MessageResponseWriter<R> implements ResponseWriter {
+    private static final Set<FrameFlag> COMPRESSED = Set.of(FrameFlag.COMPRESSED);
 
     private final ResponseWriter delegate;
     private final Marshaller<R> marshaller;
+    private final PooledOutputStream messageOutput;
+    private final @Nullable FrameCompressor compressor;
 
-    MessageResponseWriter(ResponseWriter delegate, Marshaller<R> marshaller) {
+    /**
+     * @param compressor compresses frames using the encoding negotiated with the client, or null for identity
+     */
+    MessageResponseWriter(ResponseWriter delegate, Marshaller<R> marshaller, BufferPool bufferPool,
+            @Nullable FrameCompressor compressor) {
         this.delegate = delegate;
         this.marshaller = marshaller;
+        this.messageOutput = new PooledOutputStream(bufferPool);
+        this.compressor = compressor;
     }
 
     void writeMessage(R message) throws IOException {
-        var outputStream = new ByteArrayOutputStream();
         try (var inputStream = marshaller.stream(message)) {
-            inputStream.transferTo(outputStream);
+            if (inputStream instanceof KnownLength) {
+                int length = inputStream.available();
+                if (compressor == null || !compressor.compresses(length)) {
+                    // the frame header can be written up front, serialize the message directly into the response
+                    delegate.writeFrame(Set.of(), inputStream, length);
+                    return;
+                }
+                // protobuf serializes directly into the pooled buffer when the whole message fits
+                messageOutput.reset(length).writeFrom(inputStream, length);
+            } else {
+                inputStream.transferTo(messageOutput.reset(0));
+            }
+        }
+        ByteBuffer frame = messageOutput.toBuffer();
+        @Nullable ByteBuffer compressed = compressor != null ? compressor.compress(frame) : null;
+        if (compressed != null) {
+            delegate.writeFrame(COMPRESSED, compressed);
+        } else {
+            delegate.writeFrame(Set.of(), frame);
         }
-        byte[] messageBytes = outputStream.toByteArray();
-        delegate.writeFrame(EnumSet.noneOf(FrameFlag.class), messageBytes);
     }
 
     @Override
     public void writeHeaders(Metadata headers) throws IOException {
+        // the encoding between the proxy and the server is independent of the encoding used for the client
+        headers.discardAll(MessageEncoding.GRPC_ENCODING);
+        headers.discardAll(MessageEncoding.GRPC_ACCEPT_ENCODING);
+        if (compressor != null) {
+            headers.put(MessageEncoding.GRPC_ENCODING, compressor.encoding().headerValue());
+        }
+        headers.put(MessageEncoding.GRPC_ACCEPT_ENCODING, MessageEncoding.ACCEPT_ENCODING);
         delegate.writeHeaders(headers);
     }
 
@@ -54,7 +89,26 @@ class MessageResponseWriter<R> implements ResponseWriter {
     }
 
     @Override
-    public void writeFrame(Set<FrameFlag> flags, byte[] frameBytes) throws IOException {
+    public void writeFrame(Set<FrameFlag> flags, ByteBuffer frameBytes) throws IOException {
         delegate.writeFrame(flags, frameBytes);
     }
+
+    @Override
+    public void writeFrame(Set<FrameFlag> flags, InputStream message, int length) throws IOException {
+        delegate.writeFrame(flags, message, length);
+    }
+
+    @Override
+    public CompletionStage<@Nullable Void> closed() {
+        return delegate.closed();
+    }
+
+    @Override
+    public void release() {
+        messageOutput.release();
+        if (compressor != null) {
+            compressor.release();
+        }
+        delegate.release();
+    }
 }
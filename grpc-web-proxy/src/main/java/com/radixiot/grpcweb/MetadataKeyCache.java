@@ -0,0 +1,197 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import io.grpc.Metadata;
+
+/**
+ * Caches validated {@link Metadata.Key} instances by header name, so that the name is not lower-cased and validated
+ * for every header of every call.
+ * <p>
+ * Keys for well known header names are created up front and are always cached. Keys for other names are cached up to
+ * a maximum size, when the cache is full the least recently used half is evicted. A client sending arbitrary header
+ * names therefore only displaces names which are not in use, rather than filling the cache for good.
+ */
+final class MetadataKeyCache {
+    static final int DEFAULT_MAX_SIZE = 1024;
+
+    /**
+     * Header names commonly sent by gRPC-Web clients, or returned by gRPC servers.
+     */
+    static final Set<String> KNOWN_NAMES = Set.of(
+            "accept-encoding",
+            "accept-language",
+            "authorization",
+            "cache-control",
+            "cookie",
+            "grpc-message",
+            "grpc-status",
+            "host",
+            "origin",
+            "pragma",
+            "referer",
+            "te",
+            "user-agent",
+            "x-forwarded-for",
+            "x-forwarded-host",
+            "x-forwarded-proto",
+            "x-request-id",
+            "x-user-agent"
+    );
+
+    static final Set<String> KNOWN_BINARY_NAMES = Set.of("grpc-status-details-bin");
+
+    private static final Map<String, Metadata.Key<String>> KNOWN_ASCII_KEYS =
+            knownKeys(KNOWN_NAMES, name -> Metadata.Key.of(name, Metadata.ASCII_STRING_MARSHALLER));
+    private static final Map<String, Metadata.Key<byte[]>> KNOWN_BINARY_KEYS =
+            knownKeys(KNOWN_BINARY_NAMES, name -> Metadata.Key.of(name, Metadata.BINARY_BYTE_MARSHALLER));
+
+    private final int maxSize;
+    private final ConcurrentHashMap<String, Entry<String>> asciiKeys = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Entry<byte[]>> binaryKeys = new ConcurrentHashMap<>();
+    /**
+     * Advanced on every cache miss, entries record the value when they were last used.
+     */
+    private final AtomicLong clock = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    MetadataKeyCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize maximum number of keys cached for each marshaller, in addition to the well known names
+     */
+    MetadataKeyCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Invalid maximum size: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return keys by lower case name, and by name with each word capitalized, as sent by HTTP/1.1 clients
+     */
+    private static <T> Map<String, Metadata.Key<T>> knownKeys(Set<String> names,
+            Function<String, Metadata.Key<T>> factory) {
+        Map<String, Metadata.Key<T>> keys = new HashMap<>();
+        for (String name : names) {
+            Metadata.Key<T> key = factory.apply(name);
+            keys.put(name, key);
+            char[] capitalized = name.toCharArray();
+            for (int i = 0; i < capitalized.length; i++) {
+                if (i == 0 || capitalized[i - 1] == '-') {
+                    capitalized[i] = Character.toUpperCase(capitalized[i]);
+                }
+            }
+            keys.put(new String(capitalized), key);
+        }
+        return Map.copyOf(keys);
+    }
+
+    /**
+     * @return true if the header name ends with the binary header suffix, ignoring case
+     */
+    static boolean isBinary(String name) {
+        int suffixLength = Metadata.BINARY_HEADER_SUFFIX.length();
+        return name.regionMatches(true, name.length() - suffixLength, Metadata.BINARY_HEADER_SUFFIX, 0, suffixLength);
+    }
+
+    Metadata.Key<String> asciiKey(String name) {
+        Metadata.@Nullable Key<String> known = KNOWN_ASCII_KEYS.get(name);
+        if (known != null) {
+            return known;
+        }
+        return get(asciiKeys, name, n -> Metadata.Key.of(n, Metadata.ASCII_STRING_MARSHALLER));
+    }
+
+    Metadata.Key<byte[]> binaryKey(String name) {
+        Metadata.@Nullable Key<byte[]> known = KNOWN_BINARY_KEYS.get(name);
+        if (known != null) {
+            return known;
+        }
+        // binary keys must end with a lower case suffix, HTTP/1.1 clients may send any case
+        return get(binaryKeys, name, n -> Metadata.Key.of(n.toLowerCase(Locale.ROOT), Metadata.BINARY_BYTE_MARSHALLER));
+    }
+
+    private <T> Metadata.Key<T> get(ConcurrentHashMap<String, Entry<T>> keys, String name,
+            Function<String, Metadata.Key<T>> factory) {
+        @Nullable Entry<T> entry = keys.get(name);
+        if (entry != null) {
+            long now = clock.get();
+            // the clock only advances on a miss, so hot keys are rarely written to
+            if (entry.lastUsed != now) {
+                entry.lastUsed = now;
+            }
+            return entry.key;
+        }
+
+        Metadata.Key<T> key = factory.apply(name);
+        long now = clock.incrementAndGet();
+        if (keys.size() >= maxSize) {
+            evict(keys);
+        }
+        if (keys.size() < maxSize) {
+            keys.putIfAbsent(name, new Entry<>(key, now));
+        }
+        return key;
+    }
+
+    /**
+     * Removes the least recently used half of the entries. Only one thread evicts at a time, other threads do not
+     * wait for it and do not cache their key.
+     */
+    private <T> void evict(ConcurrentHashMap<String, Entry<T>> keys) {
+        if (!evictionLock.tryLock()) return;
+        try {
+            long[] lastUsed = new long[keys.size()];
+            int count = 0;
+            for (Entry<T> entry : keys.values()) {
+                if (count == lastUsed.length) break;
+                lastUsed[count++] = entry.lastUsed;
+            }
+            if (count == 0) return;
+            Arrays.sort(lastUsed, 0, count);
+            long threshold = lastUsed[count / 2];
+            keys.values().removeIf(entry -> entry.lastUsed < threshold);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static final class Entry<T> {
+        private final Metadata.Key<T> key;
+        private volatile long lastUsed;
+
+        private Entry(Metadata.Key<T> key, long lastUsed) {
+            this.key = key;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
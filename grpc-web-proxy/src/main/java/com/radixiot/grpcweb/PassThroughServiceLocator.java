@@ -0,0 +1,74 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import io.grpc.MethodDescriptor;
+import io.grpc.ServiceDescriptor;
+
+/**
+ * Decorates a {@link ServiceLocator} so that located methods marshal their requests and responses as opaque byte
+ * arrays. Frames are then forwarded from the client to the server and back without being parsed and re-serialized,
+ * while the method type and name are still taken from the original descriptor.
+ */
+public class PassThroughServiceLocator implements ServiceLocator {
+
+    private final ServiceLocator delegate;
+    private final Map<String, ServiceDescriptor> services = new ConcurrentHashMap<>();
+    private final Map<String, MethodDescriptor<byte[], byte[]>> methods = new ConcurrentHashMap<>();
+
+    public PassThroughServiceLocator(ServiceLocator delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public ServiceDescriptor locate(String serviceName) {
+        @Nullable ServiceDescriptor service = services.get(serviceName);
+        if (service == null) {
+            service = passThrough(delegate.locate(serviceName));
+            services.put(serviceName, service);
+        }
+        return service;
+    }
+
+    @Override
+    public MethodDescriptor<?, ?> locateMethod(String fullMethodName) {
+        @Nullable MethodDescriptor<byte[], byte[]> method = methods.get(fullMethodName);
+        if (method == null) {
+            method = passThrough(delegate.locateMethod(fullMethodName));
+            methods.put(fullMethodName, method);
+        }
+        return method;
+    }
+
+    private ServiceDescriptor passThrough(ServiceDescriptor service) {
+        var builder = ServiceDescriptor.newBuilder(service.getName())
+                .setSchemaDescriptor(service.getSchemaDescriptor());
+        for (MethodDescriptor<?, ?> method : service.getMethods()) {
+            builder.addMethod(methods.computeIfAbsent(method.getFullMethodName(), name -> passThrough(method)));
+        }
+        return builder.build();
+    }
+
+    private static MethodDescriptor<byte[], byte[]> passThrough(MethodDescriptor<?, ?> method) {
+        return method.toBuilder(ByteArrayMarshaller.INSTANCE, ByteArrayMarshaller.INSTANCE).build();
+    }
+}
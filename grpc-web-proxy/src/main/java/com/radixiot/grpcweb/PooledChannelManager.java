@@ -0,0 +1,317 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Function;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+/**
+ * Routes services to remote targets, holding several channels for each target. A single HTTP/2 connection limits the
+ * number of concurrent streams and shares one flow control window, so calls are striped across the target's channels
+ * either round-robin or to the channel with the fewest outstanding calls.
+ * <p>
+ * Channels are created and optionally connected when the manager is built, and are closed by {@link #shutdown()}.
+ */
+public class PooledChannelManager implements ChannelManager {
+
+    /**
+     * How a call chooses between the channels of a target.
+     */
+    public enum Strategy {
+        ROUND_ROBIN,
+        /**
+         * Chooses the channel with the fewest calls which have started but not closed, ties are broken round-robin.
+         */
+        LEAST_OUTSTANDING
+    }
+
+    private final Map<String, ChannelPool> pools;
+    private final Map<String, ChannelPool> services;
+    private final @Nullable ChannelPool defaultPool;
+
+    private PooledChannelManager(Builder builder) {
+        Map<String, ChannelPool> pools = new LinkedHashMap<>();
+        Map<String, ChannelPool> services = new HashMap<>();
+        for (Map.Entry<String, String> entry : builder.serviceTargets.entrySet()) {
+            ChannelPool pool = pools.computeIfAbsent(entry.getValue(), target -> new ChannelPool(target, builder));
+            services.put(entry.getKey(), pool);
+        }
+        @Nullable String defaultTarget = builder.defaultTarget;
+        this.defaultPool = defaultTarget == null ? null :
+                pools.computeIfAbsent(defaultTarget, target -> new ChannelPool(target, builder));
+        this.pools = Map.copyOf(pools);
+        this.services = Map.copyOf(services);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public Channel getChannel(String serviceName, String methodName) {
+        @Nullable ChannelPool pool = services.get(serviceName);
+        if (pool == null) {
+            pool = defaultPool;
+        }
+        if (pool == null) {
+            throw Status.UNIMPLEMENTED.withDescription("No target for service").asRuntimeException();
+        }
+        return pool;
+    }
+
+    /**
+     * Initiates an orderly shutdown of all channels, calls which have already started are allowed to complete.
+     */
+    public void shutdown() {
+        for (ChannelPool pool : pools.values()) {
+            for (ManagedChannel channel : pool.channels) {
+                channel.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Shuts down all channels, cancelling calls which have already started.
+     */
+    public void shutdownNow() {
+        for (ChannelPool pool : pools.values()) {
+            for (ManagedChannel channel : pool.channels) {
+                channel.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * @param timeout maximum time to wait for all channels
+     * @return true if all channels have terminated
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        for (ChannelPool pool : pools.values()) {
+            for (ManagedChannel channel : pool.channels) {
+                if (!channel.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The channels for a single target, presented as one channel.
+     */
+    static class ChannelPool extends Channel {
+        private final ManagedChannel[] channels;
+        private final Strategy strategy;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicIntegerArray outstanding;
+
+        private ChannelPool(String target, Builder builder) {
+            this.channels = new ManagedChannel[builder.channelsPerTarget];
+            for (int i = 0; i < channels.length; i++) {
+                ManagedChannel channel = builder.channelFactory.apply(target);
+                if (builder.preConnect) {
+                    // starts connecting now, rather than when the first call is made
+                    channel.getState(true);
+                }
+                channels[i] = channel;
+            }
+            this.strategy = builder.strategy;
+            this.outstanding = new AtomicIntegerArray(channels.length);
+        }
+
+        @Override
+        public <T, R> ClientCall<T, R> newCall(MethodDescriptor<T, R> method, CallOptions callOptions) {
+            if (strategy == Strategy.ROUND_ROBIN) {
+                return channels[nextIndex()].newCall(method, callOptions);
+            }
+            int index = leastOutstanding();
+            return new CountingCall<>(channels[index].newCall(method, callOptions), index);
+        }
+
+        @Override
+        public String authority() {
+            return channels[0].authority();
+        }
+
+        ManagedChannel channel(int index) {
+            return channels[index];
+        }
+
+        int nextIndex() {
+            return Math.floorMod(next.getAndIncrement(), channels.length);
+        }
+
+        int leastOutstanding() {
+            int start = nextIndex();
+            int best = start;
+            int bestCount = outstanding.get(start);
+            for (int i = 1; i < channels.length && bestCount > 0; i++) {
+                int index = (start + i) % channels.length;
+                int count = outstanding.get(index);
+                if (count < bestCount) {
+                    best = index;
+                    bestCount = count;
+                }
+            }
+            return best;
+        }
+
+        int outstanding(int index) {
+            return outstanding.get(index);
+        }
+
+        /**
+         * Counts the call as outstanding from when it is started until it closes.
+         */
+        private class CountingCall<T, R> extends SimpleForwardingClientCall<T, R> {
+            private final int index;
+            private final AtomicBoolean finished = new AtomicBoolean();
+
+            private CountingCall(ClientCall<T, R> delegate, int index) {
+                super(delegate);
+                this.index = index;
+            }
+
+            @Override
+            public void start(Listener<R> responseListener, Metadata headers) {
+                outstanding.incrementAndGet(index);
+                try {
+                    super.start(new SimpleForwardingClientCallListener<>(responseListener) {
+                        @Override
+                        public void onClose(Status status, Metadata trailers) {
+                            finish();
+                            super.onClose(status, trailers);
+                        }
+                    }, headers);
+                } catch (RuntimeException e) {
+                    finish();
+                    throw e;
+                }
+            }
+
+            private void finish() {
+                if (finished.compareAndSet(false, true)) {
+                    outstanding.decrementAndGet(index);
+                }
+            }
+        }
+    }
+
+    public static final class Builder {
+        private final Map<String, String> serviceTargets = new HashMap<>();
+        private @Nullable String defaultTarget;
+        private int channelsPerTarget = 4;
+        private Strategy strategy = Strategy.ROUND_ROBIN;
+        private boolean preConnect = true;
+        private Function<String, ManagedChannel> channelFactory = target -> ManagedChannelBuilder.forTarget(target)
+                .build();
+
+        private Builder() {
+        }
+
+        /**
+         * @param target target passed to the channel factory, e.g. {@code dns:///backend:443}
+         * @param serviceNames fully qualified names of the services which are routed to the target
+         * @return this builder
+         */
+        public Builder addTarget(String target, String... serviceNames) {
+            for (String serviceName : serviceNames) {
+                serviceTargets.put(serviceName, target);
+            }
+            return this;
+        }
+
+        /**
+         * @param defaultTarget target for services which have not been added, by default these are rejected with
+         *                      {@link Status.Code#UNIMPLEMENTED}
+         * @return this builder
+         */
+        public Builder setDefaultTarget(String defaultTarget) {
+            this.defaultTarget = defaultTarget;
+            return this;
+        }
+
+        /**
+         * @param channelsPerTarget number of channels, and hence connections, for each target. Defaults to 4.
+         * @return this builder
+         */
+        public Builder setChannelsPerTarget(int channelsPerTarget) {
+            if (channelsPerTarget < 1) {
+                throw new IllegalArgumentException("Invalid number of channels: " + channelsPerTarget);
+            }
+            this.channelsPerTarget = channelsPerTarget;
+            return this;
+        }
+
+        /**
+         * @param strategy how calls are striped across a target's channels, defaults to
+         *                 {@link Strategy#ROUND_ROBIN}
+         * @return this builder
+         */
+        public Builder setStrategy(Strategy strategy) {
+            this.strategy = strategy;
+            return this;
+        }
+
+        /**
+         * @param preConnect true to start connecting each channel when the manager is built, enabled by default
+         * @return this builder
+         */
+        public Builder setPreConnect(boolean preConnect) {
+            this.preConnect = preConnect;
+            return this;
+        }
+
+        /**
+         * Creates the channels for a target. By default {@link ManagedChannelBuilder#forTarget(String)} is used with
+         * its default settings (TLS), which requires a transport such as grpc-netty on the classpath.
+         *
+         * @param channelFactory creates a new channel for the target, it is called once per channel
+         * @return this builder
+         */
+        public Builder setChannelFactory(Function<String, ManagedChannel> channelFactory) {
+            this.channelFactory = channelFactory;
+            return this;
+        }
+
+        public PooledChannelManager build() {
+            return new PooledChannelManager(this);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Output stream which writes into a buffer leased from a {@link BufferPool}, growing it as required. The buffer is
+ * kept between uses and is only returned to the pool by {@link #release()}.
+ */
+class PooledOutputStream extends OutputStream {
+    private static final int MIN_CAPACITY = 256;
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    private final BufferPool bufferPool;
+    private @Nullable ByteBuffer buffer;
+
+    PooledOutputStream(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Discards any written bytes and ensures there is room for the expected number of bytes.
+     *
+     * @param expectedSize number of bytes expected to be written
+     * @return this stream
+     */
+    PooledOutputStream reset(int expectedSize) {
+        if (buffer != null) {
+            buffer.clear();
+        }
+        ensureRemaining(expectedSize);
+        return this;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureRemaining(1).put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureRemaining(len).put(b, off, len);
+    }
+
+    /**
+     * Reads exactly {@code length} bytes from the input stream into the buffer. For heap buffers the bytes are read
+     * directly into the backing array.
+     */
+    void writeFrom(InputStream inputStream, int length) throws IOException {
+        ByteBuffer target = ensureRemaining(length);
+        if (target.hasArray()) {
+            int position = target.position();
+            int end = position + length;
+            while (position < end) {
+                int count = inputStream.read(target.array(), target.arrayOffset() + position, end - position);
+                if (count == -1) {
+                    throw new IOException("Stream ended before " + length + " bytes were read");
+                }
+                position += count;
+            }
+            target.position(end);
+        } else {
+            byte[] copyBuffer = new byte[Math.min(length, COPY_BUFFER_SIZE)];
+            int remaining = length;
+            while (remaining > 0) {
+                int count = inputStream.read(copyBuffer, 0, Math.min(remaining, copyBuffer.length));
+                if (count == -1) {
+                    throw new IOException("Stream ended before " + length + " bytes were read");
+                }
+                target.put(copyBuffer, 0, count);
+                remaining -= count;
+            }
+        }
+    }
+
+    /**
+     * @return number of bytes written since the last reset
+     */
+    int size() {
+        return buffer == null ? 0 : buffer.position();
+    }
+
+    /**
+     * @return a view of the bytes written since the last reset
+     */
+    ByteBuffer toBuffer() {
+        return buffer == null ? ByteBuffer.allocate(0) : buffer.duplicate().flip();
+    }
+
+    /**
+     * Transfers ownership of the buffer to the caller, who is responsible for returning it to the pool. The stream
+     * acquires a new buffer when it is next written to.
+     *
+     * @return the bytes written since the last reset
+     */
+    ByteBuffer detach() {
+        @Nullable ByteBuffer detached = this.buffer;
+        this.buffer = null;
+        return detached == null ? ByteBuffer.allocate(0) : detached.flip();
+    }
+
+    /**
+     * Returns the buffer to the pool, the stream may be used again afterward.
+     */
+    void release() {
+        @Nullable ByteBuffer released = this.buffer;
+        this.buffer = null;
+        if (released != null) {
+            bufferPool.release(released);
+        }
+    }
+
+    /**
+     * Grows the buffer if required, so that the caller can write directly into it.
+     *
+     * @param length number of bytes which will be written
+     * @return the buffer, positioned after the bytes written since the last reset
+     */
+    ByteBuffer ensureRemaining(int length) {
+        @Nullable ByteBuffer current = this.buffer;
+        if (current != null && current.remaining() >= length) {
+            return current;
+        }
+
+        int size = current == null ? 0 : current.position();
+        int required = Math.max(size + length, MIN_CAPACITY);
+        int capacity = current == null ? required : Math.max(required, current.capacity() * 2);
+        ByteBuffer replacement = bufferPool.acquire(capacity);
+        if (current != null) {
+            replacement.put(current.flip());
+            bufferPool.release(current);
+        }
+        this.buffer = replacement;
+        return replacement;
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer to an output stream, without modifying the buffer's position.
+     */
+    static void writeTo(ByteBuffer buffer, OutputStream outputStream) throws IOException {
+        if (buffer.hasArray()) {
+            outputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            ByteBuffer source = buffer.duplicate();
+            byte[] copyBuffer = new byte[Math.min(source.remaining(), COPY_BUFFER_SIZE)];
+            while (source.hasRemaining()) {
+                int count = Math.min(source.remaining(), copyBuffer.length);
+                source.get(copyBuffer, 0, count);
+                outputStream.write(copyBuffer, 0, count);
+            }
+        }
+    }
+}
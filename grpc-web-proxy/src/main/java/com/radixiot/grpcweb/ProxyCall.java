@@ -0,0 +1,373 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+/**
+ * State of a single proxied call. Forwards request messages decoded from the HTTP request to the {@link ClientCall}
+ * and writes the response headers, messages and trailers to the HTTP response.
+ *
+ * <p>The call is started directly on the backend channel with the deadline and headers of the HTTP request, rather
+ * than through a chain of client interceptors, so that a call needs only this object and its response listener.</p>
+ *
+ * <p>When the client sends a single message the call is started once the whole request has been read. Otherwise the
+ * call is started when the first message arrives and each message is sent as soon as it has been decoded, honouring
+ * the call's flow control.</p>
+ */
+final class ProxyCall<T, R> implements FrameDecoder.Listener<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(ProxyCall.class);
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<ProxyCall, ConcurrencyLimiter> LIMITER =
+            AtomicReferenceFieldUpdater.newUpdater(ProxyCall.class, ConcurrencyLimiter.class, "limiter");
+
+    private final Channel channel;
+    private final MethodDescriptor<T, R> method;
+    private final CallOptions callOptions;
+    private final Metadata headers;
+    private final DefaultResponseWriter writer;
+    private final MessageResponseWriter<R> messageWriter;
+    private final @Nullable AdaptiveConcurrencyLimit concurrencyLimit;
+    private final CallFuture future = new CallFuture();
+    private final ResponseListener listener = new ResponseListener();
+    /**
+     * Orders sending against cancellation. With a direct executor sending may run the server and write the response
+     * inline.
+     */
+    private final ReentrantLock sendLock = new ReentrantLock();
+    private volatile @Nullable ClientCall<T, R> call;
+    private @Nullable T requestMessage;
+    private volatile @Nullable Runnable onReadyHandler;
+    private volatile boolean closed = false;
+    private boolean cancelled = false;
+    /**
+     * Set while the call holds a slot of the limiter, cleared with {@link #LIMITER} so that the slot is released exactly
+     * once.
+     */
+    private volatile @Nullable ConcurrencyLimiter limiter;
+    private volatile boolean halfClosed = false;
+    private volatile long halfClosedNanos;
+    /**
+     * Time from half-close until the first response message or close, or -1 if not known. Excludes the time the
+     * client spends uploading a stream or downloading the response, so that slow clients do not lower the limit.
+     */
+    private long rttNanos = -1;
+
+    /**
+     * @param headers headers forwarded to the backend
+     * @param messageWriter writes response messages to the HTTP response via the writer
+     * @param concurrencyLimit limits the calls in flight to the backend, or null if the call is not limited
+     */
+    ProxyCall(Channel channel, MethodDescriptor<T, R> method, CallOptions callOptions, Metadata headers,
+            DefaultResponseWriter writer, MessageResponseWriter<R> messageWriter,
+            @Nullable AdaptiveConcurrencyLimit concurrencyLimit) {
+        this.channel = channel;
+        this.method = method;
+        this.callOptions = callOptions;
+        this.headers = headers;
+        this.writer = writer;
+        this.messageWriter = messageWriter;
+        this.concurrencyLimit = concurrencyLimit;
+    }
+
+    /**
+     * Completes once the trailers have been written to the client. The servlet completes the HTTP request when it
+     * completes, completing it exceptionally cancels the call.
+     */
+    CompletableFuture<@Nullable Void> future() {
+        return future;
+    }
+
+    @Override
+    public void onMessage(T message) {
+        if (method.getType().clientSendsOneMessage()) {
+            if (requestMessage != null) {
+                throw unaryOnly();
+            }
+            this.requestMessage = message;
+        } else if (!closed) {
+            sendMessage(startCall(message), message);
+        }
+    }
+
+    @Override
+    public void onEndOfStream() {
+        if (method.getType().clientSendsOneMessage()) {
+            @Nullable T message = requestMessage;
+            if (message == null) {
+                throw unaryOnly();
+            }
+            ClientCall<T, R> call = startCall(message);
+            sendMessage(call, message);
+            halfClose(call);
+        } else {
+            // a client stream may not contain any messages, the call has not been started yet in that case
+            ClientCall<T, R> call = startCall(null);
+            if (!closed) {
+                halfClose(call);
+            }
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        @Nullable ClientCall<T, R> call = this.call;
+        // continue reading once the call has closed, the remaining messages are discarded
+        return call == null || closed || call.isReady();
+    }
+
+    @Override
+    public void setOnReadyHandler(Runnable handler) {
+        this.onReadyHandler = handler;
+    }
+
+    /**
+     * Writes the error to the client as trailers, if the call has not already written its own trailers. Called when
+     * the HTTP request can not be read or decoded.
+     */
+    void fail(Throwable error) {
+        if (future.isDone() || writer.trailersWritten()) {
+            // the call has already closed and written its trailers
+            return;
+        }
+        try {
+            RequestHandler.writeError(writer, error);
+        } catch (Exception e) {
+            log.debug("Error writing trailers to HTTP", e);
+            future.completeExceptionally(error);
+        } finally {
+            writer.release();
+        }
+        // cancels the call if it has been started, once the trailers have been sent
+        writer.closed().whenComplete((result, e) -> future.completeExceptionally(error));
+    }
+
+    /**
+     * @param firstMessage first request message, or null if the client sent none
+     */
+    private ClientCall<T, R> startCall(@Nullable T firstMessage) {
+        @Nullable ClientCall<T, R> call = this.call;
+        if (call == null) {
+            // a channel which routes between backends is asked for the backend, so that each backend has its own limit
+            Channel backend = channel instanceof RoutingChannel routing ?
+                    routing.route(headers, firstMessage) : channel;
+            @Nullable ConcurrencyLimiter limiter = concurrencyLimit != null ? concurrencyLimit.limiter(backend) : null;
+            if (limiter != null) {
+                if (!limiter.tryAcquire()) {
+                    throw limiter.rejected();
+                }
+                this.limiter = limiter;
+            }
+            try {
+                call = backend.newCall(method, callOptions);
+                call.start(listener, headers);
+            } catch (RuntimeException e) {
+                // e.g. the channel has been shut down, the call never reaches the server
+                if (limiter != null && LIMITER.compareAndSet(this, limiter, null)) {
+                    limiter.release();
+                }
+                throw e;
+            }
+            this.call = call;
+            call.request(1);
+            if (future.isCompletedExceptionally()) {
+                // the HTTP request failed before the call was started, the future could not cancel it
+                cancel("Cancelled", null);
+            }
+        }
+        return call;
+    }
+
+    // request messages of a client stream are sent from the thread reading the HTTP request, which may race with
+    // cancellation. Messages sent after the call was cancelled are discarded rather than failing the read. The call
+    // is cancelled outside the lock, with a direct executor cancelling runs the listener's onClose inline, which
+    // resumes reading and would otherwise deadlock with a thread sending a message.
+
+    private void sendMessage(ClientCall<T, R> call, T message) {
+        sendLock.lock();
+        try {
+            if (!cancelled) {
+                call.sendMessage(message);
+            }
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    private void halfClose(ClientCall<T, R> call) {
+        sendLock.lock();
+        try {
+            if (!cancelled) {
+                // taken first, with a direct executor the server may respond inline
+                this.halfClosedNanos = System.nanoTime();
+                this.halfClosed = true;
+                call.halfClose();
+            }
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    private void cancel(@Nullable String message, @Nullable Throwable cause) {
+        sendLock.lock();
+        try {
+            this.cancelled = true;
+        } finally {
+            sendLock.unlock();
+        }
+        @Nullable ClientCall<T, R> call = this.call;
+        if (call != null) {
+            call.cancel(message, cause);
+        }
+    }
+
+    private void requestNext() {
+        @Nullable ClientCall<T, R> call = this.call;
+        if (call != null) {
+            call.request(1);
+        }
+    }
+
+    /**
+     * Called from the response listener when the backend first responds.
+     */
+    private void sampleRtt() {
+        if (rttNanos < 0 && halfClosed) {
+            this.rttNanos = System.nanoTime() - halfClosedNanos;
+        }
+    }
+
+    private void notifyReady() {
+        @Nullable Runnable handler = this.onReadyHandler;
+        if (handler != null) {
+            handler.run();
+        }
+    }
+
+    private StatusRuntimeException unaryOnly() {
+        // zero requests, or multiple requests should return UNIMPLEMENTED
+        return Status.UNIMPLEMENTED.withDescription("Only unary requests are supported")
+                .asRuntimeException();
+    }
+
+    /**
+     * Cancels the outgoing call when the incoming HTTP request fails, e.g. the client closed the connection or a timeout
+     * occurred. Overriding completion avoids registering a dependent stage on every call.
+     */
+    private class CallFuture extends CompletableFuture<@Nullable Void> {
+        @Override
+        public boolean completeExceptionally(Throwable ex) {
+            boolean completed = super.completeExceptionally(ex);
+            if (completed) {
+                ProxyCall.this.cancel("Cancelled", ex);
+            }
+            return completed;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                ProxyCall.this.cancel("Cancelled", null);
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+     * Also requests the next response message when run, so that no separate task is allocated for each call.
+     */
+    private class ResponseListener extends ClientCall.Listener<R> implements Runnable {
+        @Override
+        public void run() {
+            requestNext();
+        }
+
+        @Override
+        public void onHeaders(Metadata headers) {
+            try {
+                messageWriter.writeHeaders(headers);
+            } catch (Exception e) {
+                log.debug("Error writing headers to HTTP", e);
+                cancel("Error writing headers to HTTP", e);
+            }
+        }
+
+        @Override
+        public void onMessage(R message) {
+            sampleRtt();
+            try {
+                messageWriter.writeMessage(message);
+            } catch (Exception e) {
+                log.debug("Error writing message to HTTP", e);
+                cancel("Error writing message to HTTP", e);
+            }
+            // only request the next message once the response can accept it so that a slow client applies
+            // backpressure
+            writer.whenReady(this);
+        }
+
+        @Override
+        public void onReady() {
+            notifyReady();
+        }
+
+        @Override
+        public void onClose(Status status, Metadata trailers) {
+            sampleRtt();
+            try {
+                messageWriter.writeTrailers(status, trailers);
+                // with non-blocking writes the trailers may still be queued, complete once they are sent
+                messageWriter.closed().whenComplete((result, error) -> {
+                    if (error != null) {
+                        future.completeExceptionally(error);
+                    } else if (status.isOk()) {
+                        future.complete(null);
+                    } else {
+                        future.completeExceptionally(status.asRuntimeException(trailers));
+                    }
+                });
+            } catch (Exception e) {
+                log.debug("Error writing trailers to HTTP", e);
+                future.completeExceptionally(e);
+            } finally {
+                @Nullable ConcurrencyLimiter limiter = LIMITER.getAndSet(ProxyCall.this, null);
+                if (limiter != null) {
+                    limiter.release(rttNanos, status.getCode());
+                }
+                messageWriter.release();
+                closed = true;
+                notifyReady();
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.io.IOException;
+
+/**
+ * Incrementally decodes the body of a gRPC-Web request. Chunks of the body are passed in as they are read from the
+ * HTTP request, they do not need to be aligned to frame boundaries.
+ */
+interface RequestDecoder {
+
+    /**
+     * @param bytes buffer containing part of the request body
+     * @param offset offset of the first byte to decode
+     * @param length number of bytes to decode
+     */
+    void decode(byte[] bytes, int offset, int length) throws IOException;
+
+    /**
+     * Called once the entire request body has been read.
+     */
+    void endOfStream() throws IOException;
+
+    /**
+     * Returns any buffers held by the decoder to their pool. Called once decoding has finished or failed.
+     */
+    void release();
+
+    /**
+     * @return true if the decoder can accept more of the request body, reading should be paused while this is false
+     */
+    default boolean isReady() {
+        return true;
+    }
+
+    /**
+     * Sets a handler which is invoked when the decoder becomes ready again after {@link #isReady()} returned false.
+     *
+     * @param handler resumes reading the request body
+     */
+    default void setOnReadyHandler(Runnable handler) {
+        // always ready
+    }
+
+}
@@ -16,12 +16,16 @@
 package com.radixiot.grpcweb;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.time.Duration;
-import java.util.Base64;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import jakarta.servlet.ServletInputStream;
 import jakarta.servlet.http.HttpServletRequest;
@@ -33,23 +37,43 @@ import org.slf4j.LoggerFactory;
 
 import io.grpc.CallOptions;
 import io.grpc.Channel;
-import io.grpc.ClientInterceptors;
 import io.grpc.Metadata;
 import io.grpc.MethodDescriptor;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
-import io.grpc.stub.ClientCalls;
-import io.grpc.stub.MetadataUtils;
-import io.grpc.stub.StreamObserver;
 
 public class RequestHandler {
 
+    /**
+     * Time allowed after the deadline of a call for its trailers to be written, before the async request times out.
+     */
+    private static final long ASYNC_TIMEOUT_GRACE_MILLIS = 5000;
+
     private final Logger log = LoggerFactory.getLogger(getClass());
     private final ChannelManager channelManager;
     private final ServiceLocator serviceLocator;
     private final ContentTypeLookup contentTypeLookup;
     private final HeaderConverter headerConverter;
     private final int maxFrameSize;
+    private final boolean nonBlockingRead;
+    private final boolean nonBlockingWrite;
+    private final BufferPool bufferPool;
+    private final int compressionThreshold;
+    private final int compressionLevel;
+    private final Map<String, Integer> methodCompressionLevels;
+    private final FlushPolicy flushPolicy;
+    private final Map<String, FlushPolicy> methodFlushPolicies;
+    private final HeaderForwardingPolicy headerForwardingPolicy;
+    private final Map<String, HeaderForwardingPolicy> methodHeaderForwardingPolicies;
+    private final DeadlinePolicy deadlinePolicy;
+    private final Map<String, DeadlinePolicy> methodDeadlinePolicies;
+    private final @Nullable ToLongFunction<HttpServletRequest> arrivalTime;
+    private final @Nullable AdaptiveConcurrencyLimit concurrencyLimit;
+    private final @Nullable ClientQuota clientQuota;
+    private final @Nullable Executor callExecutor;
+    private final ZipPool<Inflater> inflaterPool = ZipPool.inflaters();
+    private final ZipPool<Deflater> deflaterPool = ZipPool.deflaters();
+    private final Map<String, CallPlan> callPlans = new ConcurrentHashMap<>();
 
     public static RequestHandlerBuilder builder() {
         return new RequestHandlerBuilder();
@@ -59,34 +83,77 @@ public class RequestHandler {
             ServiceLocator serviceLocator,
             ContentTypeLookup contentTypeLookup,
             HeaderConverter headerConverter,
-            int maxFrameSize) {
+            int maxFrameSize,
+            boolean nonBlockingRead,
+            boolean nonBlockingWrite,
+            BufferPool bufferPool,
+            int compressionThreshold,
+            int compressionLevel,
+            Map<String, Integer> methodCompressionLevels,
+            FlushPolicy flushPolicy,
+            Map<String, FlushPolicy> methodFlushPolicies,
+            HeaderForwardingPolicy headerForwardingPolicy,
+            Map<String, HeaderForwardingPolicy> methodHeaderForwardingPolicies,
+            DeadlinePolicy deadlinePolicy,
+            Map<String, DeadlinePolicy> methodDeadlinePolicies,
+            @Nullable ToLongFunction<HttpServletRequest> arrivalTime,
+            @Nullable AdaptiveConcurrencyLimit concurrencyLimit,
+            @Nullable ClientQuota clientQuota,
+            @Nullable Executor callExecutor) {
         this.channelManager = channelManager;
         this.serviceLocator = serviceLocator;
         this.contentTypeLookup = contentTypeLookup;
         this.headerConverter = headerConverter;
         this.maxFrameSize = maxFrameSize;
+        this.nonBlockingRead = nonBlockingRead;
+        this.nonBlockingWrite = nonBlockingWrite;
+        this.bufferPool = bufferPool;
+        this.compressionThreshold = compressionThreshold;
+        this.compressionLevel = compressionLevel;
+        this.methodCompressionLevels = Map.copyOf(methodCompressionLevels);
+        this.flushPolicy = flushPolicy;
+        this.methodFlushPolicies = Map.copyOf(methodFlushPolicies);
+        this.headerForwardingPolicy = headerForwardingPolicy;
+        this.methodHeaderForwardingPolicies = Map.copyOf(methodHeaderForwardingPolicies);
+        this.deadlinePolicy = deadlinePolicy;
+        this.methodDeadlinePolicies = Map.copyOf(methodDeadlinePolicies);
+        this.arrivalTime = arrivalTime;
+        this.concurrencyLimit = concurrencyLimit;
+        this.clientQuota = clientQuota;
+        this.callExecutor = callExecutor;
     }
 
     CompletableFuture<@Nullable Void> handle(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long arrivalNanos = arrivalTime != null ? arrivalTime.applyAsLong(request) : System.nanoTime();
         GrpcWebContentType contentType = contentTypeLookup.lookup(request.getContentType());
-        ResponseWriter writer = new DefaultResponseWriter(contentType, response, headerConverter);
+        DefaultResponseWriter writer = new DefaultResponseWriter(contentType, response, headerConverter, bufferPool);
         try {
             String pathInfo = request.getPathInfo();
             // pathInfo starts with "/". ignore that first char.
             String fullMethodName = pathInfo.substring(1);
             MethodDescriptor<?, ?> method = getMethodDescriptor(fullMethodName);
-            return handleMethod(request, method, writer);
+            return handleMethod(request, method, writer, arrivalNanos);
         } catch (IOException e) {
             throw e;
-        } catch (StatusRuntimeException e) {
-            writer.writeTrailers(e.getStatus(), e.getTrailers() == null ? new Metadata() : e.getTrailers());
-            return CompletableFuture.failedFuture(e);
         } catch (Exception e) {
-            writer.writeTrailers(Status.UNKNOWN);
+            try {
+                writeError(writer, e);
+            } finally {
+                writer.release();
+            }
             return CompletableFuture.failedFuture(e);
         }
     }
 
+    static void writeError(ResponseWriter writer, Throwable e) throws IOException {
+        if (e instanceof StatusRuntimeException statusException) {
+            writer.writeTrailers(statusException.getStatus(),
+                    statusException.getTrailers() == null ? new Metadata() : statusException.getTrailers());
+        } else {
+            writer.writeTrailers(Status.UNKNOWN);
+        }
+    }
+
     private MethodDescriptor<?, ?> getMethodDescriptor(String fullMethodName) {
         MethodDescriptor<?, ?> method;
         try {
@@ -99,84 +166,188 @@ public class RequestHandler {
     }
 
     private <T, R> CompletableFuture<@Nullable Void> handleMethod(HttpServletRequest request,
-            MethodDescriptor<T, R> method, ResponseWriter writer) throws IOException {
+            MethodDescriptor<T, R> method, DefaultResponseWriter writer, long arrivalNanos) throws IOException {
 
-        @Nullable String encoding = request.getHeader("grpc-encoding");
-        if (encoding != null && !encoding.equals("identity")) {
-            throw Status.UNIMPLEMENTED.withDescription("Unsupported encoding")
-                    .asRuntimeException();
+        CallPlan plan = callPlan(method);
+        CallOptions callOptions = callOptions(request, plan.deadlinePolicy(), arrivalNanos);
+        // the container thread is released, the call is read and written with blocking I/O on the call executor
+        @Nullable Executor callExecutor = request.isAsyncStarted() ? this.callExecutor : null;
+        if (callExecutor != null) {
+            callOptions = callOptions.withExecutor(callExecutor);
+            writer.setBlockingFlushExecutor(callExecutor);
         }
+        MessageEncoding encoding = requestEncoding(request.getHeader("grpc-encoding"));
+        writer.setFlushPolicy(plan.flushPolicy());
 
         GrpcWebContentType contentType = contentTypeLookup.lookup(request.getContentType());
-        Channel channel = channelManager.getChannel(method);
-
-        @Nullable String timeout = request.getHeader("grpc-timeout");
-        if (timeout != null) {
-            channel = addTimeout(timeout, channel);
+        if (plan.clientSendsOneMessage()) {
+            checkContentLength(request.getContentLengthLong(), contentType);
         }
 
-        CompletableFuture<@Nullable Void> future = new CompletableFuture<>();
-        channel = ClientInterceptors.intercept(channel, new GrpcWebClientInterceptor(writer, future));
+        Channel channel = channelManager.getChannel(method);
+        Metadata headers = headerConverter.toMetadata(request, plan.headerForwardingPolicy());
+
+        @Nullable FrameCompressor compressor = responseCompressor(request.getHeader("grpc-accept-encoding"),
+                plan.compressionLevel());
+        var messageWriter = new MessageResponseWriter<>(writer, method.getResponseMarshaller(), bufferPool, compressor);
+        // the round trip is timed from half-close, so the time a client spends uploading a stream is not counted
+        @Nullable AdaptiveConcurrencyLimit concurrencyLimit = method.getType().serverSendsOneMessage() ?
+                this.concurrencyLimit : null;
+        var call = new ProxyCall<>(channel, method, callOptions, headers, writer, messageWriter, concurrencyLimit);
+        CompletableFuture<@Nullable Void> future = call.future();
 
-        Metadata headers = headerConverter.toMetadata(request);
-        if (!headers.keys().isEmpty()) {
-            channel = ClientInterceptors.intercept(channel, MetadataUtils.newAttachHeadersInterceptor(headers));
+        // Read the request messages from the input stream, messages are forwarded to the call as they are decoded
+        @Nullable FrameDecompressor decompressor = encoding == MessageEncoding.IDENTITY ? null :
+                new FrameDecompressor(encoding, inflaterPool, bufferPool, maxFrameSize);
+        RequestDecoder decoder = new FrameDecoder<>(method.getRequestMarshaller(), maxFrameSize, bufferPool,
+                decompressor, call);
+        if (contentType.base64Encoded()) {
+            decoder = new Base64RequestDecoder(decoder, bufferPool);
         }
 
-        // Read the request message from the input stream
         ServletInputStream inputStream = request.getInputStream();
-        InputStream decodedInput = contentType.base64Encoded() ? Base64.getDecoder().wrap(inputStream) : inputStream;
-        FrameDecoder<T> frameDecoder = new FrameDecoder<>(decodedInput, method.getRequestMarshaller(), maxFrameSize);
-
-        @Nullable T requestMessage = frameDecoder.readDataFrame();
-        if (requestMessage == null || frameDecoder.hasFrame()) {
-            // zero requests, or multiple requests should return UNIMPLEMENTED
-            throw Status.UNIMPLEMENTED.withDescription("Only unary requests are supported")
-                    .asRuntimeException();
+        if (clientQuota != null) {
+            @Nullable Runnable release = clientQuota.acquire(request, headers, !method.getType().serverSendsOneMessage());
+            if (release != null) {
+                future.whenComplete((result, error) -> release.run());
+            }
         }
 
-        // Invoke the rpc call
-        call(channel, method, requestMessage);
+        try {
+            if (nonBlockingWrite && callExecutor == null && request.isAsyncStarted()) {
+                writer.startNonBlocking();
+                // the servlet completes the request once the future completes, fail fast if the client has gone away
+                writer.closed().whenComplete((result, error) -> {
+                    if (error != null) {
+                        future.completeExceptionally(error);
+                    }
+                });
+            }
+
+            if (callExecutor != null) {
+                RequestDecoder callDecoder = decoder;
+                try {
+                    callExecutor.execute(() -> readFully(inputStream, callDecoder, call));
+                } catch (RejectedExecutionException e) {
+                    call.fail(e);
+                }
+            } else if (nonBlockingRead && request.isAsyncStarted()) {
+                inputStream.setReadListener(new RequestReadListener(inputStream, decoder, bufferPool, call::fail));
+            } else {
+                readFully(inputStream, decoder, call);
+            }
+        } catch (IOException | RuntimeException e) {
+            // the caller is returned a different future, complete this one so that the client's stream is released
+            future.completeExceptionally(e);
+            throw e;
+        }
 
         return future;
     }
 
-    private Channel addTimeout(String timeoutStr, Channel channel) {
-        Duration timeout;
+    private void readFully(ServletInputStream inputStream, RequestDecoder decoder, ProxyCall<?, ?> call) {
         try {
-            timeout = headerConverter.parseTimeout(timeoutStr);
-        } catch (IllegalArgumentException e) {
-            throw Status.UNIMPLEMENTED.withDescription("Unknown timeout value")
-                    .asRuntimeException();
+            RequestReadListener.readFully(inputStream, decoder, bufferPool);
+        } catch (Exception e) {
+            call.fail(e);
         }
-        return ClientInterceptors.intercept(channel, (CallOptionsClientInterceptor) callOptions ->
-                callOptions.withDeadlineAfter(timeout.toNanos(), TimeUnit.NANOSECONDS));
     }
 
-    private <T, R> void call(Channel channel, MethodDescriptor<T, R> methodDescriptor, T request) {
-        var callOptions = CallOptions.DEFAULT;
-        var responseObserver = new NoopObserver<R>();
-        switch (methodDescriptor.getType()) {
-            case UNARY -> ClientCalls.asyncUnaryCall(channel.newCall(methodDescriptor, callOptions), request, responseObserver);
-            case SERVER_STREAMING -> ClientCalls.asyncServerStreamingCall(channel.newCall(methodDescriptor, callOptions), request, responseObserver);
-            default -> throw new IllegalArgumentException();
+    /**
+     * @return the settings for calls to the method, resolved once per method
+     */
+    private CallPlan callPlan(MethodDescriptor<?, ?> method) {
+        // looked up first, the mapping function would otherwise be allocated on every call
+        @Nullable CallPlan plan = callPlans.get(method.getFullMethodName());
+        if (plan != null) {
+            return plan;
         }
+        // only methods found by the service locator are planned, so the number of plans is bounded
+        return callPlans.computeIfAbsent(method.getFullMethodName(), name -> new CallPlan(
+                methodFlushPolicies.getOrDefault(name, flushPolicy),
+                methodCompressionLevels.getOrDefault(name, compressionLevel),
+                methodHeaderForwardingPolicies.getOrDefault(name, headerForwardingPolicy),
+                methodDeadlinePolicies.getOrDefault(name, deadlinePolicy),
+                method.getType().clientSendsOneMessage()));
     }
 
-    private record NoopObserver<T>() implements StreamObserver<T> {
-        @Override
-        public void onNext(T value) {
-            // no-op
+    private MessageEncoding requestEncoding(@Nullable String headerValue) {
+        @Nullable MessageEncoding encoding = MessageEncoding.forHeader(headerValue);
+        if (encoding == null) {
+            Metadata trailers = new Metadata();
+            trailers.put(MessageEncoding.GRPC_ACCEPT_ENCODING, MessageEncoding.ACCEPT_ENCODING);
+            throw Status.UNIMPLEMENTED.withDescription("Unsupported encoding")
+                    .asRuntimeException(trailers);
         }
+        return encoding;
+    }
 
-        @Override
-        public void onError(Throwable t) {
-            // no-op
+    /**
+     * @return compressor for response frames, or null if the client does not accept a supported encoding or
+     * compression is disabled for the method
+     */
+    private @Nullable FrameCompressor responseCompressor(@Nullable String acceptEncoding, int level) {
+        if (level == Deflater.NO_COMPRESSION) {
+            return null;
         }
+        MessageEncoding encoding = MessageEncoding.negotiate(acceptEncoding);
+        return encoding == MessageEncoding.IDENTITY ? null :
+                new FrameCompressor(encoding, level, compressionThreshold, deflaterPool, bufferPool);
+    }
 
-        @Override
-        public void onCompleted() {
-            // no-op
+    /**
+     * Rejects requests which can not contain a single frame within the size limit, before any of the body is read.
+     *
+     * @param contentLength length of the request body, or -1 if unknown
+     * @param contentType content type of the request
+     */
+    private void checkContentLength(long contentLength, GrpcWebContentType contentType) {
+        long maxLength = FrameDecoder.HEADER_LENGTH + (long) maxFrameSize;
+        if (contentType.base64Encoded()) {
+            // the body may be split into padded segments, at worst every byte is encoded as its own 4 characters
+            maxLength *= 4;
+        }
+        if (contentLength > maxLength) {
+            throw Status.RESOURCE_EXHAUSTED.withDescription("Request size exceeds limit")
+                    .asRuntimeException();
+        }
+    }
+
+    /**
+     * Sets the deadline of the call to the time remaining of the timeout, measured from the time the request arrived.
+     *
+     * @throws StatusRuntimeException with {@link Status.Code#DEADLINE_EXCEEDED} if the deadline has already passed
+     */
+    private CallOptions callOptions(HttpServletRequest request, DeadlinePolicy deadlinePolicy, long arrivalNanos) {
+        long timeoutNanos = deadlinePolicy.timeoutNanos(requestedTimeout(request.getHeader("grpc-timeout")));
+        if (timeoutNanos == DeadlinePolicy.NO_TIMEOUT) {
+            return CallOptions.DEFAULT;
+        }
+        long remainingNanos = timeoutNanos - (System.nanoTime() - arrivalNanos);
+        if (remainingNanos <= 0) {
+            throw Status.DEADLINE_EXCEEDED.withDescription("Deadline exceeded before the call was started")
+                    .asRuntimeException();
+        }
+        if (request.isAsyncStarted()) {
+            // the call is cancelled when the deadline passes, the grace period allows the trailers to be written.
+            // Otherwise the container releases a request which is abandoned by the client and server.
+            request.getAsyncContext().setTimeout(remainingNanos / 1_000_000 + ASYNC_TIMEOUT_GRACE_MILLIS);
+        }
+        return CallOptions.DEFAULT.withDeadlineAfter(remainingNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return timeout requested by the client in nanoseconds, or {@link DeadlinePolicy#NO_TIMEOUT}
+     */
+    private long requestedTimeout(@Nullable String timeout) {
+        if (timeout == null) {
+            return DeadlinePolicy.NO_TIMEOUT;
+        }
+        try {
+            return headerConverter.parseTimeoutNanos(timeout);
+        } catch (IllegalArgumentException e) {
+            throw Status.UNIMPLEMENTED.withDescription("Unknown timeout value")
+                    .asRuntimeException();
         }
     }
 
@@ -16,6 +16,14 @@
 
 package com.radixiot.grpcweb;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.ToLongFunction;
+import java.util.zip.Deflater;
+
+import jakarta.servlet.http.HttpServletRequest;
+
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 public class RequestHandlerBuilder {
@@ -24,6 +32,25 @@ public class RequestHandlerBuilder {
     private @Nullable ContentTypeLookup contentTypeLookup = null;
     private @Nullable HeaderConverter headerConverter = null;
     private @Nullable Integer maxFrameSize = null;
+    private boolean nonBlockingRead = true;
+    private boolean nonBlockingWrite = true;
+    private boolean passThrough = false;
+    private boolean cacheServiceLocator = true;
+    private @Nullable BufferPool bufferPool = null;
+    private int compressionThreshold = 1024;
+    private int compressionLevel = Deflater.NO_COMPRESSION;
+    private final Map<String, Integer> methodCompressionLevels = new HashMap<>();
+    private @Nullable FlushPolicy flushPolicy = null;
+    private final Map<String, FlushPolicy> methodFlushPolicies = new HashMap<>();
+    private @Nullable HeaderForwardingPolicy headerForwardingPolicy = null;
+    private final Map<String, HeaderForwardingPolicy> methodHeaderForwardingPolicies = new HashMap<>();
+    private @Nullable DeadlinePolicy deadlinePolicy = null;
+    private final Map<String, DeadlinePolicy> methodDeadlinePolicies = new HashMap<>();
+    private @Nullable ToLongFunction<HttpServletRequest> arrivalTime = null;
+    private @Nullable AdaptiveConcurrencyLimit concurrencyLimit = null;
+    private @Nullable ClientQuota clientQuota = null;
+    private @Nullable Executor callExecutor = null;
+    private boolean virtualThreads = false;
 
     RequestHandlerBuilder() {
     }
@@ -53,13 +80,293 @@ public class RequestHandlerBuilder {
         return this;
     }
 
+    /**
+     * Reads the request body using a {@link jakarta.servlet.ReadListener} when the request is asynchronous, so that
+     * a container thread is not held while the client uploads the request. Enabled by default.
+     *
+     * @param nonBlockingRead true to read the request body without blocking
+     * @return this builder
+     */
+    public RequestHandlerBuilder setNonBlockingRead(boolean nonBlockingRead) {
+        this.nonBlockingRead = nonBlockingRead;
+        return this;
+    }
+
+    /**
+     * Writes the response using a {@link jakarta.servlet.WriteListener} when the request is asynchronous. Frames are
+     * queued while the client is not accepting data, and further response messages are only requested from the
+     * server once the queue has drained. Enabled by default.
+     *
+     * @param nonBlockingWrite true to write the response without blocking
+     * @return this builder
+     */
+    public RequestHandlerBuilder setNonBlockingWrite(boolean nonBlockingWrite) {
+        this.nonBlockingWrite = nonBlockingWrite;
+        return this;
+    }
+
+    /**
+     * Forwards request and response messages as opaque bytes rather than parsing and re-serializing them. The
+     * {@link ServiceLocator} is still used to determine the method type. Disabled by default.
+     *
+     * @param passThrough true to wrap the service locator in a {@link PassThroughServiceLocator}
+     * @return this builder
+     */
+    public RequestHandlerBuilder setPassThrough(boolean passThrough) {
+        this.passThrough = passThrough;
+        return this;
+    }
+
+    /**
+     * Wraps the {@link ServiceLocator} in a {@link CachingServiceLocator}, so that methods are only located once and
+     * unknown methods are rejected without repeating the lookup. Enabled by default, a {@link CachingServiceLocator} or
+     * {@link DescriptorSetServiceLocator} is not wrapped as it is already indexed.
+     *
+     * @param cacheServiceLocator true to cache located methods
+     * @return this builder
+     */
+    public RequestHandlerBuilder setCacheServiceLocator(boolean cacheServiceLocator) {
+        this.cacheServiceLocator = cacheServiceLocator;
+        return this;
+    }
+
+    /**
+     * @param bufferPool pool used for buffers which decode request frames and encode response frames, defaults to a
+     *                   {@link DefaultBufferPool} whose largest size class fits a request frame of the maximum size
+     * @return this builder
+     */
+    public RequestHandlerBuilder setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        return this;
+    }
+
+    /**
+     * Response messages smaller than this size are never compressed, as the saving does not justify the CPU time.
+     * Defaults to 1024 bytes.
+     *
+     * @param compressionThreshold minimum size in bytes of a response message to compress
+     * @return this builder
+     */
+    public RequestHandlerBuilder setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+        return this;
+    }
+
+    /**
+     * Enables compression of response messages, they are compressed when the client accepts gzip or deflate via the
+     * grpc-accept-encoding header. Defaults to {@link Deflater#NO_COMPRESSION}, compression costs CPU time on the proxy
+     * and is only worthwhile when the client's bandwidth is limited.
+     *
+     * @param compressionLevel compression level 1-9, {@link Deflater#DEFAULT_COMPRESSION}, or
+     *                         {@link Deflater#NO_COMPRESSION} to disable response compression
+     * @return this builder
+     */
+    public RequestHandlerBuilder setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = checkCompressionLevel(compressionLevel);
+        return this;
+    }
+
+    /**
+     * Overrides the compression level for a single method, e.g. to enable compression for a method which returns
+     * large messages, or to disable it for a method which returns already compressed data.
+     *
+     * @param fullMethodName full method name, e.g. {@code package.Service/Method}
+     * @param compressionLevel compression level 1-9, {@link Deflater#DEFAULT_COMPRESSION}, or
+     *                         {@link Deflater#NO_COMPRESSION} to disable response compression
+     * @return this builder
+     */
+    public RequestHandlerBuilder setCompressionLevel(String fullMethodName, int compressionLevel) {
+        this.methodCompressionLevels.put(fullMethodName, checkCompressionLevel(compressionLevel));
+        return this;
+    }
+
+    private static int checkCompressionLevel(int compressionLevel) {
+        if (compressionLevel != Deflater.DEFAULT_COMPRESSION && (compressionLevel < 0 || compressionLevel > 9)) {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        return compressionLevel;
+    }
+
+    /**
+     * @param flushPolicy decides when response frames are flushed to the client, defaults to
+     *                    {@link FlushPolicy#immediate()}
+     * @return this builder
+     */
+    public RequestHandlerBuilder setFlushPolicy(FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+        return this;
+    }
+
+    /**
+     * Overrides the flush policy for a single method, e.g. to coalesce the frames of a busy server stream.
+     *
+     * @param fullMethodName full method name, e.g. {@code package.Service/Method}
+     * @param flushPolicy decides when response frames are flushed to the client
+     * @return this builder
+     */
+    public RequestHandlerBuilder setFlushPolicy(String fullMethodName, FlushPolicy flushPolicy) {
+        this.methodFlushPolicies.put(fullMethodName, flushPolicy);
+        return this;
+    }
+
+    /**
+     * @param headerForwardingPolicy decides which request headers are forwarded to the server, defaults to
+     *                               {@link HeaderForwardingPolicy#forwardAll()}
+     * @return this builder
+     */
+    public RequestHandlerBuilder setHeaderForwardingPolicy(HeaderForwardingPolicy headerForwardingPolicy) {
+        this.headerForwardingPolicy = headerForwardingPolicy;
+        return this;
+    }
+
+    /**
+     * Overrides the header forwarding policy for a single method, e.g. to forward authentication cookies only to the
+     * method which needs them.
+     *
+     * @param fullMethodName full method name, e.g. {@code package.Service/Method}
+     * @param headerForwardingPolicy decides which request headers are forwarded to the server
+     * @return this builder
+     */
+    public RequestHandlerBuilder setHeaderForwardingPolicy(String fullMethodName,
+            HeaderForwardingPolicy headerForwardingPolicy) {
+        this.methodHeaderForwardingPolicies.put(fullMethodName, headerForwardingPolicy);
+        return this;
+    }
+
+    /**
+     * @param deadlinePolicy decides the deadline of calls to the server, defaults to {@link DeadlinePolicy#none()}
+     * @return this builder
+     */
+    public RequestHandlerBuilder setDeadlinePolicy(DeadlinePolicy deadlinePolicy) {
+        this.deadlinePolicy = deadlinePolicy;
+        return this;
+    }
+
+    /**
+     * Overrides the deadline policy for a single method, e.g. to allow a long-running server stream.
+     *
+     * @param fullMethodName full method name, e.g. {@code package.Service/Method}
+     * @param deadlinePolicy decides the deadline of calls to the method
+     * @return this builder
+     */
+    public RequestHandlerBuilder setDeadlinePolicy(String fullMethodName, DeadlinePolicy deadlinePolicy) {
+        this.methodDeadlinePolicies.put(fullMethodName, deadlinePolicy);
+        return this;
+    }
+
+    /**
+     * The deadline of a call is measured from the time the request arrived, so that time spent waiting for a
+     * container thread counts against the timeout requested by the client. Defaults to the time the request is
+     * handled, set this if the container records when it received the request.
+     *
+     * @param arrivalTime returns the {@link System#nanoTime()} at which the request was received
+     * @return this builder
+     */
+    public RequestHandlerBuilder setArrivalTime(ToLongFunction<HttpServletRequest> arrivalTime) {
+        this.arrivalTime = arrivalTime;
+        return this;
+    }
+
+    /**
+     * Limits the number of calls in flight to each target, rejecting calls over the limit. Disabled by default.
+     *
+     * @param concurrencyLimit adaptive limit for calls to each target, or null to disable
+     * @return this builder
+     */
+    public RequestHandlerBuilder setConcurrencyLimit(@Nullable AdaptiveConcurrencyLimit concurrencyLimit) {
+        this.concurrencyLimit = concurrencyLimit;
+        return this;
+    }
+
+    /**
+     * Limits the call rate and concurrent server streams of each client. Disabled by default.
+     *
+     * @param clientQuota quota applied to each client, or null to disable
+     * @return this builder
+     */
+    public RequestHandlerBuilder setClientQuota(@Nullable ClientQuota clientQuota) {
+        this.clientQuota = clientQuota;
+        return this;
+    }
+
+    /**
+     * Runs the blocking work of each asynchronous request on the executor: the request body is read with blocking
+     * I/O, and the response is written with blocking I/O from the call's listener, which also runs on the executor.
+     * Intended for an executor which can cheaply block many threads, see {@link #setVirtualThreads(boolean)}. When
+     * set, {@link #setNonBlockingRead(boolean)} and {@link #setNonBlockingWrite(boolean)} are ignored for
+     * asynchronous requests. Not set by default.
+     *
+     * @param callExecutor executor for the blocking work of each call, or null to use non-blocking I/O
+     * @return this builder
+     */
+    public RequestHandlerBuilder setCallExecutor(@Nullable Executor callExecutor) {
+        this.callExecutor = callExecutor;
+        return this;
+    }
+
+    /**
+     * Runs the blocking work of each call on a new virtual thread, see {@link #setCallExecutor(Executor)}. The
+     * default {@link DefaultChannelManager} also runs its call listeners on virtual threads. Requires Java 21 or
+     * later. Disabled by default.
+     * <p>
+     * Locks which may be held while a call blocks, e.g. while writing the response or while sending to a backend
+     * which runs inline, are {@link java.util.concurrent.locks.ReentrantLock}s rather than monitors, so that a
+     * blocked virtual thread does not pin its carrier thread. Monitors are only used for short critical sections
+     * which never block.
+     *
+     * @param virtualThreads true to run each call on a virtual thread
+     * @return this builder
+     */
+    public RequestHandlerBuilder setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    /**
+     * @throws IllegalStateException if virtual threads are enabled, but are not available
+     */
     public RequestHandler build() {
+        @Nullable Executor callExecutor = this.callExecutor;
+        if (virtualThreads && callExecutor == null) {
+            callExecutor = VirtualThreads.newExecutor();
+        }
+        ChannelManager channelManager = this.channelManager;
+        if (channelManager == null) {
+            channelManager = virtualThreads && callExecutor != null ?
+                    new DefaultChannelManager(DefaultChannelManager.DEFAULT_CHANNEL_NAME, callExecutor) :
+                    new DefaultChannelManager();
+        }
+        ServiceLocator serviceLocator = this.serviceLocator != null ? this.serviceLocator : new DefaultServiceLocator();
+        if (passThrough) {
+            serviceLocator = new PassThroughServiceLocator(serviceLocator);
+        }
+        if (cacheServiceLocator && !(serviceLocator instanceof CachingServiceLocator ||
+                serviceLocator instanceof DescriptorSetServiceLocator)) {
+            serviceLocator = new CachingServiceLocator(serviceLocator);
+        }
+        int maxFrameSize = this.maxFrameSize != null ? this.maxFrameSize : 200 * 1024;
         return new RequestHandler(
-                channelManager != null ? channelManager : new DefaultChannelManager(),
-                serviceLocator != null ? serviceLocator : new DefaultServiceLocator(),
+                channelManager,
+                serviceLocator,
                 contentTypeLookup != null ? contentTypeLookup : new DefaultContentTypeLookup(),
                 headerConverter != null ? headerConverter : new DefaultHeaderConverter(),
-                maxFrameSize != null ? maxFrameSize : 200 * 1024
+                maxFrameSize,
+                nonBlockingRead,
+                nonBlockingWrite,
+                bufferPool != null ? bufferPool : DefaultBufferPool.forMaxFrameSize(maxFrameSize),
+                compressionThreshold,
+                compressionLevel,
+                methodCompressionLevels,
+                flushPolicy != null ? flushPolicy : FlushPolicy.immediate(),
+                methodFlushPolicies,
+                headerForwardingPolicy != null ? headerForwardingPolicy : HeaderForwardingPolicy.forwardAll(),
+                methodHeaderForwardingPolicies,
+                deadlinePolicy != null ? deadlinePolicy : DeadlinePolicy.none(),
+                methodDeadlinePolicies,
+                arrivalTime,
+                concurrencyLimit,
+                clientQuota,
+                callExecutor
         );
     }
 }
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Reads the request body without blocking and feeds it to a {@link RequestDecoder}. The container invokes
+ * {@link #onDataAvailable()} whenever more of the body can be read, so no thread waits on a slow client.
+ * <p>
+ * Reading is paused while the decoder is not ready (i.e. the backend call is applying flow control) and resumed from
+ * the decoder's ready handler, so a client stream is never buffered in the proxy.
+ */
+class RequestReadListener implements ReadListener {
+    static final int READ_BUFFER_SIZE = 8192;
+
+    private final ServletInputStream inputStream;
+    private final RequestDecoder decoder;
+    private final Consumer<Throwable> errorHandler;
+    private final BufferPool bufferPool;
+    private final ByteBuffer readBuffer;
+    private final byte[] buffer;
+    /**
+     * Guards reading, decoding may forward messages to the call inline.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    private boolean failed = false;
+    private boolean released = false;
+    private boolean reading = false;
+
+    RequestReadListener(ServletInputStream inputStream, RequestDecoder decoder, BufferPool bufferPool,
+            Consumer<Throwable> errorHandler) {
+        this.inputStream = inputStream;
+        this.decoder = decoder;
+        this.bufferPool = bufferPool;
+        this.errorHandler = errorHandler;
+        this.readBuffer = bufferPool.acquire(READ_BUFFER_SIZE);
+        this.buffer = readArray(readBuffer);
+        decoder.setOnReadyHandler(this::onReady);
+    }
+
+    /**
+     * Servlet input streams can only be read into arrays, fall back to a plain array if the pool supplies direct
+     * buffers.
+     */
+    private static byte[] readArray(ByteBuffer readBuffer) {
+        return readBuffer.hasArray() && readBuffer.arrayOffset() == 0 ? readBuffer.array() : new byte[READ_BUFFER_SIZE];
+    }
+
+    /**
+     * Reads the entire request body, blocking the calling thread. Used when the request is not asynchronous, or is
+     * read on the call executor.
+     */
+    static void readFully(InputStream inputStream, RequestDecoder decoder, BufferPool bufferPool) throws IOException {
+        ByteBuffer readBuffer = bufferPool.acquire(READ_BUFFER_SIZE);
+        @Nullable ReadyLatch ready = null;
+        try {
+            byte[] buffer = readArray(readBuffer);
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                decoder.decode(buffer, 0, count);
+                if (!decoder.isReady()) {
+                    // only streams which apply flow control wait, unary requests never need the latch
+                    if (ready == null) {
+                        ready = new ReadyLatch(decoder);
+                    }
+                    ready.await();
+                }
+            }
+            decoder.endOfStream();
+        } finally {
+            decoder.release();
+            bufferPool.release(readBuffer);
+        }
+    }
+
+    /**
+     * Blocks the reading thread until the decoder is ready again.
+     */
+    private static final class ReadyLatch {
+        private final RequestDecoder decoder;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition ready = lock.newCondition();
+
+        private ReadyLatch(RequestDecoder decoder) {
+            this.decoder = decoder;
+            decoder.setOnReadyHandler(this::signal);
+        }
+
+        private void signal() {
+            lock.lock();
+            try {
+                ready.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void await() throws InterruptedIOException {
+            lock.lock();
+            try {
+                // the decoder may have become ready before the handler was set
+                while (!decoder.isReady()) {
+                    ready.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for call to become ready");
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void onDataAvailable() {
+        lock.lock();
+        try {
+            if (failed) return;
+            readAvailable();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Resumes reading after the decoder becomes ready again. The container will not invoke
+     * {@link #onDataAvailable()} as reading stopped while data was still available.
+     */
+    private void onReady() {
+        lock.lock();
+        try {
+            if (failed || released) return;
+            readAvailable();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void readAvailable() {
+        // the decoder may become ready again while it is decoding, the loop below will continue reading
+        if (reading) return;
+        this.reading = true;
+        try {
+            while (decoder.isReady() && inputStream.isReady()) {
+                int count = inputStream.read(buffer);
+                if (count == -1) return;
+                decoder.decode(buffer, 0, count);
+            }
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            this.reading = false;
+        }
+    }
+
+    @Override
+    public void onAllDataRead() {
+        lock.lock();
+        try {
+            if (failed) return;
+            release();
+            decoder.endOfStream();
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        lock.lock();
+        try {
+            if (failed) return;
+            fail(t);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void fail(Throwable t) {
+        this.failed = true;
+        release();
+        decoder.release();
+        errorHandler.accept(t);
+    }
+
+    private void release() {
+        if (!released) {
+            this.released = true;
+            bufferPool.release(readBuffer);
+        }
+    }
+}
@@ -17,7 +17,12 @@
 package com.radixiot.grpcweb;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Set;
+import java.util.concurrent.CompletionStage;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 import io.grpc.Metadata;
 import io.grpc.Status;
@@ -38,5 +43,30 @@ interface ResponseWriter {
 
     void writeTrailers(Status status, Metadata trailer) throws IOException;
 
-    void writeFrame(Set<FrameFlag> flags, byte[] frameBytes) throws IOException;
+    default void writeFrame(Set<FrameFlag> flags, byte[] frameBytes) throws IOException {
+        writeFrame(flags, ByteBuffer.wrap(frameBytes));
+    }
+
+    void writeFrame(Set<FrameFlag> flags, ByteBuffer frameBytes) throws IOException;
+
+    /**
+     * Writes a frame by transferring the message directly from the stream to the HTTP response, without first
+     * copying it into a buffer.
+     *
+     * @param message stream containing the frame payload, it is not closed
+     * @param length number of bytes in the stream
+     */
+    void writeFrame(Set<FrameFlag> flags, InputStream message, int length) throws IOException;
+
+    /**
+     * Completes once the trailers have been written to the client and the response output stream is closed. With
+     * non-blocking writes this may happen after {@link #writeTrailers(Status, Metadata)} returns. Completes
+     * exceptionally if the response could not be written.
+     */
+    CompletionStage<@Nullable Void> closed();
+
+    /**
+     * Returns any pooled buffers held by the writer, called when the call closes.
+     */
+    void release();
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import io.grpc.Channel;
+import io.grpc.Metadata;
+
+/**
+ * A channel returned by a {@link ChannelManager} which routes each call to one of several backends. The proxy asks it
+ * for the backend when starting a call, so that the {@link AdaptiveConcurrencyLimit} applies to each backend rather
+ * than to all of them at once.
+ */
+interface RoutingChannel {
+
+    /**
+     * @param headers headers forwarded to the backend
+     * @param firstMessage first request message, or null if the call has no request messages
+     * @return channel to the backend which handles the call
+     * @throws io.grpc.StatusRuntimeException if no backend is available
+     */
+    Channel route(Metadata headers, @Nullable Object firstMessage);
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Set;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+
+/**
+ * Encodes the trailers frame of a response. Most responses end with only a status, the complete frames for these are
+ * computed once for each status code. Other trailers are written directly into a pooled buffer.
+ */
+final class TrailerEncoder {
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SEPARATOR = {':', ' '};
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private static final byte[][] BINARY_STATUS_FRAMES;
+    private static final byte[][] TEXT_STATUS_FRAMES;
+
+    static {
+        Status.Code[] codes = Status.Code.values();
+        BINARY_STATUS_FRAMES = new byte[codes.length][];
+        TEXT_STATUS_FRAMES = new byte[codes.length][];
+        for (Status.Code code : codes) {
+            byte[] payload = ("grpc-status: " + code.value() + "\r\n").getBytes(StandardCharsets.US_ASCII);
+            byte[] frame = ByteBuffer.allocate(FrameDecoder.HEADER_LENGTH + payload.length)
+                    .put((byte) FrameFlag.encode(Set.of(FrameFlag.TRAILERS)))
+                    .putInt(payload.length)
+                    .put(payload)
+                    .array();
+            BINARY_STATUS_FRAMES[code.value()] = frame;
+            TEXT_STATUS_FRAMES[code.value()] = Base64.getEncoder().encode(frame);
+        }
+    }
+
+    private TrailerEncoder() {
+    }
+
+    /**
+     * @param status status of the call
+     * @param trailer trailers from the server
+     * @param base64Encoded true for a grpc-web-text response
+     * @return the complete trailers frame if the trailers only contain the status code, otherwise null. The returned
+     * array is shared and must not be modified.
+     */
+    static byte @Nullable [] statusFrame(Status status, Metadata trailer, boolean base64Encoded) {
+        @Nullable String description = status.getDescription();
+        if ((description != null && !description.isEmpty()) || !trailer.keys().isEmpty()) {
+            return null;
+        }
+        int value = status.getCode().value();
+        return base64Encoded ? TEXT_STATUS_FRAMES[value] : BINARY_STATUS_FRAMES[value];
+    }
+
+    /**
+     * Appends the grpc-status, and the percent-encoded grpc-message if the status has a description.
+     */
+    static void appendStatus(PooledOutputStream output, Status status) {
+        appendName(output, "grpc-status");
+        int value = status.getCode().value();
+        if (value >= 10) {
+            output.write('0' + value / 10);
+        }
+        output.write('0' + value % 10);
+        output.write(CRLF, 0, CRLF.length);
+
+        @Nullable String description = status.getDescription();
+        if (description != null && !description.isEmpty()) {
+            appendName(output, "grpc-message");
+            appendPercentEncoded(output, description);
+            output.write(CRLF, 0, CRLF.length);
+        }
+    }
+
+    /**
+     * Appends a trailer line, the name is lower-cased and characters outside of US-ASCII are replaced.
+     */
+    static void append(PooledOutputStream output, String name, String value) {
+        appendName(output, name);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            output.write(c < 0x80 ? c : '?');
+        }
+        output.write(CRLF, 0, CRLF.length);
+    }
+
+    private static void appendName(PooledOutputStream output, String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                output.write(c + ('a' - 'A'));
+            } else {
+                output.write(c < 0x80 ? c : '?');
+            }
+        }
+        output.write(SEPARATOR, 0, SEPARATOR.length);
+    }
+
+    /**
+     * Percent-encodes the UTF-8 bytes of the message as specified for grpc-message, printable ASCII characters other
+     * than '%' are written unchanged.
+     */
+    static void appendPercentEncoded(PooledOutputStream output, String message) {
+        int i = 0;
+        while (i < message.length()) {
+            char c = message.charAt(i++);
+            if (c >= ' ' && c < 0x7f && c != '%') {
+                output.write(c);
+            } else if (c < 0x80) {
+                appendEscaped(output, c);
+            } else if (c < 0x800) {
+                appendEscaped(output, 0xc0 | c >> 6);
+                appendEscaped(output, 0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i < message.length() &&
+                    Character.isLowSurrogate(message.charAt(i))) {
+                int codePoint = Character.toCodePoint(c, message.charAt(i++));
+                appendEscaped(output, 0xf0 | codePoint >> 18);
+                appendEscaped(output, 0x80 | codePoint >> 12 & 0x3f);
+                appendEscaped(output, 0x80 | codePoint >> 6 & 0x3f);
+                appendEscaped(output, 0x80 | codePoint & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate, replaced as by the UTF-8 charset encoder
+                output.write('?');
+            } else {
+                appendEscaped(output, 0xe0 | c >> 12);
+                appendEscaped(output, 0x80 | c >> 6 & 0x3f);
+                appendEscaped(output, 0x80 | c & 0x3f);
+            }
+        }
+    }
+
+    private static void appendEscaped(PooledOutputStream output, int b) {
+        output.write('%');
+        output.write(HEX[b >> 4 & 0xf]);
+        output.write(HEX[b & 0xf]);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Pools {@link Inflater} or {@link Deflater} instances, which hold native memory and are expensive to create for each
+ * request or response. Instances for raw deflate data and for the zlib format are pooled separately.
+ *
+ * @param <T> pooled type
+ */
+class ZipPool<T> {
+    static final int DEFAULT_MAX_POOLED = 32;
+
+    private final Pool<T> zlib;
+    private final Pool<T> raw;
+
+    /**
+     * @param factory creates an instance, the argument is true for raw deflate data and false for the zlib format
+     * @param reset resets an instance before it is reused
+     * @param end releases the native memory of an instance which is not retained
+     * @param maxPooled maximum number of instances retained for each format
+     */
+    ZipPool(Factory<T> factory, Consumer<T> reset, Consumer<T> end, int maxPooled) {
+        this.zlib = new Pool<>(factory, false, reset, end, maxPooled);
+        this.raw = new Pool<>(factory, true, reset, end, maxPooled);
+    }
+
+    static ZipPool<Inflater> inflaters() {
+        return new ZipPool<>(Inflater::new, Inflater::reset, Inflater::end, DEFAULT_MAX_POOLED);
+    }
+
+    /**
+     * @return pool of deflaters, the compression level is set by the caller after acquiring a deflater
+     */
+    static ZipPool<Deflater> deflaters() {
+        return new ZipPool<>(nowrap -> new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap), Deflater::reset,
+                Deflater::end, DEFAULT_MAX_POOLED);
+    }
+
+    /**
+     * @param nowrap true for raw deflate data (e.g. inside a gzip member), false for the zlib format
+     */
+    T acquire(boolean nowrap) {
+        return (nowrap ? raw : zlib).acquire();
+    }
+
+    /**
+     * @param nowrap must match the value passed to {@link #acquire(boolean)}
+     */
+    void release(T instance, boolean nowrap) {
+        (nowrap ? raw : zlib).release(instance);
+    }
+
+    @FunctionalInterface
+    interface Factory<T> {
+        T create(boolean nowrap);
+    }
+
+    private static class Pool<T> {
+        private final Queue<T> instances = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final Factory<T> factory;
+        private final boolean nowrap;
+        private final Consumer<T> reset;
+        private final Consumer<T> end;
+        private final int maxPooled;
+
+        private Pool(Factory<T> factory, boolean nowrap, Consumer<T> reset, Consumer<T> end, int maxPooled) {
+            this.factory = factory;
+            this.nowrap = nowrap;
+            this.reset = reset;
+            this.end = end;
+            this.maxPooled = maxPooled;
+        }
+
+        private T acquire() {
+            @Nullable T instance = instances.poll();
+            if (instance == null) {
+                return factory.create(nowrap);
+            }
+            size.decrementAndGet();
+            return instance;
+        }
+
+        private void release(T instance) {
+            if (size.incrementAndGet() <= maxPooled) {
+                reset.accept(instance);
+                instances.offer(instance);
+            } else {
+                size.decrementAndGet();
+                end.accept(instance);
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.jupiter.api.Test;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+class AffinityChannelManagerTest {
+
+    private static final MethodDescriptor<byte[], byte[]> METHOD = MethodDescriptor
+            .newBuilder(ByteArrayMarshaller.INSTANCE, ByteArrayMarshaller.INSTANCE)
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName("test.Service/Method")
+            .build();
+
+    @Test
+    void minimalRemapping() {
+        var manager = AffinityChannelManager.builder()
+                .addBackend("a", new RecordingChannel())
+                .addBackend("b", new RecordingChannel())
+                .addBackend("c", new RecordingChannel())
+                .build();
+        Map<String, Channel> before = new HashMap<>();
+        for (int i = 0; i < 10000; i++) {
+            before.put("key" + i, manager.select("key" + i));
+        }
+
+        var added = new RecordingChannel();
+        manager.addBackend("d", added);
+        int moved = 0;
+        for (Map.Entry<String, Channel> entry : before.entrySet()) {
+            Channel after = manager.select(entry.getKey());
+            if (after != entry.getValue()) {
+                assertThat(after).isSameAs(added);
+                moved++;
+            }
+        }
+        // a quarter of the keys are expected to move to the new backend
+        assertThat(moved).isBetween(1500, 3500);
+
+        manager.removeBackend("d");
+        for (Map.Entry<String, Channel> entry : before.entrySet()) {
+            assertThat(manager.select(entry.getKey())).isSameAs(entry.getValue());
+        }
+    }
+
+    @Test
+    void routesByHeader() {
+        var a = new RecordingChannel();
+        var b = new RecordingChannel();
+        var manager = AffinityChannelManager.builder()
+                .addBackend("a", a)
+                .addBackend("b", b)
+                .setKeyHeader("x-tenant-id")
+                .build();
+
+        Metadata headers = new Metadata();
+        headers.put(Metadata.Key.of("x-tenant-id", Metadata.ASCII_STRING_MARSHALLER), "tenant");
+        for (int i = 0; i < 10; i++) {
+            ClientCall<byte[], byte[]> call = manager.getChannel("test.Service", "Method")
+                    .newCall(METHOD, CallOptions.DEFAULT);
+            call.start(new ClientCall.Listener<>() {}, headers);
+        }
+
+        RecordingChannel expected = (RecordingChannel) manager.select("tenant");
+        assertThat(expected.started).hasSize(10);
+        assertThat(expected == a ? b.started : a.started).isEmpty();
+    }
+
+    @Test
+    void routesByFirstMessage() {
+        var manager = AffinityChannelManager.builder()
+                .addBackend("a", new RecordingChannel())
+                .addBackend("b", new RecordingChannel())
+                .setKeyHeader("x-tenant-id")
+                .setMessageKeyExtractor(message -> new String((byte[]) message))
+                .build();
+
+        ClientCall<byte[], byte[]> call = manager.getChannel("test.Service", "Method")
+                .newCall(METHOD, CallOptions.DEFAULT);
+        call.start(new ClientCall.Listener<>() {}, new Metadata());
+        call.request(1);
+        assertThat(call.isReady()).isTrue();
+        call.sendMessage("entity".getBytes());
+        call.halfClose();
+
+        RecordingChannel expected = (RecordingChannel) manager.select("entity");
+        assertThat(expected.started).hasSize(1);
+        assertThat(expected.started.get(0).events).containsExactly("start", "request 1", "send", "halfClose");
+    }
+
+    @Test
+    void cancelBeforeBackendIsChosen() {
+        var manager = AffinityChannelManager.builder()
+                .addBackend("a", new RecordingChannel())
+                .setMessageKeyExtractor(message -> new String((byte[]) message))
+                .build();
+        List<Runnable> tasks = new ArrayList<>();
+        AtomicReference<Status> closed = new AtomicReference<>();
+
+        ClientCall<byte[], byte[]> call = manager.getChannel("test.Service", "Method")
+                .newCall(METHOD, CallOptions.DEFAULT.withExecutor(tasks::add));
+        call.start(new ClientCall.Listener<>() {
+            @Override
+            public void onClose(Status status, Metadata trailers) {
+                closed.set(status);
+            }
+        }, new Metadata());
+        call.cancel("Cancelled", null);
+
+        // the listener is closed on the call's executor, not on the thread which cancelled
+        assertThat(closed.get()).isNull();
+        assertThat(tasks).hasSize(1);
+        tasks.get(0).run();
+        assertThat(closed.get().getCode()).isEqualTo(Status.Code.CANCELLED);
+
+        call.sendMessage("entity".getBytes());
+        call.cancel("Cancelled", null);
+        assertThat(tasks).hasSize(1);
+        assertThat(((RecordingChannel) manager.select("entity")).started).isEmpty();
+    }
+
+    private static class RecordingChannel extends Channel {
+        private final List<RecordingCall<?, ?>> started = new ArrayList<>();
+
+        @Override
+        public <T, R> ClientCall<T, R> newCall(MethodDescriptor<T, R> method, CallOptions callOptions) {
+            return new RecordingCall<>();
+        }
+
+        @Override
+        public String authority() {
+            return "test";
+        }
+
+        private class RecordingCall<T, R> extends ClientCall<T, R> {
+            private final List<String> events = new ArrayList<>();
+
+            @Override
+            public void start(Listener<R> responseListener, Metadata headers) {
+                started.add(this);
+                events.add("start");
+            }
+
+            @Override
+            public void request(int numMessages) {
+                events.add("request " + numMessages);
+            }
+
+            @Override
+            public void cancel(@Nullable String message, @Nullable Throwable cause) {
+                events.add("cancel");
+            }
+
+            @Override
+            public void halfClose() {
+                events.add("halfClose");
+            }
+
+            @Override
+            public void sendMessage(T message) {
+                events.add("send");
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.junit.jupiter.api.Test;
+
+class Base64FrameEncoderTest {
+
+    @Test
+    void matchesJdkEncoder() {
+        for (int length = 0; length < 16; length++) {
+            byte[] frame = frame(length);
+            assertThat(encode(ByteBuffer.wrap(frame), new DefaultBufferPool()))
+                    .isEqualTo(Base64.getEncoder().encodeToString(frame));
+        }
+    }
+
+    @Test
+    void directBuffers() {
+        for (int length = 0; length < 16; length++) {
+            byte[] frame = frame(length);
+            ByteBuffer direct = ByteBuffer.allocateDirect(length).put(frame).flip();
+            assertThat(encode(direct, new DefaultBufferPool(true)))
+                    .isEqualTo(Base64.getEncoder().encodeToString(frame));
+        }
+    }
+
+    @Test
+    void appendsSegments() {
+        var output = new PooledOutputStream(new DefaultBufferPool());
+        output.reset(0);
+        Base64FrameEncoder.encode(ByteBuffer.wrap(frame(4)), output);
+        Base64FrameEncoder.encode(ByteBuffer.wrap(frame(5)), output);
+
+        assertThat(StandardCharsets.US_ASCII.decode(output.toBuffer()).toString())
+                .isEqualTo(Base64.getEncoder().encodeToString(frame(4)) +
+                        Base64.getEncoder().encodeToString(frame(5)));
+    }
+
+    private static String encode(ByteBuffer frame, BufferPool bufferPool) {
+        var output = new PooledOutputStream(bufferPool);
+        output.reset(Base64FrameEncoder.encodedLength(frame.remaining()));
+        Base64FrameEncoder.encode(frame, output);
+        assertThat(frame.position()).isZero();
+        return StandardCharsets.US_ASCII.decode(output.toBuffer()).toString();
+    }
+
+    private static byte[] frame(int length) {
+        byte[] frame = new byte[length];
+        for (int i = 0; i < length; i++) {
+            frame[i] = (byte) (i * 37 + 128);
+        }
+        return frame;
+    }
+}
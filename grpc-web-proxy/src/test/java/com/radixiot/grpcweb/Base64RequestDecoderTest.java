@@ -0,0 +1,125 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import io.grpc.StatusRuntimeException;
+
+class Base64RequestDecoderTest {
+
+    private final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+    private final RequestDecoder collector = new RequestDecoder() {
+        @Override
+        public void decode(byte[] bytes, int offset, int length) {
+            decoded.write(bytes, offset, length);
+        }
+
+        @Override
+        public void endOfStream() {
+        }
+
+        @Override
+        public void release() {
+        }
+    };
+    private final Base64RequestDecoder decoder = new Base64RequestDecoder(collector, new DefaultBufferPool());
+
+    @Test
+    void onlyReleasesPooledBuffers() throws IOException {
+        Set<ByteBuffer> acquired = Collections.newSetFromMap(new IdentityHashMap<>());
+        BufferPool directPool = new BufferPool() {
+            @Override
+            public ByteBuffer acquire(int minCapacity) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(minCapacity);
+                acquired.add(buffer);
+                return buffer;
+            }
+
+            @Override
+            public void release(ByteBuffer buffer) {
+                assertThat(acquired.remove(buffer)).as("released buffer was acquired from the pool").isTrue();
+            }
+        };
+        var directDecoder = new Base64RequestDecoder(collector, directPool);
+        byte[] body = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.US_ASCII);
+        byte[] encoded = Base64.getEncoder().encode(body);
+        directDecoder.decode(encoded, 0, 8);
+        directDecoder.decode(encoded, 8, encoded.length - 8);
+        directDecoder.endOfStream();
+        directDecoder.release();
+
+        assertThat(decoded.toByteArray()).isEqualTo(body);
+        assertThat(acquired).isEmpty();
+    }
+
+    @Test
+    void chunkPerByte() throws IOException {
+        byte[] body = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.US_ASCII);
+        byte[] encoded = Base64.getEncoder().encode(body);
+        for (int i = 0; i < encoded.length; i++) {
+            decoder.decode(encoded, i, 1);
+        }
+        decoder.endOfStream();
+
+        assertThat(decoded.toByteArray()).isEqualTo(body);
+    }
+
+    @Test
+    void concatenatedPaddedSegments() throws IOException {
+        String encoded = encode("a") + encode("bc") + encode("def") + encode("ghij");
+        byte[] bytes = encoded.getBytes(StandardCharsets.US_ASCII);
+        decoder.decode(bytes, 0, 5);
+        decoder.decode(bytes, 5, bytes.length - 5);
+        decoder.endOfStream();
+
+        assertThat(decoded.toString(StandardCharsets.US_ASCII)).isEqualTo("abcdefghij");
+    }
+
+    @Test
+    void unpadded() throws IOException {
+        byte[] bytes = Base64.getEncoder().withoutPadding().encode("abcde".getBytes(StandardCharsets.US_ASCII));
+        decoder.decode(bytes, 0, bytes.length);
+        decoder.endOfStream();
+
+        assertThat(decoded.toString(StandardCharsets.US_ASCII)).isEqualTo("abcde");
+    }
+
+    @Test
+    void invalidCharacter() {
+        byte[] bytes = "YW*j".getBytes(StandardCharsets.US_ASCII);
+
+        assertThatThrownBy(() -> decoder.decode(bytes, 0, bytes.length))
+                .isInstanceOf(StatusRuntimeException.class);
+    }
+
+    private static String encode(String value) {
+        return Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import io.grpc.MethodDescriptor;
+import io.grpc.ServiceDescriptor;
+
+class CachingServiceLocatorTest {
+
+    private static final MethodDescriptor<byte[], byte[]> METHOD = MethodDescriptor
+            .newBuilder(ByteArrayMarshaller.INSTANCE, ByteArrayMarshaller.INSTANCE)
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName("test.Service/Method")
+            .build();
+    private static final ServiceDescriptor SERVICE = new ServiceDescriptor("test.Service", METHOD);
+
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final CachingServiceLocator locator = new CachingServiceLocator(serviceName -> {
+        lookups.incrementAndGet();
+        if (serviceName.equals(SERVICE.getName())) {
+            return SERVICE;
+        }
+        throw new NoSuchElementException(serviceName);
+    }, 2);
+
+    @Test
+    void cachesMethods() {
+        assertThat(locator.locateMethod("test.Service/Method")).isSameAs(METHOD);
+        assertThat(locator.locateMethod("test.Service/Method")).isSameAs(METHOD);
+
+        assertThat(lookups).hasValue(1);
+        assertThat(locator.stats()).isEqualTo(new CachingServiceLocator.Stats(1, 1, 0));
+        assertThat(locator.stats().hitRate()).isEqualTo(0.5);
+    }
+
+    @Test
+    void negativeCacheEvictsOldest() {
+        for (String name : new String[] {"test.Service/First", "test.Service/Second", "test.Service/Third"}) {
+            assertThatThrownBy(() -> locator.locateMethod(name)).isInstanceOf(NoSuchElementException.class);
+        }
+        // the negative cache holds two names, the first was evicted
+        assertThatThrownBy(() -> locator.locateMethod("test.Service/Third"))
+                .isInstanceOf(NoSuchElementException.class);
+        assertThatThrownBy(() -> locator.locateMethod("test.Service/First"))
+                .isInstanceOf(NoSuchElementException.class);
+        assertThatThrownBy(() -> locator.locateMethod("invalid"))
+                .isInstanceOf(NoSuchElementException.class);
+        assertThat(locator.stats()).isEqualTo(new CachingServiceLocator.Stats(0, 5, 1));
+
+        // unknown methods are resolved against the cached service, which was located once
+        assertThat(locator.locateMethod("test.Service/Method")).isSameAs(METHOD);
+        assertThat(lookups).hasValue(1);
+
+        locator.invalidate();
+        assertThat(locator.locateMethod("test.Service/Method")).isSameAs(METHOD);
+        assertThat(lookups).hasValue(2);
+    }
+
+    @Test
+    void cachesUnknownMethods() {
+        var unbounded = new CachingServiceLocator(serviceName -> {
+            lookups.incrementAndGet();
+            throw new NoSuchElementException(serviceName);
+        });
+        for (int i = 0; i < 3; i++) {
+            assertThatThrownBy(() -> unbounded.locateMethod("test.Unknown/Method"))
+                    .isInstanceOf(NoSuchElementException.class);
+        }
+
+        assertThat(lookups).hasValue(1);
+        assertThat(unbounded.stats()).isEqualTo(new CachingServiceLocator.Stats(0, 1, 2));
+    }
+}
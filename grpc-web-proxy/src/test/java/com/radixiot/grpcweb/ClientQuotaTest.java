@@ -0,0 +1,131 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+class ClientQuotaTest {
+
+    private static final long SECOND = Duration.ofSeconds(1).toNanos();
+
+    @Test
+    void rateLimitsEachClient() {
+        ClientQuota quota = ClientQuota.builder().setRate(10).setBurst(2).build();
+        long now = System.nanoTime();
+
+        quota.acquire("a", false, now);
+        quota.acquire("a", false, now);
+        assertThatThrownBy(() -> quota.acquire("a", false, now))
+                .isInstanceOfSatisfying(StatusRuntimeException.class, e -> {
+                    assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.RESOURCE_EXHAUSTED);
+                    assertThat(e.getTrailers()).isNotNull();
+                    assertThat(e.getTrailers().get(ConcurrencyLimiter.RETRY_PUSHBACK)).isEqualTo("100");
+                });
+
+        // other clients have their own bucket, and the bucket refills over time
+        quota.acquire("b", false, now);
+        quota.acquire("a", false, now + SECOND / 10);
+    }
+
+    @Test
+    void limitsConcurrentServerStreams() {
+        ClientQuota quota = ClientQuota.builder().setMaxServerStreams(1).build();
+        long now = System.nanoTime();
+
+        Runnable release = quota.acquire("a", true, now);
+        assertThat(release).isNotNull();
+        assertThat(quota.acquire("a", false, now)).isNull();
+        assertThatThrownBy(() -> quota.acquire("a", true, now))
+                .isInstanceOfSatisfying(StatusRuntimeException.class,
+                        e -> assertThat(e.getStatus().getDescription()).isEqualTo("Too many concurrent streams"));
+
+        release.run();
+        assertThat(quota.acquire("a", true, now)).isNotNull();
+    }
+
+    @Test
+    void evictsIdleClients() {
+        ClientQuota quota = ClientQuota.builder().setRate(1).setMaxServerStreams(5)
+                .setIdleTimeout(Duration.ofSeconds(1)).build();
+        long now = System.nanoTime();
+        List<String> identities = sameStripe(3);
+
+        quota.acquire(identities.get(0), false, now);
+        quota.acquire(identities.get(1), true, now);
+        assertThat(quota.clientCount()).isEqualTo(2);
+
+        // the idle client is evicted, the client with an open stream is kept
+        quota.acquire(identities.get(2), false, now + 3 * SECOND);
+        assertThat(quota.clientCount()).isEqualTo(2);
+    }
+
+    @Test
+    void evictsOneStripeAtATime() {
+        ClientQuota quota = ClientQuota.builder().setRate(1).setIdleTimeout(Duration.ofSeconds(1)).build();
+        long now = System.nanoTime();
+        String idle = "idle";
+        String other = "other";
+        while (ClientQuota.stripeIndex(other) == ClientQuota.stripeIndex(idle)) {
+            other = other + "-";
+        }
+
+        quota.acquire(idle, false, now);
+        quota.acquire(other, false, now + 3 * SECOND);
+        assertThat(quota.clientCount()).isEqualTo(2);
+        quota.acquire(idle, false, now + 3 * SECOND);
+        assertThat(quota.clientCount()).isEqualTo(2);
+    }
+
+    @Test
+    void streamsAreLimitedAfterEviction() {
+        ClientQuota quota = ClientQuota.builder().setMaxServerStreams(1).setIdleTimeout(Duration.ofSeconds(1)).build();
+        long now = System.nanoTime();
+        List<String> identities = sameStripe(2);
+
+        Runnable release = quota.acquire(identities.get(0), true, now);
+        assertThat(release).isNotNull();
+        quota.acquire(identities.get(1), false, now + 3 * SECOND);
+        assertThatThrownBy(() -> quota.acquire(identities.get(0), true, now + 3 * SECOND))
+                .isInstanceOf(StatusRuntimeException.class);
+
+        release.run();
+        quota.acquire(identities.get(1), false, now + 6 * SECOND);
+        assertThat(quota.acquire(identities.get(0), true, now + 6 * SECOND)).isNotNull();
+    }
+
+    private static List<String> sameStripe(int count) {
+        List<String> identities = new ArrayList<>();
+        int stripe = ClientQuota.stripeIndex("client-0");
+        for (int i = 0; identities.size() < count; i++) {
+            String identity = "client-" + i;
+            if (ClientQuota.stripeIndex(identity) == stripe) {
+                identities.add(identity);
+            }
+        }
+        return identities;
+    }
+}
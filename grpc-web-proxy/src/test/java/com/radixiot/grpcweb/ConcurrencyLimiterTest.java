@@ -0,0 +1,123 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+class ConcurrencyLimiterTest {
+
+    private static final long RTT = 10_000_000;
+
+    @Test
+    void limitPerBackendChannel() throws InterruptedException {
+        var concurrencyLimit = AdaptiveConcurrencyLimit.builder().build();
+        Channel retained = channel();
+        ConcurrencyLimiter limiter = concurrencyLimit.limiter(retained);
+        assertThat(concurrencyLimit.limiter(retained)).isSameAs(limiter);
+        assertThat(concurrencyLimit.limiter(channel())).isNotSameAs(limiter);
+
+        // the limiter of a channel which is no longer referenced is removed
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (concurrencyLimit.backendCount() > 1 && System.nanoTime() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertThat(concurrencyLimit.backendCount()).isEqualTo(1);
+        assertThat(concurrencyLimit.limiter(retained)).isSameAs(limiter);
+    }
+
+    @Test
+    void rejectsOverLimit() {
+        var limiter = new ConcurrencyLimiter(2, 1, 10);
+
+        assertThat(limiter.tryAcquire()).isTrue();
+        assertThat(limiter.tryAcquire()).isTrue();
+        assertThat(limiter.tryAcquire()).isFalse();
+
+        StatusRuntimeException rejected = limiter.rejected();
+        assertThat(rejected.getStatus().getCode()).isEqualTo(Status.Code.RESOURCE_EXHAUSTED);
+        assertThat(rejected.getTrailers()).isNotNull();
+        assertThat(rejected.getTrailers().get(ConcurrencyLimiter.RETRY_PUSHBACK)).isEqualTo("1");
+
+        limiter.release(RTT, Status.Code.OK);
+        assertThat(limiter.inFlight()).isEqualTo(1);
+        assertThat(limiter.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void growsWhileLatencyIsStable() {
+        var limiter = new ConcurrencyLimiter(10, 1, 100);
+        for (int i = 0; i < 50; i++) {
+            saturate(limiter);
+            limiter.release(RTT, Status.Code.OK);
+        }
+        assertThat(limiter.limit()).isGreaterThan(10);
+    }
+
+    @Test
+    void shrinksWhenLatencyRisesOrServerIsOverloaded() {
+        var limiter = new ConcurrencyLimiter(50, 5, 100);
+        for (int i = 0; i < 20; i++) {
+            saturate(limiter);
+            limiter.release(RTT, Status.Code.OK);
+        }
+        int stable = limiter.limit();
+        for (int i = 0; i < 20; i++) {
+            saturate(limiter);
+            limiter.release(RTT * 10, Status.Code.OK);
+        }
+        int slow = limiter.limit();
+        assertThat(slow).isLessThan(stable);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire();
+            limiter.release(RTT, Status.Code.UNAVAILABLE);
+        }
+        assertThat(limiter.limit()).isEqualTo(5);
+    }
+
+    private static void saturate(ConcurrencyLimiter limiter) {
+        while (limiter.tryAcquire()) {
+            // acquire up to the limit
+        }
+    }
+
+    private static Channel channel() {
+        return new Channel() {
+            @Override
+            public <T, R> ClientCall<T, R> newCall(MethodDescriptor<T, R> method, CallOptions callOptions) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public String authority() {
+                return "backend";
+            }
+        };
+    }
+}
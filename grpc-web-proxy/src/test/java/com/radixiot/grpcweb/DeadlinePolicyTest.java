@@ -0,0 +1,60 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+class DeadlinePolicyTest {
+
+    private static final long ONE_SECOND = Duration.ofSeconds(1).toNanos();
+
+    @Test
+    void none() {
+        DeadlinePolicy policy = DeadlinePolicy.none();
+
+        assertThat(policy.timeoutNanos(DeadlinePolicy.NO_TIMEOUT)).isEqualTo(DeadlinePolicy.NO_TIMEOUT);
+        assertThat(policy.timeoutNanos(ONE_SECOND)).isEqualTo(ONE_SECOND);
+    }
+
+    @Test
+    void defaultAndMax() {
+        DeadlinePolicy policy = DeadlinePolicy.builder()
+                .setDefaultTimeout(Duration.ofSeconds(5))
+                .setMaxTimeout(Duration.ofSeconds(30))
+                .build();
+
+        assertThat(policy.timeoutNanos(DeadlinePolicy.NO_TIMEOUT)).isEqualTo(5 * ONE_SECOND);
+        assertThat(policy.timeoutNanos(ONE_SECOND)).isEqualTo(ONE_SECOND);
+        assertThat(policy.timeoutNanos(Long.MAX_VALUE)).isEqualTo(30 * ONE_SECOND);
+    }
+
+    @Test
+    void maxAppliesWithoutDefault() {
+        DeadlinePolicy policy = DeadlinePolicy.builder()
+                .setMaxTimeout(Duration.ofSeconds(30))
+                .build();
+
+        assertThat(policy.timeoutNanos(DeadlinePolicy.NO_TIMEOUT)).isEqualTo(30 * ONE_SECOND);
+        assertThatThrownBy(() -> DeadlinePolicy.builder().setDefaultTimeout(Duration.ZERO))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
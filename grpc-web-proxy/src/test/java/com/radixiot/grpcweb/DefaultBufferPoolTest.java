@@ -0,0 +1,124 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+class DefaultBufferPoolTest {
+
+    private final DefaultBufferPool pool = new DefaultBufferPool(false, 1024, 8192, 2);
+
+    @Test
+    void sizeClasses() {
+        assertThat(pool.acquire(0).capacity()).isEqualTo(1024);
+        assertThat(pool.acquire(1024).capacity()).isEqualTo(1024);
+        assertThat(pool.acquire(1025).capacity()).isEqualTo(2048);
+        assertThat(pool.acquire(8192).capacity()).isEqualTo(8192);
+        // larger than the largest size class, allocated with the exact size
+        assertThat(pool.acquire(8193).capacity()).isEqualTo(8193);
+    }
+
+    @Test
+    void reusesReleasedBuffers() {
+        ByteBuffer buffer = pool.acquire(2000);
+        buffer.put(new byte[100]).flip();
+        pool.release(buffer);
+
+        ByteBuffer reused = pool.acquire(1500);
+        assertThat(reused).isSameAs(buffer);
+        assertThat(reused.position()).isZero();
+        assertThat(reused.limit()).isEqualTo(reused.capacity());
+        // the size class is empty again
+        assertThat(pool.acquire(1500)).isNotSameAs(buffer);
+    }
+
+    @Test
+    void retainsAtMostMaxPooled() {
+        ByteBuffer first = pool.acquire(1024);
+        ByteBuffer second = pool.acquire(1024);
+        ByteBuffer third = pool.acquire(1024);
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+
+        assertThat(pool.acquire(1024)).isSameAs(first);
+        assertThat(pool.acquire(1024)).isSameAs(second);
+        assertThat(pool.acquire(1024)).isNotSameAs(third);
+    }
+
+    @Test
+    void retainsAtMostMaxPooledBytes() {
+        var pool = new DefaultBufferPool(false, 1024, 8192, 2, 4096);
+        ByteBuffer large = pool.acquire(4096);
+        ByteBuffer small = pool.acquire(1024);
+        pool.release(large);
+        pool.release(small);
+
+        assertThat(pool.acquire(1024)).isNotSameAs(small);
+        assertThat(pool.acquire(4096)).isSameAs(large);
+        // the capacity of an acquired buffer is no longer counted
+        pool.release(small);
+        assertThat(pool.acquire(1024)).isSameAs(small);
+    }
+
+    @Test
+    void largestSizeClassFitsMaxFrame() {
+        assertThat(DefaultBufferPool.forMaxFrameSize(200 * 1024).maxSize()).isEqualTo(256 * 1024);
+        assertThat(DefaultBufferPool.forMaxFrameSize(256 * 1024 - FrameDecoder.HEADER_LENGTH).maxSize())
+                .isEqualTo(256 * 1024);
+        assertThat(DefaultBufferPool.forMaxFrameSize(100).maxSize()).isEqualTo(DefaultBufferPool.DEFAULT_MIN_SIZE);
+        assertThat(DefaultBufferPool.forMaxFrameSize(Integer.MAX_VALUE).maxSize())
+                .isEqualTo(DefaultBufferPool.DEFAULT_MAX_SIZE);
+    }
+
+    @Test
+    void ignoresForeignBuffers() {
+        ByteBuffer oversized = pool.acquire(10_000);
+        ByteBuffer unaligned = ByteBuffer.allocate(1500);
+        ByteBuffer direct = ByteBuffer.allocateDirect(1024);
+        pool.release(oversized);
+        pool.release(unaligned);
+        pool.release(direct);
+
+        assertThat(pool.acquire(10_000)).isNotSameAs(oversized);
+        assertThat(pool.acquire(1025)).isNotSameAs(unaligned);
+        assertThat(pool.acquire(1024)).isNotSameAs(direct).matches(b -> !b.isDirect());
+    }
+
+    @Test
+    void directBuffers() {
+        var directPool = new DefaultBufferPool(true);
+        ByteBuffer buffer = directPool.acquire(100);
+        assertThat(buffer.isDirect()).isTrue();
+        assertThat(buffer.capacity()).isEqualTo(DefaultBufferPool.DEFAULT_MIN_SIZE);
+        directPool.release(buffer);
+        assertThat(directPool.acquire(100)).isSameAs(buffer);
+    }
+
+    @Test
+    void rejectsInvalidSizes() {
+        assertThatThrownBy(() -> new DefaultBufferPool(false, 1000, 8192, 2))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new DefaultBufferPool(false, 8192, 1024, 2))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import org.junit.jupiter.api.Test;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+class DefaultHeaderConverterTest {
+
+    // declared as the interface, as the proxy calls it, which does not warn about the methods deprecated for overriding
+    private final HeaderConverter converter = new DefaultHeaderConverter();
+
+    @Test
+    void requestHeaders() {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", List.of("application/grpc-web+proto"));
+        headers.put("X-Custom", List.of("a", "b"));
+        headers.put("X-Trace-Bin", List.of("AQID"));
+        headers.put("Grpc-Timeout", List.of("1S"));
+
+        Metadata metadata = converter.toMetadata(request(headers));
+
+        assertThat(metadata.keys()).containsExactlyInAnyOrder("x-custom", "x-trace-bin");
+        assertThat(metadata.getAll(Metadata.Key.of("x-custom", Metadata.ASCII_STRING_MARSHALLER)))
+                .containsExactly("a", "b");
+        assertThat(metadata.get(Metadata.Key.of("x-trace-bin", Metadata.BINARY_BYTE_MARSHALLER)))
+                .containsExactly(1, 2, 3);
+    }
+
+    @Test
+    void responseHeaders() {
+        Metadata metadata = new Metadata();
+        metadata.put(Metadata.Key.of("x-custom", Metadata.ASCII_STRING_MARSHALLER), "a");
+        metadata.put(Metadata.Key.of("x-custom", Metadata.ASCII_STRING_MARSHALLER), "b");
+        metadata.put(Metadata.Key.of("x-trace-bin", Metadata.BINARY_BYTE_MARSHALLER), new byte[] {1, 2, 3, 4});
+
+        List<String> headers = new ArrayList<>();
+        converter.forEachHeader(metadata, (name, value) -> headers.add(name + ": " + value));
+
+        assertThat(headers).containsExactlyInAnyOrder("x-custom: a", "x-custom: b", "x-trace-bin: AQIDBA");
+        assertThat(converter.toHeaders(metadata)).containsExactlyInAnyOrder(new Header("x-custom", "a"),
+                new Header("x-custom", "b"), new Header("x-trace-bin", "AQIDBA"));
+    }
+
+    @Test
+    void forwardingPolicy() {
+        var policy = HeaderForwardingPolicy.builder()
+                .addAllowed("x-*", "Authorization")
+                .addDenied("x-internal-*")
+                .build();
+
+        Metadata metadata = converter.toMetadata(request(browserHeaders()), policy);
+
+        assertThat(metadata.keys()).containsExactlyInAnyOrder("authorization", "x-custom");
+    }
+
+    @Test
+    void trimOversizedMetadata() {
+        var policy = HeaderForwardingPolicy.builder()
+                .setMaxMetadataSize(100)
+                .setOversizedAction(HeaderForwardingPolicy.OversizedAction.TRIM)
+                .build();
+
+        Metadata metadata = converter.toMetadata(request(browserHeaders()), policy);
+
+        // the cookie does not fit, the headers which follow it still do
+        assertThat(metadata.keys()).containsExactlyInAnyOrder("authorization", "x-custom");
+        assertThat(policy.apply(converter.toMetadata(request(browserHeaders()))).keys())
+                .containsExactlyInAnyOrder("authorization", "x-custom");
+    }
+
+    @Test
+    void rejectOversizedMetadata() {
+        var policy = HeaderForwardingPolicy.builder().setMaxMetadataSize(100).build();
+
+        assertThatThrownBy(() -> converter.toMetadata(request(browserHeaders()), policy))
+                .isInstanceOfSatisfying(StatusRuntimeException.class,
+                        e -> assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.RESOURCE_EXHAUSTED));
+    }
+
+    @Test
+    void overriddenConversions() {
+        var subclass = new DefaultHeaderConverter() {
+            @Override
+            public Metadata toMetadata(HttpServletRequest req, HeaderForwardingPolicy policy) {
+                Metadata metadata = super.toMetadata(req, policy);
+                metadata.put(Metadata.Key.of("x-added", Metadata.ASCII_STRING_MARSHALLER), "1");
+                return metadata;
+            }
+
+            @Override
+            public void forEachHeader(Metadata metadata, BiConsumer<String, String> action) {
+                super.forEachHeader(metadata, (name, value) -> {
+                    if (!name.equals("x-internal-id")) {
+                        action.accept(name, value);
+                    }
+                });
+            }
+        };
+        var policy = HeaderForwardingPolicy.builder().addAllowed("x-*").build();
+
+        assertThat(subclass.toMetadata(request(browserHeaders()), policy).keys())
+                .containsExactlyInAnyOrder("x-custom", "x-internal-id", "x-added");
+
+        Metadata metadata = new Metadata();
+        metadata.put(Metadata.Key.of("x-custom", Metadata.ASCII_STRING_MARSHALLER), "a");
+        metadata.put(Metadata.Key.of("x-internal-id", Metadata.ASCII_STRING_MARSHALLER), "1");
+        List<String> headers = new ArrayList<>();
+        subclass.forEachHeader(metadata, (name, value) -> headers.add(name + ": " + value));
+        assertThat(headers).containsExactly("x-custom: a");
+    }
+
+    @Test
+    void keyCacheEvictsLeastRecentlyUsed() {
+        var cache = new MetadataKeyCache(4);
+        Metadata.Key<String> a = cache.asciiKey("x-a");
+        Metadata.Key<String> b = cache.asciiKey("x-b");
+        cache.asciiKey("x-c");
+        cache.asciiKey("x-d");
+        assertThat(cache.asciiKey("x-a")).isSameAs(a);
+
+        // the cache is full, the least recently used half is evicted
+        cache.asciiKey("x-e");
+        assertThat(cache.asciiKey("x-a")).isSameAs(a);
+        assertThat(cache.asciiKey("x-b")).isNotSameAs(b).isEqualTo(b);
+        assertThat(cache.asciiKey("X-B")).isEqualTo(b);
+    }
+
+    @Test
+    void keyCacheKnownNames() {
+        var cache = new MetadataKeyCache(1);
+        for (int i = 0; i < 10; i++) {
+            cache.asciiKey("x-junk-" + i);
+        }
+        assertThat(cache.asciiKey("Authorization")).isSameAs(cache.asciiKey("authorization"));
+        assertThat(cache.asciiKey("authorization").name()).isEqualTo("authorization");
+        assertThat(cache.binaryKey("Grpc-Status-Details-Bin").name()).isEqualTo("grpc-status-details-bin");
+        assertThat(MetadataKeyCache.isBinary("X-Trace-BIN")).isTrue();
+        assertThat(MetadataKeyCache.isBinary("bin")).isFalse();
+    }
+
+    private static Map<String, List<String>> browserHeaders() {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        headers.put("Authorization", List.of("Bearer abc"));
+        headers.put("Cookie", List.of("session=" + "0".repeat(100)));
+        headers.put("X-Custom", List.of("a"));
+        headers.put("X-Internal-Id", List.of("1"));
+        return headers;
+    }
+
+    private static HttpServletRequest request(Map<String, List<String>> headers) {
+        return (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(),
+                new Class<?>[] {HttpServletRequest.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "getHeaderNames" -> Collections.enumeration(headers.keySet());
+                    case "getHeaders" -> Collections.enumeration(headers.getOrDefault((String) args[0], List.of()));
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
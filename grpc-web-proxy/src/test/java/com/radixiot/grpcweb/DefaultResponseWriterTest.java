@@ -0,0 +1,142 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.radixiot.grpcweb.ServletFakes.FakeResponse;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+
+class DefaultResponseWriterTest {
+
+    private final RecordingBufferPool bufferPool = new RecordingBufferPool();
+    private final FakeResponse response = new FakeResponse();
+    private final DefaultResponseWriter writer = response.writer(bufferPool);
+
+    @BeforeEach
+    void startNonBlocking() throws IOException {
+        writer.startNonBlocking();
+        writer.writeHeaders(new Metadata());
+    }
+
+    @Test
+    void queuedFramesDrainInOrder() throws IOException {
+        response.outputStream.setReady(false);
+        writer.writeFrame(Set.of(), message("first"));
+        writer.writeFrame(Set.of(), message("second"));
+        assertThat(response.outputStream.toByteArray()).isEmpty();
+
+        response.outputStream.setReady(true);
+        assertThat(response.outputStream.toByteArray()).isEqualTo(concat(
+                ServletFakes.frame(0, bytes("first")),
+                ServletFakes.frame(0, bytes("second"))));
+    }
+
+    @Test
+    void readyActionRunsOnce() throws IOException {
+        AtomicInteger count = new AtomicInteger();
+        writer.whenReady(count::incrementAndGet);
+        assertThat(count).hasValue(1);
+
+        response.outputStream.setReady(false);
+        writer.writeFrame(Set.of(), message("first"));
+        writer.whenReady(count::incrementAndGet);
+        assertThat(count).hasValue(1);
+
+        response.outputStream.setReady(true);
+        assertThat(count).hasValue(2);
+        // the container calls onWritePossible again, the action has already run
+        writer.onWritePossible();
+        assertThat(count).hasValue(2);
+    }
+
+    @Test
+    void trailersWaitForQueuedFrames() throws IOException {
+        response.outputStream.setReady(false);
+        writer.writeFrame(Set.of(), message("first"));
+        writer.writeTrailers(Status.OK, new Metadata());
+        assertThat(writer.trailersWritten()).isTrue();
+        assertThat(writer.closed().toCompletableFuture()).isNotDone();
+        assertThat(response.outputStream.closed()).isFalse();
+
+        response.outputStream.setReady(true);
+        byte[] written = response.outputStream.toByteArray();
+        byte[] frame = ServletFakes.frame(0, bytes("first"));
+        assertThat(written).startsWith(frame);
+        // the trailers frame follows the message frame
+        assertThat(written[frame.length]).isEqualTo((byte) FrameFlag.encode(Set.of(FrameFlag.TRAILERS)));
+        assertThat(response.outputStream.closed()).isTrue();
+        assertThat(writer.closed().toCompletableFuture()).isCompleted();
+    }
+
+    @Test
+    void releasesQueuedBuffersOnError() throws IOException {
+        response.outputStream.setReady(false);
+        writer.writeFrame(Set.of(), message("first"));
+        writer.writeFrame(Set.of(), message("second"));
+        int released = bufferPool.released.get();
+
+        response.outputStream.fail(new IOException("Connection reset"));
+        assertThat(bufferPool.released).hasValue(released + 2);
+        assertThat(writer.closed().toCompletableFuture()).isCompletedExceptionally();
+        assertThat(writer.trailersWritten()).isTrue();
+    }
+
+    private static ByteBuffer message(String message) {
+        return ByteBuffer.wrap(bytes(message));
+    }
+
+    private static byte[] bytes(String message) {
+        return message.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        var output = new ByteArrayOutputStream();
+        for (byte[] array : arrays) {
+            output.writeBytes(array);
+        }
+        return output.toByteArray();
+    }
+
+    private static class RecordingBufferPool implements BufferPool {
+        private final BufferPool delegate = new DefaultBufferPool();
+        private final AtomicInteger released = new AtomicInteger();
+
+        @Override
+        public ByteBuffer acquire(int minCapacity) {
+            return delegate.acquire(minCapacity);
+        }
+
+        @Override
+        public void release(ByteBuffer buffer) {
+            released.incrementAndGet();
+            delegate.release(buffer);
+        }
+    }
+}
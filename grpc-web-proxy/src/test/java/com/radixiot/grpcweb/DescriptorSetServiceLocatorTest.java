@@ -0,0 +1,87 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.protobuf.CodedOutputStream;
+
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.MethodType;
+
+class DescriptorSetServiceLocatorTest {
+
+    @Test
+    void locatesMethods() throws IOException {
+        byte[] method = message(out -> {
+            out.writeString(1, "Echo");
+            out.writeString(2, ".test.EchoRequest");
+            out.writeString(3, ".test.EchoResponse");
+        });
+        byte[] streamingMethod = message(out -> {
+            out.writeString(1, "Chat");
+            out.writeBool(5, true);
+            out.writeBool(6, true);
+        });
+        byte[] service = message(out -> {
+            out.writeString(1, "EchoService");
+            out.writeByteArray(2, method);
+            out.writeByteArray(2, streamingMethod);
+        });
+        byte[] file = message(out -> {
+            out.writeString(1, "test/echo.proto");
+            out.writeByteArray(6, service);
+            out.writeString(2, "test");
+        });
+        byte[] set = message(out -> {
+            out.writeByteArray(1, file);
+            out.writeByteArray(1, file);
+        });
+
+        var locator = DescriptorSetServiceLocator.load(new ByteArrayInputStream(set));
+
+        assertThat(locator.locate("test.EchoService").getMethods()).hasSize(2);
+        MethodDescriptor<?, ?> echo = locator.locateMethod("test.EchoService/Echo");
+        assertThat(echo.getType()).isEqualTo(MethodType.UNARY);
+        assertThat(echo.getRequestMarshaller()).isSameAs(ByteArrayMarshaller.INSTANCE);
+        assertThat(locator.locateMethod("test.EchoService/Chat").getType()).isEqualTo(MethodType.BIDI_STREAMING);
+        assertThatThrownBy(() -> locator.locateMethod("test.EchoService/Unknown"))
+                .isInstanceOf(NoSuchElementException.class);
+        assertThatThrownBy(() -> locator.locate("EchoService"))
+                .isInstanceOf(NoSuchElementException.class);
+    }
+
+    private interface MessageWriter {
+        void write(CodedOutputStream out) throws IOException;
+    }
+
+    private static byte[] message(MessageWriter writer) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        writer.write(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
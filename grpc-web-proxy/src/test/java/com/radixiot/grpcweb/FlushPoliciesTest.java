@@ -0,0 +1,158 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import com.radixiot.grpcweb.FlushPolicy.Flusher;
+import com.radixiot.grpcweb.ServletFakes.FakeResponse;
+
+import io.grpc.Metadata;
+
+class FlushPoliciesTest {
+
+    private static final long MS = 1_000_000;
+
+    @Test
+    void immediate() {
+        Flusher flusher = FlushPolicy.immediate().newFlusher();
+        assertThat(flusher.onWrite(0, 0)).isZero();
+        assertThat(flusher.onWrite(1, 0)).isZero();
+    }
+
+    @Test
+    void maxBytes() {
+        Flusher flusher = FlushPolicy.maxBytes(100).newFlusher();
+        assertThat(flusher.onWrite(99, 0)).isEqualTo(FlushPolicy.NO_DEADLINE);
+        assertThat(flusher.onWrite(100, 0)).isZero();
+        assertThat(flusher.onWrite(150, 0)).isZero();
+    }
+
+    @Test
+    void maxDelay() {
+        Flusher flusher = FlushPolicy.maxDelay(Duration.ofMillis(10), 100).newFlusher();
+        // the delay is measured from the first frame which has not been flushed
+        assertThat(flusher.onWrite(10, 0)).isEqualTo(10 * MS);
+        assertThat(flusher.onWrite(20, 4 * MS)).isEqualTo(6 * MS);
+        assertThat(flusher.onWrite(30, 12 * MS)).isZero();
+        assertThat(flusher.onWrite(100, 12 * MS)).isZero();
+
+        flusher.onFlush(12 * MS);
+        assertThat(flusher.onWrite(10, 20 * MS)).isEqualTo(10 * MS);
+        assertThat(flusher.onWrite(100, 21 * MS)).isZero();
+    }
+
+    @Test
+    void adaptive() {
+        Flusher flusher = FlushPolicy.adaptive(Duration.ofMillis(10), 100).newFlusher();
+        // frames written further apart than the delay are flushed immediately
+        assertThat(flusher.onWrite(10, 0)).isZero();
+        flusher.onFlush(0);
+        assertThat(flusher.onWrite(10, 20 * MS)).isZero();
+        flusher.onFlush(20 * MS);
+
+        // once frames arrive faster than the delay they are coalesced
+        long now = 20 * MS;
+        long delay = 0;
+        for (int i = 0; i < 10 && delay == 0; i++) {
+            now += MS;
+            delay = flusher.onWrite(10, now);
+            if (delay == 0) {
+                flusher.onFlush(now);
+            }
+        }
+        assertThat(delay).isEqualTo(10 * MS);
+        assertThat(flusher.onWrite(100, now + MS)).isZero();
+    }
+
+    @Test
+    void delayedFlush() throws IOException, InterruptedException {
+        var response = new FakeResponse();
+        DefaultResponseWriter writer = response.writer(new DefaultBufferPool());
+        writer.setFlushPolicy(FlushPolicy.maxDelay(Duration.ofMillis(500), 100));
+
+        writer.writeHeaders(new Metadata());
+        assertThat(response.flushes).hasValue(0);
+        awaitFlushes(response, 1);
+
+        // a frame which reaches the size limit flushes now, and cancels the delayed flush of the smaller frame
+        writer.writeFrame(Set.of(), ByteBuffer.wrap(new byte[10]));
+        writer.writeFrame(Set.of(), ByteBuffer.wrap(new byte[100]));
+        assertThat(response.flushes).hasValue(2);
+        Thread.sleep(1000);
+        assertThat(response.flushes).hasValue(2);
+    }
+
+    @Test
+    void slowBlockingFlushDoesNotDelayOtherResponses() throws IOException, InterruptedException {
+        var gate = new CountDownLatch(1);
+        var bufferPool = new DefaultBufferPool();
+        try {
+            // more blocked flushes than there are scheduler threads
+            for (int i = 0; i < Math.max(2, Runtime.getRuntime().availableProcessors()); i++) {
+                var slow = new FakeResponse();
+                slow.flushGate = gate;
+                DefaultResponseWriter writer = slow.writer(bufferPool);
+                writer.setFlushPolicy(FlushPolicy.maxDelay(Duration.ofMillis(1), 100));
+                writer.writeHeaders(new Metadata());
+            }
+            Thread.sleep(100);
+
+            var response = new FakeResponse();
+            DefaultResponseWriter writer = response.writer(bufferPool);
+            writer.setFlushPolicy(FlushPolicy.maxDelay(Duration.ofMillis(1), 100));
+            writer.writeHeaders(new Metadata());
+            awaitFlushes(response, 1);
+        } finally {
+            gate.countDown();
+        }
+    }
+
+    @Test
+    void blockingFlushRunsOnCallExecutor() throws IOException, InterruptedException {
+        var response = new FakeResponse();
+        DefaultResponseWriter writer = response.writer(new DefaultBufferPool());
+        writer.setFlushPolicy(FlushPolicy.maxDelay(Duration.ofMillis(1), 100));
+        var flushThread = new AtomicReference<String>();
+        writer.setBlockingFlushExecutor(runnable -> new Thread(() -> {
+            flushThread.set(Thread.currentThread().getName());
+            runnable.run();
+        }, "call-executor").start());
+
+        writer.writeHeaders(new Metadata());
+        awaitFlushes(response, 1);
+        assertThat(flushThread).hasValue("call-executor");
+    }
+
+    private static void awaitFlushes(FakeResponse response, int flushes) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (response.flushes.get() < flushes && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(response.flushes).hasValue(flushes);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class FrameCompressorTest {
+
+    private final BufferPool bufferPool = new DefaultBufferPool();
+    private final ZipPool<Deflater> deflaterPool = ZipPool.deflaters();
+    private @Nullable FrameCompressor compressor;
+
+    @AfterEach
+    void release() {
+        if (compressor != null) {
+            compressor.release();
+        }
+    }
+
+    @Test
+    void threshold() {
+        FrameCompressor compressor = compressor(MessageEncoding.GZIP, 1024);
+        assertThat(compressor.compresses(1023)).isFalse();
+        assertThat(compressor.compresses(1024)).isTrue();
+        assertThat(compressor.compress(ByteBuffer.wrap(new byte[1023]))).isNull();
+        assertThat(compressor.compress(ByteBuffer.wrap(new byte[1024]))).isNotNull();
+
+        // tiny frames are never compressed, even with a lower threshold
+        FrameCompressor noThreshold = compressor(MessageEncoding.GZIP, 0);
+        assertThat(noThreshold.compresses(16)).isFalse();
+        noThreshold.release();
+    }
+
+    @Test
+    void gzip() throws IOException {
+        FrameCompressor compressor = compressor(MessageEncoding.GZIP, 0);
+        byte[] message = compressible(4096);
+        ByteBuffer input = ByteBuffer.wrap(message);
+
+        ByteBuffer compressed = compressor.compress(input);
+        assertThat(compressed).isNotNull();
+        assertThat(compressed.remaining()).isLessThan(message.length);
+        assertThat(input.position()).isZero();
+        assertThat(inflate(new GZIPInputStream(new ByteArrayInputStream(bytes(compressed))))).isEqualTo(message);
+    }
+
+    @Test
+    void deflate() throws IOException {
+        FrameCompressor compressor = compressor(MessageEncoding.DEFLATE, 0);
+        byte[] message = compressible(4096);
+
+        ByteBuffer compressed = compressor.compress(ByteBuffer.wrap(message));
+        assertThat(compressed).isNotNull();
+        assertThat(inflate(new InflaterInputStream(new ByteArrayInputStream(bytes(compressed))))).isEqualTo(message);
+    }
+
+    @Test
+    void incompressible() {
+        FrameCompressor compressor = compressor(MessageEncoding.GZIP, 0);
+        byte[] message = new byte[4096];
+        new Random(0).nextBytes(message);
+        // random data does not get any smaller, the frame is sent uncompressed
+        assertThat(compressor.compress(ByteBuffer.wrap(message))).isNull();
+    }
+
+    private FrameCompressor compressor(MessageEncoding encoding, int threshold) {
+        FrameCompressor compressor = new FrameCompressor(encoding, Deflater.DEFAULT_COMPRESSION, threshold,
+                deflaterPool, bufferPool);
+        this.compressor = compressor;
+        return compressor;
+    }
+
+    static byte[] compressible(int length) {
+        byte[] message = new byte[length];
+        for (int i = 0; i < length; i++) {
+            message[i] = (byte) ('a' + i % 7);
+        }
+        return message;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static byte[] inflate(InputStream inputStream) throws IOException {
+        try (inputStream) {
+            return inputStream.readAllBytes();
+        }
+    }
+}
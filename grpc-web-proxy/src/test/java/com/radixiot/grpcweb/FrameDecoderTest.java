@@ -0,0 +1,198 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import io.grpc.MethodDescriptor.Marshaller;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+class FrameDecoderTest {
+
+    private final List<String> messages = new ArrayList<>();
+    private boolean ended = false;
+
+    private final FrameDecoder.Listener<String> listener = new FrameDecoder.Listener<>() {
+        @Override
+        public void onMessage(String message) {
+            messages.add(message);
+        }
+
+        @Override
+        public void onEndOfStream() {
+            ended = true;
+        }
+    };
+    private final FrameDecoder<String> decoder = new FrameDecoder<>(new StringMarshaller(), 1024,
+            new DefaultBufferPool(), listener);
+
+    @Test
+    void singleChunk() throws IOException {
+        byte[] body = body("hello", "", "world");
+        decoder.decode(body, 0, body.length);
+        decoder.endOfStream();
+
+        assertThat(messages).containsExactly("hello", "", "world");
+        assertThat(ended).isTrue();
+    }
+
+    @Test
+    void chunkPerByte() throws IOException {
+        byte[] body = body("hello", "", "world");
+        for (int i = 0; i < body.length; i++) {
+            decoder.decode(body, i, 1);
+        }
+        decoder.endOfStream();
+
+        assertThat(messages).containsExactly("hello", "", "world");
+    }
+
+    @Test
+    void frameSpanningChunks() throws IOException {
+        byte[] body = body("a".repeat(600), "b".repeat(300));
+        decoder.decode(body, 0, 300);
+        decoder.decode(body, 300, body.length - 300);
+        decoder.endOfStream();
+
+        assertThat(messages).containsExactly("a".repeat(600), "b".repeat(300));
+    }
+
+    @Test
+    void incompleteFrame() throws IOException {
+        byte[] body = body("hello");
+        decoder.decode(body, 0, body.length - 1);
+
+        assertThatThrownBy(decoder::endOfStream).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void frameTooLarge() {
+        byte[] body = body("a".repeat(1025));
+
+        assertThatThrownBy(() -> decoder.decode(body, 0, body.length))
+                .isInstanceOfSatisfying(StatusRuntimeException.class,
+                        e -> assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.RESOURCE_EXHAUSTED));
+    }
+
+    @Test
+    void gzipFrames() throws IOException {
+        var gzipDecoder = compressedDecoder(MessageEncoding.GZIP);
+        byte[] body = compressedBody(MessageEncoding.GZIP, "hello", "a".repeat(1000));
+        gzipDecoder.decode(body, 0, 10);
+        gzipDecoder.decode(body, 10, body.length - 10);
+        gzipDecoder.endOfStream();
+
+        assertThat(messages).containsExactly("hello", "a".repeat(1000));
+    }
+
+    @Test
+    void deflateFrames() throws IOException {
+        var deflateDecoder = compressedDecoder(MessageEncoding.DEFLATE);
+        byte[] body = compressedBody(MessageEncoding.DEFLATE, "hello", "world");
+        deflateDecoder.decode(body, 0, body.length);
+        deflateDecoder.endOfStream();
+
+        assertThat(messages).containsExactly("hello", "world");
+    }
+
+    @Test
+    void decompressedFrameTooLarge() {
+        var gzipDecoder = compressedDecoder(MessageEncoding.GZIP);
+        byte[] body = compressedBody(MessageEncoding.GZIP, "a".repeat(1025));
+
+        assertThatThrownBy(() -> gzipDecoder.decode(body, 0, body.length))
+                .isInstanceOfSatisfying(StatusRuntimeException.class,
+                        e -> assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.RESOURCE_EXHAUSTED));
+    }
+
+    @Test
+    void compressedWithoutEncoding() {
+        byte[] body = compressedBody(MessageEncoding.GZIP, "hello");
+
+        assertThatThrownBy(() -> decoder.decode(body, 0, body.length))
+                .isInstanceOfSatisfying(StatusRuntimeException.class,
+                        e -> assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.INTERNAL));
+    }
+
+    private FrameDecoder<String> compressedDecoder(MessageEncoding encoding) {
+        var bufferPool = new DefaultBufferPool();
+        var decompressor = new FrameDecompressor(encoding, ZipPool.inflaters(), bufferPool, 1024);
+        return new FrameDecoder<>(new StringMarshaller(), 1024, bufferPool, decompressor, listener);
+    }
+
+    private static byte[] compressedBody(MessageEncoding encoding, String... messages) {
+        var outputStream = new ByteArrayOutputStream();
+        for (String message : messages) {
+            var compressed = new ByteArrayOutputStream();
+            try (OutputStream compressor = encoding == MessageEncoding.GZIP ?
+                    new GZIPOutputStream(compressed) : new DeflaterOutputStream(compressed)) {
+                compressor.write(message.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            byte[] bytes = compressed.toByteArray();
+            outputStream.write(1);
+            outputStream.writeBytes(ByteBuffer.allocate(4).putInt(bytes.length).array());
+            outputStream.writeBytes(bytes);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private static byte[] body(String... messages) {
+        var outputStream = new ByteArrayOutputStream();
+        for (String message : messages) {
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            outputStream.write(0);
+            outputStream.writeBytes(ByteBuffer.allocate(4).putInt(bytes.length).array());
+            outputStream.writeBytes(bytes);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private static class StringMarshaller implements Marshaller<String> {
+        @Override
+        public InputStream stream(String value) {
+            return new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String parse(InputStream stream) {
+            try {
+                return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+class GrpcTimeoutTest {
+
+    @Test
+    void units() {
+        assertThat(GrpcTimeout.parseNanos("2H")).isEqualTo(Duration.ofHours(2).toNanos());
+        assertThat(GrpcTimeout.parseNanos("3M")).isEqualTo(Duration.ofMinutes(3).toNanos());
+        assertThat(GrpcTimeout.parseNanos("10S")).isEqualTo(Duration.ofSeconds(10).toNanos());
+        assertThat(GrpcTimeout.parseNanos("250m")).isEqualTo(Duration.ofMillis(250).toNanos());
+        assertThat(GrpcTimeout.parseNanos("7u")).isEqualTo(7_000L);
+        assertThat(GrpcTimeout.parseNanos("99999999n")).isEqualTo(99_999_999L);
+    }
+
+    @Test
+    void saturates() {
+        assertThat(GrpcTimeout.parseNanos("99999999H")).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    void invalid() {
+        assertThat(GrpcTimeout.parseNanos("")).isEqualTo(GrpcTimeout.INVALID);
+        assertThat(GrpcTimeout.parseNanos("S")).isEqualTo(GrpcTimeout.INVALID);
+        assertThat(GrpcTimeout.parseNanos("10")).isEqualTo(GrpcTimeout.INVALID);
+        assertThat(GrpcTimeout.parseNanos("10s")).isEqualTo(GrpcTimeout.INVALID);
+        assertThat(GrpcTimeout.parseNanos("-1S")).isEqualTo(GrpcTimeout.INVALID);
+        assertThat(GrpcTimeout.parseNanos("123456789S")).isEqualTo(GrpcTimeout.INVALID);
+        assertThatThrownBy(() -> new DefaultHeaderConverter().parseTimeoutNanos("1 S"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    void parseTimeoutWrapsParseTimeoutNanos() {
+        var converter = new DefaultHeaderConverter() {
+            @Override
+            public long parseTimeoutNanos(String timeout) {
+                return timeout.equals("forever") ? Long.MAX_VALUE : super.parseTimeoutNanos(timeout);
+            }
+        };
+        assertThat(converter.parseTimeout("10S")).isEqualTo(Duration.ofSeconds(10));
+        assertThat(converter.parseTimeout("forever")).isEqualTo(Duration.ofNanos(Long.MAX_VALUE));
+        assertThatThrownBy(() -> converter.parseTimeout("10s")).isInstanceOf(IllegalArgumentException.class);
+    }
+}
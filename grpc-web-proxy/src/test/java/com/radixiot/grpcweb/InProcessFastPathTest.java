@@ -0,0 +1,180 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.grpc.CallOptions;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+
+class InProcessFastPathTest {
+
+    private static final String SERVER_NAME = "in-process-fast-path-test";
+    private static final MethodDescriptor<byte[], byte[]> FAST = method("Fast");
+    private static final MethodDescriptor<byte[], byte[]> SLOW = method("Slow");
+    private static final Duration REPROBE_INTERVAL = Duration.ofSeconds(1);
+
+    private final ExecutorService offloadExecutor = Executors.newCachedThreadPool();
+    private final InProcessFastPath fastPath = InProcessFastPath.builder(offloadExecutor)
+            .setBlockingThreshold(Duration.ofMillis(20))
+            .setReprobeInterval(REPROBE_INTERVAL)
+            .build();
+    private volatile boolean blocking = true;
+    private Server server;
+    private ManagedChannel channel;
+
+    @BeforeEach
+    void start() throws IOException {
+        this.server = fastPath.configure(InProcessServerBuilder.forName(SERVER_NAME))
+                .addService(ServerServiceDefinition.builder("test.Service")
+                        .addMethod(FAST, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                            responseObserver.onNext(threadName());
+                            responseObserver.onCompleted();
+                        }))
+                        .addMethod(SLOW, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                            if (blocking) {
+                                sleep(50);
+                            }
+                            responseObserver.onNext(threadName());
+                            responseObserver.onCompleted();
+                        }))
+                        .build())
+                .build()
+                .start();
+        this.channel = fastPath.newChannel(SERVER_NAME);
+    }
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        channel.shutdownNow();
+        server.shutdownNow();
+        offloadExecutor.shutdownNow();
+        offloadExecutor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void runsOnCallingThread() {
+        String caller = Thread.currentThread().getName();
+
+        assertThat(call(FAST)).isEqualTo(caller);
+        assertThat(call(FAST)).isEqualTo(caller);
+        assertThat(fastPath.offloadedMethods()).isEmpty();
+    }
+
+    @Test
+    void offloadsBlockingMethods() {
+        String caller = Thread.currentThread().getName();
+
+        assertThat(call(SLOW)).isEqualTo(caller);
+        assertThat(fastPath.offloadedMethods()).containsExactly(SLOW.getFullMethodName());
+        assertThat(call(SLOW)).isNotEqualTo(caller);
+        assertThat(call(FAST)).isEqualTo(caller);
+    }
+
+    @Test
+    void reprobesBlockingMethods() throws InterruptedException {
+        String caller = Thread.currentThread().getName();
+
+        assertThat(call(SLOW)).isEqualTo(caller);
+        this.blocking = false;
+        assertThat(call(SLOW)).isNotEqualTo(caller);
+
+        Thread.sleep(REPROBE_INTERVAL.toMillis() + 100);
+        assertThat(call(SLOW)).isEqualTo(caller);
+        assertThat(fastPath.offloadedMethods()).isEmpty();
+        assertThat(call(SLOW)).isEqualTo(caller);
+    }
+
+    @Test
+    void resetBlockingMethod() {
+        String caller = Thread.currentThread().getName();
+
+        assertThat(call(SLOW)).isEqualTo(caller);
+        assertThat(fastPath.resetBlockingMethod(SLOW.getFullMethodName())).isTrue();
+        assertThat(fastPath.offloadedMethods()).isEmpty();
+        this.blocking = false;
+        assertThat(call(SLOW)).isEqualTo(caller);
+    }
+
+    @Test
+    void slowClientIsNotBlocking() throws Exception {
+        var completed = new CompletableFuture<Void>();
+        ClientCalls.asyncUnaryCall(channel.newCall(FAST, CallOptions.DEFAULT), new byte[0], new StreamObserver<>() {
+            @Override
+            public void onNext(byte[] value) {
+                // the response is delivered while the service sends it, as a slow HTTP response would be written
+                sleep(50);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                completed.completeExceptionally(t);
+            }
+
+            @Override
+            public void onCompleted() {
+                completed.complete(null);
+            }
+        });
+
+        completed.get(5, TimeUnit.SECONDS);
+        assertThat(fastPath.offloadedMethods()).isEmpty();
+    }
+
+    private String call(MethodDescriptor<byte[], byte[]> method) {
+        byte[] response = ClientCalls.blockingUnaryCall(channel, method, CallOptions.DEFAULT, new byte[0]);
+        return new String(response, StandardCharsets.UTF_8);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[] threadName() {
+        return Thread.currentThread().getName().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static MethodDescriptor<byte[], byte[]> method(String name) {
+        return MethodDescriptor.newBuilder(ByteArrayMarshaller.INSTANCE, ByteArrayMarshaller.INSTANCE)
+                .setType(MethodDescriptor.MethodType.UNARY)
+                .setFullMethodName("test.Service/" + name)
+                .build();
+    }
+}
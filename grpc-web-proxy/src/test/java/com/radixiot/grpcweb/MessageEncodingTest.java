@@ -0,0 +1,56 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class MessageEncodingTest {
+
+    @Test
+    void negotiate() {
+        assertThat(MessageEncoding.negotiate(null)).isEqualTo(MessageEncoding.IDENTITY);
+        assertThat(MessageEncoding.negotiate("")).isEqualTo(MessageEncoding.IDENTITY);
+        assertThat(MessageEncoding.negotiate("identity")).isEqualTo(MessageEncoding.IDENTITY);
+        assertThat(MessageEncoding.negotiate("deflate")).isEqualTo(MessageEncoding.DEFLATE);
+        assertThat(MessageEncoding.negotiate("gzip")).isEqualTo(MessageEncoding.GZIP);
+    }
+
+    @Test
+    void negotiatePrefersGzip() {
+        assertThat(MessageEncoding.negotiate("identity,deflate,gzip")).isEqualTo(MessageEncoding.GZIP);
+        assertThat(MessageEncoding.negotiate("deflate, GZIP")).isEqualTo(MessageEncoding.GZIP);
+        assertThat(MessageEncoding.negotiate("identity, deflate")).isEqualTo(MessageEncoding.DEFLATE);
+    }
+
+    @Test
+    void negotiateIgnoresUnsupported() {
+        assertThat(MessageEncoding.negotiate("snappy,br")).isEqualTo(MessageEncoding.IDENTITY);
+        assertThat(MessageEncoding.negotiate("snappy, deflate")).isEqualTo(MessageEncoding.DEFLATE);
+        // only whole names match
+        assertThat(MessageEncoding.negotiate("gzipx,xdeflate")).isEqualTo(MessageEncoding.IDENTITY);
+    }
+
+    @Test
+    void forHeader() {
+        assertThat(MessageEncoding.forHeader(null)).isEqualTo(MessageEncoding.IDENTITY);
+        assertThat(MessageEncoding.forHeader(" Gzip ")).isEqualTo(MessageEncoding.GZIP);
+        assertThat(MessageEncoding.forHeader("deflate")).isEqualTo(MessageEncoding.DEFLATE);
+        assertThat(MessageEncoding.forHeader("snappy")).isNull();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.jupiter.api.Test;
+
+import com.radixiot.grpcweb.ServletFakes.FakeResponse;
+
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor.Marshaller;
+
+class MessageResponseWriterTest {
+
+    private final BufferPool bufferPool = new DefaultBufferPool();
+    private final FakeResponse response = new FakeResponse();
+
+    @Test
+    void compressedFlag() throws IOException {
+        var writer = writer(compressor(MessageEncoding.GZIP));
+        byte[] message = FrameCompressorTest.compressible(4096);
+        writer.writeHeaders(new Metadata());
+        writer.writeMessage(message);
+        writer.release();
+
+        assertThat(response.headers).containsEntry("grpc-encoding", "gzip");
+        byte[] body = response.outputStream.toByteArray();
+        assertThat(FrameFlag.decode(body[0])).containsExactly(FrameFlag.COMPRESSED);
+        int length = ByteBuffer.wrap(body, 1, 4).getInt();
+        assertThat(length).isEqualTo(body.length - FrameDecoder.HEADER_LENGTH).isLessThan(message.length);
+        try (var inputStream = new GZIPInputStream(new ByteArrayInputStream(body, FrameDecoder.HEADER_LENGTH,
+                length))) {
+            assertThat(inputStream.readAllBytes()).isEqualTo(message);
+        }
+    }
+
+    @Test
+    void smallMessageIsNotCompressed() throws IOException {
+        var writer = writer(compressor(MessageEncoding.GZIP));
+        byte[] message = FrameCompressorTest.compressible(100);
+        writer.writeHeaders(new Metadata());
+        writer.writeMessage(message);
+        writer.release();
+
+        // the encoding applies to the response, each frame has its own compressed flag
+        assertThat(response.headers).containsEntry("grpc-encoding", "gzip");
+        assertThat(response.outputStream.toByteArray()).isEqualTo(ServletFakes.frame(0, message));
+    }
+
+    @Test
+    void identity() throws IOException {
+        var writer = writer(null);
+        byte[] message = FrameCompressorTest.compressible(4096);
+        writer.writeHeaders(new Metadata());
+        writer.writeMessage(message);
+        writer.release();
+
+        assertThat(response.headers).doesNotContainKey("grpc-encoding")
+                .containsEntry("grpc-accept-encoding", MessageEncoding.ACCEPT_ENCODING);
+        assertThat(response.outputStream.toByteArray()).isEqualTo(ServletFakes.frame(0, message));
+    }
+
+    @Test
+    void drainedLengthMismatch() throws IOException {
+        // the stream reports one more byte than it writes, the frame header would be wrong
+        Marshaller<byte[]> marshaller = new Marshaller<>() {
+            @Override
+            public InputStream stream(byte[] value) {
+                return new ShortStream(value);
+            }
+
+            @Override
+            public byte[] parse(InputStream stream) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        var writer = new MessageResponseWriter<>(response.writer(bufferPool), marshaller, bufferPool, null);
+        writer.writeHeaders(new Metadata());
+
+        assertThatThrownBy(() -> writer.writeMessage(new byte[100]))
+                .isInstanceOf(IOException.class)
+                .hasMessage("Message length 100 does not match expected length 101");
+        writer.release();
+    }
+
+    private MessageResponseWriter<byte[]> writer(@Nullable FrameCompressor compressor) {
+        return new MessageResponseWriter<>(response.writer(bufferPool), ByteArrayMarshaller.INSTANCE, bufferPool,
+                compressor);
+    }
+
+    private FrameCompressor compressor(MessageEncoding encoding) {
+        return new FrameCompressor(encoding, Deflater.DEFAULT_COMPRESSION, 1024, ZipPool.deflaters(), bufferPool);
+    }
+
+    private static class ShortStream extends ByteArrayInputStream implements KnownLength, Drainable {
+        private ShortStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public synchronized int available() {
+            return super.available() + 1;
+        }
+
+        @Override
+        public int drainTo(OutputStream target) throws IOException {
+            int count = this.count - this.pos;
+            target.write(this.buf, this.pos, count);
+            this.pos = this.count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.Marshaller;
+import io.grpc.ServiceDescriptor;
+
+class PassThroughServiceLocatorTest {
+
+    private static final MethodDescriptor<String, String> METHOD = MethodDescriptor
+            .newBuilder(new StringMarshaller(), new StringMarshaller())
+            .setType(MethodDescriptor.MethodType.SERVER_STREAMING)
+            .setFullMethodName("test.Service/Method")
+            .build();
+    private static final ServiceDescriptor SERVICE = new ServiceDescriptor("test.Service", METHOD);
+
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final PassThroughServiceLocator locator = new PassThroughServiceLocator(serviceName -> {
+        lookups.incrementAndGet();
+        return SERVICE;
+    });
+
+    @Test
+    void locateMethod() {
+        MethodDescriptor<?, ?> method = locator.locateMethod("test.Service/Method");
+        assertThat(method.getFullMethodName()).isEqualTo(METHOD.getFullMethodName());
+        assertThat(method.getType()).isEqualTo(MethodDescriptor.MethodType.SERVER_STREAMING);
+        assertThat(method.getRequestMarshaller()).isSameAs(ByteArrayMarshaller.INSTANCE);
+        assertThat(method.getResponseMarshaller()).isSameAs(ByteArrayMarshaller.INSTANCE);
+
+        assertThat(locator.locateMethod("test.Service/Method")).isSameAs(method);
+        assertThat(lookups).hasValue(1);
+    }
+
+    @Test
+    void locateService() {
+        ServiceDescriptor service = locator.locate("test.Service");
+        assertThat(service.getName()).isEqualTo("test.Service");
+        assertThat(service.getMethods()).singleElement()
+                .isSameAs(locator.locateMethod("test.Service/Method"));
+        assertThat(locator.locate("test.Service")).isSameAs(service);
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        @SuppressWarnings("unchecked")
+        var method = (MethodDescriptor<byte[], byte[]>) locator.locateMethod("test.Service/Method");
+
+        // bytes serialized by the client are forwarded unchanged, and parse with the original marshaller
+        byte[] serialized = METHOD.streamRequest("hello").readAllBytes();
+        byte[] forwarded = method.parseRequest(METHOD.streamRequest("hello"));
+        assertThat(forwarded).isEqualTo(serialized);
+        assertThat(METHOD.parseResponse(method.streamResponse(forwarded))).isEqualTo("hello");
+    }
+
+    @Test
+    void byteArrayStream() throws IOException {
+        byte[] message = "hello".getBytes(StandardCharsets.UTF_8);
+        InputStream inputStream = ByteArrayMarshaller.INSTANCE.stream(message);
+        assertThat(inputStream).isInstanceOf(KnownLength.class).isInstanceOf(Drainable.class);
+        assertThat(inputStream.available()).isEqualTo(message.length);
+
+        var output = new ByteArrayOutputStream();
+        assertThat(((Drainable) inputStream).drainTo(output)).isEqualTo(message.length);
+        assertThat(output.toByteArray()).isEqualTo(message);
+        assertThat(inputStream.available()).isZero();
+        assertThat(ByteArrayMarshaller.INSTANCE.parse(ByteArrayMarshaller.INSTANCE.stream(message)))
+                .isEqualTo(message);
+    }
+
+    private static class StringMarshaller implements Marshaller<String> {
+        @Override
+        public InputStream stream(String value) {
+            return new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String parse(InputStream stream) {
+            try {
+                return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+
+class PooledChannelManagerTest {
+
+    private static final String SERVER_NAME = "pooled-channel-manager-test";
+    private static final MethodDescriptor<byte[], byte[]> METHOD = MethodDescriptor
+            .newBuilder(ByteArrayMarshaller.INSTANCE, ByteArrayMarshaller.INSTANCE)
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName("test.Service/Method")
+            .build();
+
+    private final List<StreamObserver<byte[]>> pendingResponses = new ArrayList<>();
+    private final List<ManagedChannel> channels = new ArrayList<>();
+    private Server server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        this.server = InProcessServerBuilder.forName(SERVER_NAME)
+                .directExecutor()
+                .addService(ServerServiceDefinition.builder("test.Service")
+                        .addMethod(METHOD, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                            synchronized (pendingResponses) {
+                                pendingResponses.add(responseObserver);
+                            }
+                        }))
+                        .build())
+                .build()
+                .start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.shutdownNow();
+    }
+
+    @Test
+    void routesServices() throws InterruptedException {
+        var manager = manager(PooledChannelManager.Strategy.ROUND_ROBIN)
+                .addTarget("a", "test.Service")
+                .build();
+
+        assertThat(manager.getChannel("test.Service", "Method")).isInstanceOf(PooledChannelManager.ChannelPool.class);
+        assertThatThrownBy(() -> manager.getChannel("test.Other", "Method"))
+                .isInstanceOfSatisfying(StatusRuntimeException.class,
+                        e -> assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.UNIMPLEMENTED));
+        assertThat(channels).hasSize(2);
+
+        manager.shutdown();
+        assertThat(manager.awaitTermination(Duration.ofSeconds(5))).isTrue();
+        assertThat(channels).allMatch(ManagedChannel::isTerminated);
+    }
+
+    @Test
+    void roundRobin() {
+        var manager = manager(PooledChannelManager.Strategy.ROUND_ROBIN).setDefaultTarget("a").build();
+        var pool = (PooledChannelManager.ChannelPool) manager.getChannel("test.Service", "Method");
+
+        assertThat(List.of(pool.nextIndex(), pool.nextIndex(), pool.nextIndex())).containsExactly(0, 1, 0);
+        manager.shutdownNow();
+    }
+
+    @Test
+    void leastOutstanding() {
+        var manager = manager(PooledChannelManager.Strategy.LEAST_OUTSTANDING).setDefaultTarget("a").build();
+        var pool = (PooledChannelManager.ChannelPool) manager.getChannel("test.Service", "Method");
+
+        startCall(pool);
+        startCall(pool);
+        startCall(pool);
+        assertThat(pool.outstanding(0) + pool.outstanding(1)).isEqualTo(3);
+        assertThat(Math.abs(pool.outstanding(0) - pool.outstanding(1))).isEqualTo(1);
+
+        synchronized (pendingResponses) {
+            for (StreamObserver<byte[]> response : pendingResponses) {
+                response.onNext(new byte[0]);
+                response.onCompleted();
+            }
+        }
+        assertThat(pool.outstanding(0) + pool.outstanding(1)).isZero();
+        manager.shutdownNow();
+    }
+
+    private PooledChannelManager.Builder manager(PooledChannelManager.Strategy strategy) {
+        return PooledChannelManager.builder()
+                .setChannelsPerTarget(2)
+                .setStrategy(strategy)
+                .setChannelFactory(target -> {
+                    ManagedChannel channel = InProcessChannelBuilder.forName(SERVER_NAME).directExecutor().build();
+                    channels.add(channel);
+                    return channel;
+                });
+    }
+
+    private static void startCall(PooledChannelManager.ChannelPool pool) {
+        ClientCall<byte[], byte[]> call = pool.newCall(METHOD, CallOptions.DEFAULT);
+        call.start(new ClientCall.Listener<>() {}, new Metadata());
+        call.request(1);
+        call.sendMessage(new byte[0]);
+        call.halfClose();
+    }
+}
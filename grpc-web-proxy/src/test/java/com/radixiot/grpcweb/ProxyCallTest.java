@@ -0,0 +1,345 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.radixiot.grpcweb.ServletFakes.FakeInputStream;
+import com.radixiot.grpcweb.ServletFakes.FakeResponse;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+
+class ProxyCallTest {
+
+    private static final MethodDescriptor<byte[], byte[]> UNARY = MethodDescriptor
+            .newBuilder(ByteArrayMarshaller.INSTANCE, ByteArrayMarshaller.INSTANCE)
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName("test.Service/Unary")
+            .build();
+    private static final MethodDescriptor<byte[], byte[]> CLIENT_STREAMING = MethodDescriptor
+            .newBuilder(ByteArrayMarshaller.INSTANCE, ByteArrayMarshaller.INSTANCE)
+            .setType(MethodDescriptor.MethodType.CLIENT_STREAMING)
+            .setFullMethodName("test.Service/ClientStreaming")
+            .build();
+
+    private static final Metadata.Key<String> TENANT = Metadata.Key.of("x-tenant-id",
+            Metadata.ASCII_STRING_MARSHALLER);
+
+    private final BufferPool bufferPool = new DefaultBufferPool();
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private @Nullable Server server;
+    private @Nullable ManagedChannel channel;
+    private volatile CountDownLatch received = new CountDownLatch(1);
+
+    @AfterEach
+    void stop() {
+        executor.shutdownNow();
+        if (channel != null) {
+            channel.shutdownNow();
+        }
+        if (server != null) {
+            server.shutdownNow();
+        }
+    }
+
+    @Test
+    void releasesLimitWhenCallFailsToStart() {
+        var concurrencyLimit = singleCallLimit();
+        Channel channel = new PendingChannel() {
+            @Override
+            public <T, R> ClientCall<T, R> newCall(MethodDescriptor<T, R> method, CallOptions callOptions) {
+                throw Status.UNAVAILABLE.withDescription("Channel shutdown").asRuntimeException();
+            }
+        };
+
+        for (int i = 0; i < 2; i++) {
+            var call = proxyCall(channel, UNARY, new Metadata(), concurrencyLimit);
+            call.onMessage(new byte[0]);
+            assertThatThrownBy(call::onEndOfStream)
+                    .isInstanceOfSatisfying(StatusRuntimeException.class,
+                            e -> assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.UNAVAILABLE));
+            assertThat(concurrencyLimit.limiter(channel).inFlight()).isZero();
+        }
+    }
+
+    @Test
+    void limitsEachAffinityBackend() {
+        var concurrencyLimit = singleCallLimit();
+        var a = new PendingChannel();
+        var b = new PendingChannel();
+        var manager = AffinityChannelManager.builder()
+                .addBackend("a", a)
+                .addBackend("b", b)
+                .setKeyHeader(TENANT.name())
+                .build();
+        Channel channel = manager.getChannel("test.Service", "Unary");
+        String tenantA = tenantOf(manager, a);
+        String tenantB = tenantOf(manager, b);
+
+        startUnary(channel, tenantA, concurrencyLimit);
+        startUnary(channel, tenantB, concurrencyLimit);
+        assertThat(a.started).isEqualTo(1);
+        assertThat(b.started).isEqualTo(1);
+        assertThatThrownBy(() -> startUnary(channel, tenantA, concurrencyLimit))
+                .isInstanceOfSatisfying(StatusRuntimeException.class,
+                        e -> assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.RESOURCE_EXHAUSTED));
+        assertThat(concurrencyLimit.limiter(a).inFlight()).isEqualTo(1);
+        assertThat(concurrencyLimit.limiter(b).inFlight()).isEqualTo(1);
+    }
+
+    @Test
+    void limitsEachPooledTarget() {
+        var concurrencyLimit = singleCallLimit();
+        var manager = PooledChannelManager.builder()
+                .addTarget("target-a", "test.ServiceA")
+                .addTarget("target-b", "test.ServiceB")
+                .setChannelFactory(target -> InProcessChannelBuilder.forName(target).build())
+                .build();
+        try {
+            Channel a = manager.getChannel("test.ServiceA", "Unary");
+            assertThat(manager.getChannel("test.ServiceA", "Other")).isSameAs(a);
+            assertThat(concurrencyLimit.limiter(manager.getChannel("test.ServiceA", "Other")))
+                    .isSameAs(concurrencyLimit.limiter(a))
+                    .isNotSameAs(concurrencyLimit.limiter(manager.getChannel("test.ServiceB", "Unary")));
+        } finally {
+            manager.shutdownNow();
+        }
+    }
+
+    @Test
+    void slowClientStreamDoesNotLowerLimit() throws Exception {
+        var concurrencyLimit = AdaptiveConcurrencyLimit.builder()
+                .setInitialLimit(20)
+                .setMinLimit(1)
+                .setMaxLimit(20)
+                .build();
+        var backend = new ControlledChannel();
+        ConcurrencyLimiter limiter = concurrencyLimit.limiter(backend);
+
+        // the backend takes about 20ms to respond to unary calls
+        List<ProxyCall<byte[], byte[]>> calls = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            var call = proxyCall(backend, UNARY, new Metadata(), concurrencyLimit);
+            call.onMessage(new byte[0]);
+            call.onEndOfStream();
+            calls.add(call);
+        }
+        Thread.sleep(20);
+        backend.closeAll();
+        assertThat(limiter.limit()).isEqualTo(20);
+
+        // the clients take much longer to upload their streams, the backend still responds within about 20ms
+        calls.clear();
+        for (int i = 0; i < 20; i++) {
+            var call = proxyCall(backend, CLIENT_STREAMING, new Metadata(), concurrencyLimit);
+            call.onMessage(new byte[0]);
+            calls.add(call);
+        }
+        Thread.sleep(200);
+        for (var call : calls) {
+            call.onEndOfStream();
+        }
+        Thread.sleep(20);
+        backend.closeAll();
+        assertThat(limiter.inFlight()).isZero();
+        assertThat(limiter.limit()).isEqualTo(20);
+    }
+
+    @Test
+    void cancelWhileReadingClientStream() throws Exception {
+        // callbacks of both the server and the channel run inline, on the thread which cancels or sends
+        this.server = InProcessServerBuilder.forName("proxy-call-test")
+                .directExecutor()
+                .addService(ServerServiceDefinition.builder("test.Service")
+                        .addMethod(CLIENT_STREAMING, ServerCalls.asyncClientStreamingCall(this::discardRequests))
+                        .build())
+                .build()
+                .start();
+        ManagedChannel channel = InProcessChannelBuilder.forName("proxy-call-test").directExecutor().build();
+        this.channel = channel;
+
+        byte[] frame = ServletFakes.frame(0, new byte[16]);
+        for (int i = 0; i < 200; i++) {
+            var call = proxyCall(channel, CLIENT_STREAMING, new Metadata(), null);
+            CountDownLatch received = new CountDownLatch(1);
+            this.received = received;
+            var inputStream = new FakeInputStream();
+            var decoder = new FrameDecoder<>(CLIENT_STREAMING.getRequestMarshaller(), 1024, bufferPool, null, call);
+            inputStream.setReadListener(new RequestReadListener(inputStream, decoder, bufferPool, call::fail));
+
+            Future<?> read = executor.submit(() -> {
+                for (int j = 0; j < 500; j++) {
+                    inputStream.deliver(frame);
+                }
+                return null;
+            });
+            // cancel once the call has started, while messages are still being read
+            Future<?> cancel = executor.submit(() -> {
+                received.await();
+                return call.future().completeExceptionally(new CancellationException());
+            });
+            read.get(5, TimeUnit.SECONDS);
+            cancel.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private StreamObserver<byte[]> discardRequests(StreamObserver<byte[]> responseObserver) {
+        return new StreamObserver<>() {
+            @Override
+            public void onNext(byte[] value) {
+                received.countDown();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onCompleted() {
+                responseObserver.onNext(new byte[0]);
+                responseObserver.onCompleted();
+            }
+        };
+    }
+
+    private void startUnary(Channel channel, String tenant, AdaptiveConcurrencyLimit concurrencyLimit) {
+        Metadata headers = new Metadata();
+        headers.put(TENANT, tenant);
+        var call = proxyCall(channel, UNARY, headers, concurrencyLimit);
+        call.onMessage(new byte[0]);
+        call.onEndOfStream();
+    }
+
+    private <T, R> ProxyCall<T, R> proxyCall(Channel channel, MethodDescriptor<T, R> method, Metadata headers,
+            @Nullable AdaptiveConcurrencyLimit concurrencyLimit) {
+        DefaultResponseWriter writer = new FakeResponse().writer(bufferPool);
+        var messageWriter = new MessageResponseWriter<>(writer, method.getResponseMarshaller(), bufferPool, null);
+        return new ProxyCall<>(channel, method, CallOptions.DEFAULT, headers, writer, messageWriter,
+                concurrencyLimit);
+    }
+
+    private static AdaptiveConcurrencyLimit singleCallLimit() {
+        return AdaptiveConcurrencyLimit.builder()
+                .setInitialLimit(1)
+                .setMinLimit(1)
+                .setMaxLimit(1)
+                .build();
+    }
+
+    /**
+     * @return an affinity key which is routed to the backend
+     */
+    private static String tenantOf(AffinityChannelManager manager, Channel backend) {
+        for (int i = 0; ; i++) {
+            if (manager.select("tenant" + i) == backend) {
+                return "tenant" + i;
+            }
+        }
+    }
+
+    /**
+     * Channel whose calls complete when the test closes them.
+     */
+    private static class ControlledChannel extends PendingChannel {
+        private final List<ClientCall.Listener<?>> listeners = new ArrayList<>();
+
+        @Override
+        public <T, R> ClientCall<T, R> newCall(MethodDescriptor<T, R> method, CallOptions callOptions) {
+            ClientCall<T, R> call = super.newCall(method, callOptions);
+            return new ForwardingClientCall.SimpleForwardingClientCall<>(call) {
+                @Override
+                public void start(Listener<R> responseListener, Metadata headers) {
+                    listeners.add(responseListener);
+                    super.start(responseListener, headers);
+                }
+            };
+        }
+
+        void closeAll() {
+            for (var listener : listeners) {
+                listener.onClose(Status.OK, new Metadata());
+            }
+            listeners.clear();
+        }
+    }
+
+    /**
+     * Channel whose calls never complete.
+     */
+    private static class PendingChannel extends Channel {
+        private int started;
+
+        @Override
+        public <T, R> ClientCall<T, R> newCall(MethodDescriptor<T, R> method, CallOptions callOptions) {
+            return new ClientCall<>() {
+                @Override
+                public void start(Listener<R> responseListener, Metadata headers) {
+                    started++;
+                }
+
+                @Override
+                public void request(int numMessages) {
+                }
+
+                @Override
+                public void cancel(@Nullable String message, @Nullable Throwable cause) {
+                }
+
+                @Override
+                public void halfClose() {
+                }
+
+                @Override
+                public void sendMessage(T message) {
+                }
+            };
+        }
+
+        @Override
+        public String authority() {
+            return "test";
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.radixiot.grpcweb.ServletFakes.FakeInputStream;
+import com.radixiot.grpcweb.ServletFakes.FakeResponse;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.Marshaller;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.ServiceDescriptor;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+
+class RequestHandlerTest {
+
+    private static final MethodDescriptor<String, String> CLIENT_STREAMING = MethodDescriptor
+            .newBuilder(new StringMarshaller(), new StringMarshaller())
+            .setType(MethodDescriptor.MethodType.CLIENT_STREAMING)
+            .setFullMethodName("test.Service/ClientStreaming")
+            .build();
+    private static final MethodDescriptor<byte[], byte[]> UNARY = MethodDescriptor
+            .newBuilder(ByteArrayMarshaller.INSTANCE, ByteArrayMarshaller.INSTANCE)
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName("test.Service/Unary")
+            .build();
+    private static final MethodDescriptor<byte[], byte[]> SERVER_STREAMING = MethodDescriptor
+            .newBuilder(ByteArrayMarshaller.INSTANCE, ByteArrayMarshaller.INSTANCE)
+            .setType(MethodDescriptor.MethodType.SERVER_STREAMING)
+            .setFullMethodName("test.Service/ServerStreaming")
+            .build();
+
+    private final CountDownLatch received = new CountDownLatch(2);
+    private @Nullable Server server;
+    private @Nullable ManagedChannel channel;
+
+    @AfterEach
+    void stop() {
+        if (channel != null) {
+            channel.shutdownNow();
+        }
+        if (server != null) {
+            server.shutdownNow();
+        }
+    }
+
+    @Test
+    void clientStreamIsForwardedWhileReading() throws Exception {
+        this.server = InProcessServerBuilder.forName("request-handler-test")
+                .addService(ServerServiceDefinition.builder("test.Service")
+                        .addMethod(CLIENT_STREAMING, ServerCalls.asyncClientStreamingCall(this::countRequests))
+                        .build())
+                .build()
+                .start();
+        ManagedChannel channel = InProcessChannelBuilder.forName("request-handler-test").build();
+        this.channel = channel;
+        RequestHandler handler = RequestHandler.builder()
+                .setChannelManager(new DefaultChannelManager(channel))
+                .setServiceLocator(name -> ServiceDescriptor.newBuilder(name).addMethod(CLIENT_STREAMING).build())
+                .build();
+
+        var inputStream = new FakeInputStream();
+        var response = new FakeResponse();
+        CompletableFuture<@Nullable Void> future = handler.handle(
+                ServletFakes.request(CLIENT_STREAMING.getFullMethodName(), Map.of(), inputStream, true),
+                response.response);
+
+        inputStream.deliver(ServletFakes.frame(0, bytes("first")));
+        inputStream.deliver(ServletFakes.frame(0, bytes("second")));
+        // the server receives the messages before the client has finished sending the request body
+        assertThat(received.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(future).isNotDone();
+
+        inputStream.finish();
+        future.get(5, TimeUnit.SECONDS);
+        assertThat(response.outputStream.toByteArray()).startsWith(ServletFakes.frame(0, bytes("2")));
+    }
+
+    @Test
+    void unaryCallAllocation() throws Exception {
+        var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+
+        // direct executors run the whole call on this thread, so all of its allocations are measured
+        RequestHandler handler = echoHandler(RequestHandler.builder());
+        ManagedChannel channel = Objects.requireNonNull(this.channel);
+        byte[] message = bytes("hello");
+        byte[] frame = ServletFakes.frame(0, message);
+
+        int warmup = 2_000;
+        int calls = 2_000;
+        var requests = new HttpServletRequest[warmup + calls];
+        var responses = new FakeResponse[warmup + calls];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = ServletFakes.request(UNARY.getFullMethodName(), Map.of(), FakeInputStream.of(frame), false);
+            responses[i] = new FakeResponse();
+        }
+        ClientCall.Listener<byte[]> listener = new ClientCall.Listener<>() {
+        };
+        for (int i = 0; i < warmup; i++) {
+            assertThat(handler.handle(requests[i], responses[i].response)).isDone();
+            directCall(channel, message, listener);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = warmup; i < requests.length; i++) {
+            directCall(channel, message, listener);
+        }
+        long directBytes = (threadBean.getThreadAllocatedBytes(threadId) - before) / calls;
+
+        before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = warmup; i < requests.length; i++) {
+            handler.handle(requests[i], responses[i].response);
+        }
+        long proxyBytes = (threadBean.getThreadAllocatedBytes(threadId) - before) / calls;
+
+        assertThat(responses[requests.length - 1].outputStream.toByteArray()).startsWith(frame);
+        // compared with the same call made directly, so the bound does not depend on the transport's allocations. The
+        // proxy currently adds about 2.2 KB to the 2.8 KB of a direct call, including the fake request and response.
+        assertThat(proxyBytes - directBytes).isLessThan(directBytes);
+    }
+
+    /**
+     * Makes the same call as the proxy directly on the channel, the allocations of the transport and server are the
+     * baseline which the proxy adds to.
+     */
+    private static void directCall(Channel channel, byte[] message, ClientCall.Listener<byte[]> listener) {
+        ClientCall<byte[], byte[]> call = channel.newCall(UNARY, CallOptions.DEFAULT);
+        call.start(listener, new Metadata());
+        call.request(1);
+        call.sendMessage(message);
+        call.halfClose();
+    }
+
+    @Test
+    void releasesClientStreamWhenResponseCanNotStart() throws Exception {
+        ManagedChannel channel = InProcessChannelBuilder.forName("request-handler-quota-test").build();
+        this.channel = channel;
+        ClientQuota clientQuota = ClientQuota.builder().setMaxServerStreams(1).build();
+        RequestHandler handler = RequestHandler.builder()
+                .setChannelManager(new DefaultChannelManager(channel))
+                .setServiceLocator(name -> ServiceDescriptor.newBuilder(name).addMethod(SERVER_STREAMING).build())
+                .setClientQuota(clientQuota)
+                .build();
+        byte[] frame = ServletFakes.frame(0, new byte[0]);
+
+        for (int i = 0; i < 2; i++) {
+            var response = new FakeResponse();
+            response.outputStreamError = new IOException("Client has gone away");
+            HttpServletRequest request = ServletFakes.request(SERVER_STREAMING.getFullMethodName(), Map.of(),
+                    FakeInputStream.of(frame), true);
+            assertThatThrownBy(() -> handler.handle(request, response.response))
+                    .isSameAs(response.outputStreamError);
+        }
+        // the stream taken by the failed requests has been released
+        @Nullable Runnable release = clientQuota.acquire("127.0.0.1", true, System.nanoTime());
+        assertThat(release).isNotNull();
+        release.run();
+    }
+
+    @Test
+    void binaryContentLengthFitsOneFrame() throws Exception {
+        RequestHandler handler = echoHandler(RequestHandler.builder().setMaxFrameSize(10));
+        byte[] frame = ServletFakes.frame(0, new byte[10]);
+
+        var response = new FakeResponse();
+        handler.handle(ServletFakes.request(UNARY.getFullMethodName(), Map.of(), FakeInputStream.of(frame), false,
+                ServletFakes.GRPC_WEB, frame.length), response.response).get(5, TimeUnit.SECONDS);
+        assertThat(response.outputStream.toByteArray()).startsWith(frame);
+
+        assertResourceExhausted(handler.handle(ServletFakes.request(UNARY.getFullMethodName(), Map.of(),
+                FakeInputStream.of(frame), false, ServletFakes.GRPC_WEB, frame.length + 1),
+                new FakeResponse().response));
+    }
+
+    @Test
+    void textContentLengthAllowsPaddedSegments() throws Exception {
+        RequestHandler handler = echoHandler(RequestHandler.builder().setMaxFrameSize(10));
+        byte[] frame = ServletFakes.frame(0, new byte[10]);
+        // each byte as its own padded segment, longer than the frame encoded as a single segment
+        var body = new StringBuilder();
+        for (byte b : frame) {
+            body.append(Base64.getEncoder().encodeToString(new byte[] {b}));
+        }
+        byte[] text = body.toString().getBytes(StandardCharsets.US_ASCII);
+        assertThat(text.length).isGreaterThan(Base64.getEncoder().encodeToString(frame).length());
+
+        var response = new FakeResponse();
+        handler.handle(ServletFakes.request(UNARY.getFullMethodName(), Map.of(), FakeInputStream.of(text), false,
+                ServletFakes.GRPC_WEB_TEXT, text.length), response.response).get(5, TimeUnit.SECONDS);
+        assertThat(Base64.getDecoder().decode(response.outputStream.toByteArray())).startsWith(frame);
+
+        // no encoding of a single frame can be this long
+        assertResourceExhausted(handler.handle(ServletFakes.request(UNARY.getFullMethodName(), Map.of(),
+                FakeInputStream.of(text), false, ServletFakes.GRPC_WEB_TEXT, text.length + 1),
+                new FakeResponse().response));
+    }
+
+    /**
+     * @return a handler for unary calls to a server which echoes the request, the server and channel use direct
+     * executors so calls complete before the handler returns
+     */
+    private RequestHandler echoHandler(RequestHandlerBuilder builder) throws IOException {
+        this.server = InProcessServerBuilder.forName("request-handler-echo-test")
+                .directExecutor()
+                .addService(ServerServiceDefinition.builder("test.Service")
+                        .addMethod(UNARY, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                            responseObserver.onNext(request);
+                            responseObserver.onCompleted();
+                        }))
+                        .build())
+                .build()
+                .start();
+        ManagedChannel channel = InProcessChannelBuilder.forName("request-handler-echo-test")
+                .directExecutor()
+                .build();
+        this.channel = channel;
+        return builder
+                .setChannelManager(new DefaultChannelManager(channel))
+                .setServiceLocator(name -> ServiceDescriptor.newBuilder(name).addMethod(UNARY).build())
+                .build();
+    }
+
+    private static void assertResourceExhausted(CompletableFuture<@Nullable Void> future) {
+        assertThat(future).failsWithin(5, TimeUnit.SECONDS)
+                .withThrowableOfType(ExecutionException.class)
+                .havingCause()
+                .isInstanceOfSatisfying(StatusRuntimeException.class,
+                        e -> assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.RESOURCE_EXHAUSTED));
+    }
+
+    private StreamObserver<String> countRequests(StreamObserver<String> responseObserver) {
+        return new StreamObserver<>() {
+            private int count;
+
+            @Override
+            public void onNext(String value) {
+                count++;
+                received.countDown();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onCompleted() {
+                responseObserver.onNext(Integer.toString(count));
+                responseObserver.onCompleted();
+            }
+        };
+    }
+
+    private static byte[] bytes(String message) {
+        return message.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class StringMarshaller implements Marshaller<String> {
+        @Override
+        public InputStream stream(String value) {
+            return new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String parse(InputStream stream) {
+            try {
+                return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.jupiter.api.Test;
+
+import com.radixiot.grpcweb.ServletFakes.FakeInputStream;
+
+import io.grpc.MethodDescriptor.Marshaller;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+class RequestReadListenerTest {
+
+    private final BufferPool bufferPool = new DefaultBufferPool();
+    private final List<Throwable> errors = new ArrayList<>();
+    private final TestListener listener = new TestListener();
+    private final FrameDecoder<String> decoder = new FrameDecoder<>(new StringMarshaller(), 1024, bufferPool,
+            listener);
+
+    @Test
+    void frameSplitAcrossReads() throws IOException {
+        var inputStream = new FakeInputStream();
+        inputStream.setReadListener(readListener(inputStream));
+        byte[] frame = ServletFakes.frame(0, bytes("hello"));
+
+        // the stream is not ready in the middle of the frame, reading stops until the container has more data
+        inputStream.deliver(Arrays.copyOfRange(frame, 0, 3));
+        inputStream.deliver(Arrays.copyOfRange(frame, 3, 7));
+        assertThat(listener.messages).isEmpty();
+
+        inputStream.deliver(Arrays.copyOfRange(frame, 7, frame.length));
+        assertThat(listener.messages).containsExactly("hello");
+        inputStream.finish();
+        assertThat(listener.ended).isTrue();
+        assertThat(errors).isEmpty();
+    }
+
+    @Test
+    void pausesWhileDecoderIsNotReady() throws IOException {
+        var inputStream = new FakeInputStream();
+        inputStream.setReadListener(readListener(inputStream));
+        listener.readyAfterMessage = false;
+
+        inputStream.deliver(ServletFakes.frame(0, bytes("first")));
+        inputStream.deliver(ServletFakes.frame(0, bytes("second")));
+        // the second frame stays in the input stream until the call is ready for it
+        assertThat(listener.messages).containsExactly("first");
+        assertThat(inputStream.isReady()).isTrue();
+
+        listener.setReady(true);
+        assertThat(listener.messages).containsExactly("first", "second");
+        assertThat(errors).isEmpty();
+    }
+
+    @Test
+    void readyWhileDecoding() throws IOException {
+        var inputStream = FakeInputStream.of(
+                ServletFakes.frame(0, bytes("first")),
+                ServletFakes.frame(0, bytes("second")),
+                ServletFakes.frame(0, bytes("third")));
+        var readListener = readListener(inputStream);
+        inputStream.setReadListener(readListener);
+        // e.g. with a direct executor the call becomes ready again on the thread which sent the message
+        listener.readyInline = true;
+
+        readListener.onDataAvailable();
+        assertThat(listener.messages).containsExactly("first", "second", "third");
+        assertThat(listener.maxDepth).isEqualTo(1);
+
+        readListener.onAllDataRead();
+        assertThat(listener.ended).isTrue();
+        assertThat(errors).isEmpty();
+    }
+
+    @Test
+    void failsOnce() throws IOException {
+        var inputStream = new FakeInputStream();
+        inputStream.setReadListener(readListener(inputStream));
+
+        inputStream.deliver(ServletFakes.frame(0, new byte[2048]));
+        inputStream.deliver(ServletFakes.frame(0, bytes("ignored")));
+        inputStream.finish();
+        assertThat(errors).singleElement()
+                .isInstanceOfSatisfying(StatusRuntimeException.class,
+                        e -> assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.RESOURCE_EXHAUSTED));
+        assertThat(listener.messages).isEmpty();
+        assertThat(listener.ended).isFalse();
+    }
+
+    @Test
+    void readFully() throws IOException {
+        byte[] first = ServletFakes.frame(0, bytes("first"));
+        var inputStream = FakeInputStream.of(
+                Arrays.copyOfRange(first, 0, 2),
+                Arrays.copyOfRange(first, 2, first.length),
+                ServletFakes.frame(0, bytes("second")));
+
+        RequestReadListener.readFully(inputStream, decoder, bufferPool);
+        assertThat(listener.messages).containsExactly("first", "second");
+        assertThat(listener.ended).isTrue();
+    }
+
+    private RequestReadListener readListener(FakeInputStream inputStream) {
+        return new RequestReadListener(inputStream, decoder, bufferPool, errors::add);
+    }
+
+    private static byte[] bytes(String message) {
+        return message.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class TestListener implements FrameDecoder.Listener<String> {
+        private final List<String> messages = new ArrayList<>();
+        private boolean ended;
+        private boolean ready = true;
+        private boolean readyAfterMessage = true;
+        private boolean readyInline;
+        private int depth;
+        private int maxDepth;
+        private @Nullable Runnable onReadyHandler;
+
+        @Override
+        public void onMessage(String message) {
+            depth++;
+            maxDepth = Math.max(maxDepth, depth);
+            messages.add(message);
+            this.ready = readyAfterMessage;
+            if (readyInline) {
+                setReady(true);
+            }
+            depth--;
+        }
+
+        @Override
+        public void onEndOfStream() {
+            this.ended = true;
+        }
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void setOnReadyHandler(Runnable handler) {
+            this.onReadyHandler = handler;
+        }
+
+        void setReady(boolean ready) {
+            this.ready = ready;
+            @Nullable Runnable handler = onReadyHandler;
+            if (ready && handler != null) {
+                handler.run();
+            }
+        }
+    }
+
+    private static class StringMarshaller implements Marshaller<String> {
+        @Override
+        public InputStream stream(String value) {
+            return new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String parse(InputStream stream) {
+            try {
+                return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Minimal servlet request and response objects, the tests act as the container and decide when the streams are
+ * ready.
+ */
+final class ServletFakes {
+
+    static final GrpcWebContentType GRPC_WEB = new GrpcWebContentType("application/grpc-web+proto", false);
+    static final GrpcWebContentType GRPC_WEB_TEXT = new GrpcWebContentType("application/grpc-web-text+proto", true);
+
+    private ServletFakes() {
+    }
+
+    /**
+     * @return a gRPC-Web frame containing the message
+     */
+    static byte[] frame(int flags, byte[] message) {
+        byte[] frame = new byte[FrameDecoder.HEADER_LENGTH + message.length];
+        frame[0] = (byte) flags;
+        frame[1] = (byte) (message.length >>> 24);
+        frame[2] = (byte) (message.length >>> 16);
+        frame[3] = (byte) (message.length >>> 8);
+        frame[4] = (byte) message.length;
+        System.arraycopy(message, 0, frame, FrameDecoder.HEADER_LENGTH, message.length);
+        return frame;
+    }
+
+    static HttpServletRequest request(String fullMethodName, Map<String, String> headers, ServletInputStream body,
+            boolean async) {
+        return request(fullMethodName, headers, body, async, GRPC_WEB, -1);
+    }
+
+    /**
+     * @param contentLength value of the Content-Length header, or -1 if it is not sent
+     */
+    static HttpServletRequest request(String fullMethodName, Map<String, String> headers, ServletInputStream body,
+            boolean async, GrpcWebContentType contentType, long contentLength) {
+        Map<String, String> lowerCase = new LinkedHashMap<>();
+        headers.forEach((name, value) -> lowerCase.put(name.toLowerCase(), value));
+        return (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(),
+                new Class<?>[] {HttpServletRequest.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "getPathInfo" -> "/" + fullMethodName;
+                    case "getContentType" -> contentType.contentType();
+                    case "getContentLengthLong" -> contentLength;
+                    case "getRemoteAddr" -> "127.0.0.1";
+                    case "getHeader" -> lowerCase.get(((String) args[0]).toLowerCase());
+                    case "getHeaderNames" -> Collections.enumeration(lowerCase.keySet());
+                    case "getHeaders" -> {
+                        @Nullable String value = lowerCase.get(((String) args[0]).toLowerCase());
+                        yield Collections.enumeration(value == null ? List.of() : List.of(value));
+                    }
+                    case "getInputStream" -> body;
+                    case "isAsyncStarted" -> async;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    /**
+     * Request body which is delivered in chunks. In non-blocking mode the test calls {@link #deliver(byte[])} to make
+     * a chunk available, in blocking mode reads wait for the next chunk.
+     */
+    static class FakeInputStream extends ServletInputStream {
+        private final Queue<byte[]> chunks = new ArrayDeque<>();
+        private byte @Nullable [] current;
+        private int position;
+        private boolean finished;
+        private @Nullable ReadListener listener;
+        final List<String> readThreads = Collections.synchronizedList(new ArrayList<>());
+
+        /**
+         * @return a stream which already contains the whole body
+         */
+        static FakeInputStream of(byte[]... chunks) {
+            FakeInputStream inputStream = new FakeInputStream();
+            for (byte[] chunk : chunks) {
+                inputStream.chunks.add(chunk);
+            }
+            inputStream.finished = true;
+            return inputStream;
+        }
+
+        /**
+         * Makes a chunk available and notifies the read listener, as the container does.
+         */
+        void deliver(byte[] chunk) throws IOException {
+            @Nullable ReadListener listener;
+            synchronized (this) {
+                chunks.add(chunk);
+                notifyAll();
+                listener = this.listener;
+            }
+            if (listener != null) {
+                listener.onDataAvailable();
+            }
+        }
+
+        /**
+         * Ends the body, the read listener is notified that all data was read.
+         */
+        void finish() throws IOException {
+            @Nullable ReadListener listener;
+            synchronized (this) {
+                this.finished = true;
+                notifyAll();
+                listener = this.listener;
+            }
+            if (listener != null) {
+                listener.onAllDataRead();
+            }
+        }
+
+        @Override
+        public synchronized boolean isFinished() {
+            return finished && current == null && chunks.isEmpty();
+        }
+
+        @Override
+        public synchronized boolean isReady() {
+            return current != null || !chunks.isEmpty() || finished;
+        }
+
+        @Override
+        public synchronized void setReadListener(ReadListener readListener) {
+            this.listener = readListener;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        /**
+         * Reads from at most one chunk, so a frame split across chunks is split across reads.
+         */
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            readThreads.add(Thread.currentThread().getName());
+            while (current == null) {
+                current = chunks.poll();
+                position = 0;
+                if (current != null) break;
+                if (finished) return -1;
+                if (listener != null) {
+                    throw new IllegalStateException("Read while not ready");
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            int count = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, count);
+            position += count;
+            if (position == current.length) {
+                current = null;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Response body which the test can switch between ready and not ready. The write listener is called once the
+     * stream becomes ready again after {@link #isReady()} returned false.
+     */
+    static class FakeOutputStream extends ServletOutputStream {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private boolean ready = true;
+        private boolean notifyPending;
+        private boolean closed;
+        private @Nullable WriteListener listener;
+        final List<String> writeThreads = Collections.synchronizedList(new ArrayList<>());
+
+        synchronized byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+
+        synchronized boolean closed() {
+            return closed;
+        }
+
+        void setReady(boolean ready) throws IOException {
+            @Nullable WriteListener listener = null;
+            synchronized (this) {
+                this.ready = ready;
+                if (ready && notifyPending) {
+                    this.notifyPending = false;
+                    listener = this.listener;
+                }
+            }
+            if (listener != null) {
+                listener.onWritePossible();
+            }
+        }
+
+        void fail(Throwable error) {
+            @Nullable WriteListener listener;
+            synchronized (this) {
+                listener = this.listener;
+            }
+            if (listener != null) {
+                listener.onError(error);
+            }
+        }
+
+        @Override
+        public synchronized boolean isReady() {
+            if (!ready) {
+                this.notifyPending = true;
+            }
+            return ready;
+        }
+
+        @Override
+        public synchronized void setWriteListener(WriteListener writeListener) {
+            this.listener = writeListener;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            writeThreads.add(Thread.currentThread().getName());
+            bytes.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            writeThreads.add(Thread.currentThread().getName());
+            bytes.write(b, off, len);
+        }
+
+        @Override
+        public synchronized void close() {
+            this.closed = true;
+        }
+    }
+
+    static class FakeResponse {
+        final FakeOutputStream outputStream = new FakeOutputStream();
+        final Map<String, String> headers = Collections.synchronizedMap(new LinkedHashMap<>());
+        final AtomicInteger flushes = new AtomicInteger();
+        /**
+         * Flushes wait until the latch is released, if set, as a flush to a slow client blocks.
+         */
+        volatile @Nullable CountDownLatch flushGate;
+        /**
+         * Thrown when the output stream is requested, if set.
+         */
+        volatile @Nullable IOException outputStreamError;
+        final HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(
+                HttpServletResponse.class.getClassLoader(), new Class<?>[] {HttpServletResponse.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getOutputStream" -> {
+                        @Nullable IOException error = outputStreamError;
+                        if (error != null) {
+                            throw error;
+                        }
+                        yield outputStream;
+                    }
+                    case "setHeader", "addHeader" -> headers.merge((String) args[0], (String) args[1],
+                            (a, b) -> a + "," + b);
+                    case "flushBuffer" -> {
+                        @Nullable CountDownLatch gate = flushGate;
+                        if (gate != null) {
+                            gate.await();
+                        }
+                        yield flushes.incrementAndGet();
+                    }
+                    case "setStatus", "setContentType" -> null;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+
+        DefaultResponseWriter writer(BufferPool bufferPool) {
+            return new DefaultResponseWriter(GRPC_WEB, response, new DefaultHeaderConverter(), bufferPool);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.junit.jupiter.api.Test;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+
+class TrailerEncoderTest {
+
+    private final PooledOutputStream output = new PooledOutputStream(new DefaultBufferPool());
+
+    @Test
+    void statusOnlyFrame() {
+        byte[] frame = TrailerEncoder.statusFrame(Status.OK, new Metadata(), false);
+
+        assertThat(frame).isNotNull();
+        assertThat(frame).startsWith(0x80, 0, 0, 0, 16);
+        assertThat(new String(frame, 5, frame.length - 5, StandardCharsets.US_ASCII))
+                .isEqualTo("grpc-status: 0\r\n");
+        assertThat(TrailerEncoder.statusFrame(Status.UNAUTHENTICATED, new Metadata(), true))
+                .isEqualTo(Base64.getEncoder().encode(TrailerEncoder.statusFrame(Status.UNAUTHENTICATED,
+                        new Metadata(), false)));
+    }
+
+    @Test
+    void notCachedWithDescriptionOrTrailers() {
+        Metadata trailer = new Metadata();
+        trailer.put(Metadata.Key.of("x-custom", Metadata.ASCII_STRING_MARSHALLER), "a");
+
+        assertThat(TrailerEncoder.statusFrame(Status.INTERNAL.withDescription("failed"), new Metadata(), false))
+                .isNull();
+        assertThat(TrailerEncoder.statusFrame(Status.OK, trailer, false)).isNull();
+    }
+
+    @Test
+    void statusWithMessage() {
+        output.reset(0);
+        TrailerEncoder.append(output, "X-Custom", "a");
+        TrailerEncoder.appendStatus(output, Status.UNAUTHENTICATED.withDescription("100% \u00e9\n\ud83d\ude00"));
+
+        assertThat(text()).isEqualTo("x-custom: a\r\ngrpc-status: 16\r\n" +
+                "grpc-message: 100%25 %C3%A9%0A%F0%9F%98%80\r\n");
+    }
+
+    private String text() {
+        return StandardCharsets.US_ASCII.decode(output.toBuffer()).toString();
+    }
+}
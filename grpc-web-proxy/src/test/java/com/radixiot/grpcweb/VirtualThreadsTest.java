@@ -0,0 +1,106 @@
+/*
+ * Copyright 2024 Radix IoT, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.radixiot.grpcweb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.radixiot.grpcweb.ServletFakes.FakeInputStream;
+import com.radixiot.grpcweb.ServletFakes.FakeResponse;
+
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.ServiceDescriptor;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ServerCalls;
+
+class VirtualThreadsTest {
+
+    private static final MethodDescriptor<byte[], byte[]> ECHO = MethodDescriptor
+            .newBuilder(ByteArrayMarshaller.INSTANCE, ByteArrayMarshaller.INSTANCE)
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName("test.Service/Echo")
+            .build();
+
+    @Test
+    void builder() throws Exception {
+        RequestHandlerBuilder builder = RequestHandler.builder().setVirtualThreads(true);
+        if (VirtualThreads.isSupported()) {
+            assertThat(builder.build()).isNotNull();
+
+            ExecutorService executor = VirtualThreads.newExecutor();
+            var virtual = new CompletableFuture<Boolean>();
+            executor.execute(() -> virtual.complete(Thread.currentThread().toString().contains("Virtual")));
+            assertThat(virtual.get(5, TimeUnit.SECONDS)).isTrue();
+            executor.shutdown();
+        } else {
+            assertThatThrownBy(builder::build).isInstanceOf(IllegalStateException.class);
+        }
+    }
+
+    @Test
+    void readsAndWritesOnCallExecutor() throws Exception {
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService callExecutor = Executors.newCachedThreadPool(
+                r -> new Thread(r, "call-executor-" + threads.incrementAndGet()));
+        Server server = InProcessServerBuilder.forName("call-executor-test")
+                .addService(ServerServiceDefinition.builder("test.Service")
+                        .addMethod(ECHO, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                            responseObserver.onNext(request);
+                            responseObserver.onCompleted();
+                        }))
+                        .build())
+                .build()
+                .start();
+        ManagedChannel channel = InProcessChannelBuilder.forName("call-executor-test").build();
+        try {
+            RequestHandler handler = RequestHandler.builder()
+                    .setChannelManager(new DefaultChannelManager(channel))
+                    .setServiceLocator(name -> ServiceDescriptor.newBuilder(name).addMethod(ECHO).build())
+                    .setCallExecutor(callExecutor)
+                    .build();
+
+            byte[] message = "hello".getBytes(StandardCharsets.UTF_8);
+            var inputStream = FakeInputStream.of(ServletFakes.frame(0, message));
+            var response = new FakeResponse();
+            handler.handle(ServletFakes.request(ECHO.getFullMethodName(), Map.of(), inputStream, true),
+                    response.response).get(5, TimeUnit.SECONDS);
+
+            assertThat(response.outputStream.toByteArray()).startsWith(ServletFakes.frame(0, message));
+            assertThat(inputStream.readThreads).isNotEmpty().allMatch(name -> name.startsWith("call-executor-"));
+            assertThat(response.outputStream.writeThreads).isNotEmpty()
+                    .allMatch(name -> name.startsWith("call-executor-"));
+        } finally {
+            channel.shutdownNow();
+            server.shutdownNow();
+            callExecutor.shutdownNow();
+        }
+    }
+}